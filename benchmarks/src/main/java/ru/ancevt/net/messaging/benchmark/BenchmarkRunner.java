@@ -0,0 +1,36 @@
+package ru.ancevt.net.messaging.benchmark;
+
+import java.io.IOException;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar. Accepts the usual JMH command line and adds the GC profiler ({@code -prof gc})
+ * unless other profilers are given explicitly, so allocation rates are always part of the report.
+ *
+ * @author ancevt
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws IOException, RunnerException, CommandLineOptionException {
+        final CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListProfilers()
+            || commandLine.shouldListResultFormats() || commandLine.shouldListWithParams()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        final ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (commandLine.getProfilers().isEmpty()) {
+            options.addProfiler(GCProfiler.class);
+        }
+        new Runner(options.build()).run();
+    }
+
+}
@@ -0,0 +1,41 @@
+package ru.ancevt.net.messaging.benchmark;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import org.apache.log4j.Level;
+import ru.ancevt.net.messaging.Log;
+
+/**
+ * Helpers shared by the benchmarks.
+ *
+ * @author ancevt
+ */
+final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    /**
+     * The library logs every frame at INFO, which would dominate any measurement.
+     */
+    static void silenceLogs() {
+        Log.logger.setLevel(Level.WARN);
+        Log.dev.setLevel(Level.WARN);
+    }
+
+    static String text(int length) {
+        final StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; sb.length() < length; i++) {
+            sb.append(i).append(' ');
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package ru.ancevt.net.messaging.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.ancevt.net.messaging.message.Message;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.message.UTF8Message;
+
+/**
+ * Encoding of {@link UTF8Message} into frames and decoding of frames back into text. Every invocation works on a new
+ * message and on a frame without the text decoded by the previous one, as a message sent or received once would.
+ *
+ * @author ancevt
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"16", "1024", "65536", "1048576"})
+    public int payloadSize;
+
+    private String text;
+    private MessageData messageData;
+
+    @Setup
+    public void setUp() throws IOException {
+        Benchmarks.silenceLogs();
+
+        text = Benchmarks.text(payloadSize);
+        messageData = new UTF8Message(text).prepare().getMessageData();
+    }
+
+    @Benchmark
+    public Message prepare() throws IOException {
+        // a prepared message keeps its frame, preparing it again would encode nothing
+        return new UTF8Message(text).prepare();
+    }
+
+    @Benchmark
+    public String decode() {
+        // the decoded text is attached to the frame and would be reused otherwise
+        messageData.attach(null);
+        return new UTF8Message(messageData).getText();
+    }
+
+}
@@ -0,0 +1,88 @@
+package ru.ancevt.net.messaging.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.ancevt.net.messaging.buffer.BufferPool;
+import ru.ancevt.net.messaging.message.FrameDecoder;
+import ru.ancevt.net.messaging.message.MessageData;
+
+/**
+ * Building frames with {@link MessageData#setBytes} and decoding them back with {@link FrameDecoder}.
+ *
+ * @author ancevt
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FramingBenchmark {
+
+    @Param({"16", "1024", "65536", "1048576"})
+    public int payloadSize;
+
+    private byte[] payload;
+    private MessageData messageData;
+    private MessageData pooledMessageData;
+    private ByteBuffer wire;
+    private FrameDecoder decoder;
+    private FrameDecoder pooledDecoder;
+
+    @Setup
+    public void setUp() throws IOException {
+        Benchmarks.silenceLogs();
+
+        payload = new byte[payloadSize];
+        messageData = new MessageData();
+        pooledMessageData = new MessageData(new BufferPool(false, 2 * 1024 * 1024, 4));
+
+        final MessageData frame = new MessageData();
+        frame.setBytes(1, payload);
+        wire = ByteBuffer.allocateDirect(frame.length());
+        wire.put(frame.getBytes()).flip();
+
+        decoder = new FrameDecoder();
+        pooledDecoder = new FrameDecoder(new BufferPool(true, 2 * 1024 * 1024, 4));
+    }
+
+    @Benchmark
+    public MessageData setBytes() throws IOException {
+        messageData.setBytes(1, payload);
+        return messageData;
+    }
+
+    @Benchmark
+    public MessageData setBytesPooled() throws IOException {
+        pooledMessageData.setBytes(1, payload);
+        return pooledMessageData;
+    }
+
+    @Benchmark
+    public MessageData decode() throws IOException {
+        wire.rewind();
+        return decoder.decode(wire);
+    }
+
+    @Benchmark
+    public int decodePooled() throws IOException {
+        wire.rewind();
+        final MessageData decoded = pooledDecoder.decode(wire);
+        final int length = decoded.length();
+        decoded.release();
+        return length;
+    }
+
+}
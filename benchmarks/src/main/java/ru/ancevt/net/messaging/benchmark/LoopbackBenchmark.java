@@ -0,0 +1,144 @@
+package ru.ancevt.net.messaging.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.ancevt.net.messaging.MessagingClientAdapter;
+import ru.ancevt.net.messaging.MessagingConnection;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.message.UTF8Message;
+import ru.ancevt.net.messaging.server.MessagingServer;
+import ru.ancevt.net.messaging.server.MessagingServerAdapter;
+
+/**
+ * Client to server round trips over loopback TCP against an echoing {@link MessagingServer}.
+ *
+ * @author ancevt
+ */
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class LoopbackBenchmark {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @State(Scope.Benchmark)
+    public static class Loopback {
+
+        @Param({"1", "16", "256"})
+        public int connections;
+
+        @Param({"64"})
+        public int payloadSize;
+
+        MessagingServer server;
+        MessagingConnection[] clients;
+        String text;
+        final AtomicInteger next = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, InterruptedException {
+            Benchmarks.silenceLogs();
+
+            text = Benchmarks.text(payloadSize);
+
+            server = new MessagingServer();
+            server.addMessagingServerListener(new MessagingServerAdapter() {
+
+                @Override
+                public void acceptMessagingConnection(MessagingConnection connection) {
+                    connection.addMessagingConnectionListener(new MessagingClientAdapter() {
+
+                        @Override
+                        public void incomingMessageData(MessagingConnection connection, MessageData messageData) {
+                            try {
+                                connection.reply(messageData, new UTF8Message(text));
+                            } catch (IOException ex) {
+                                throw new IllegalStateException(ex);
+                            }
+                        }
+                    });
+                }
+            });
+            final int port = Benchmarks.freePort();
+            server.start("127.0.0.1", port);
+
+            clients = new MessagingConnection[connections];
+            for (int i = 0; i < connections; i++) {
+                clients[i] = new MessagingConnection("127.0.0.1", port);
+                clients[i].start();
+            }
+            for (MessagingConnection client : clients) {
+                while (!client.isOpened()) {
+                    Thread.sleep(1);
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            for (MessagingConnection client : clients) {
+                client.shutdown();
+            }
+            server.shutdown();
+        }
+
+        MessagingConnection nextClient() {
+            return clients[Math.floorMod(next.getAndIncrement(), clients.length)];
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+
+        public long messages;
+    }
+
+    /**
+     * One request in flight at a time, spread over the connections in turn.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public MessageData roundTripLatency(Loopback loopback) throws Exception {
+        return roundTrip(loopback.nextClient(), loopback.text);
+    }
+
+    /**
+     * One request on every connection at once; the {@code messages} counter reports round trips per second.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void roundTripThroughput(Loopback loopback, Counters counters) throws Exception {
+        final MessagingConnection[] clients = loopback.clients;
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[clients.length];
+        for (int i = 0; i < clients.length; i++) {
+            futures[i] = clients[i].request(new UTF8Message(loopback.text), TIMEOUT_MILLIS);
+        }
+        CompletableFuture.allOf(futures).get();
+        counters.messages += clients.length;
+    }
+
+    private static MessageData roundTrip(MessagingConnection client, String text) throws IOException, InterruptedException, ExecutionException {
+        return client.request(new UTF8Message(text), TIMEOUT_MILLIS).get();
+    }
+
+}
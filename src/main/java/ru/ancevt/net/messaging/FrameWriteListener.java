@@ -0,0 +1,15 @@
+package ru.ancevt.net.messaging;
+
+/**
+ * Notified once a frame queued by {@link MessagingConnection#send(ru.ancevt.net.messaging.message.MessageData,
+ * FrameWriteListener)} has been written out or dropped. Called on the writing thread, so it must not block.
+ *
+ * @author ancevt
+ */
+public interface FrameWriteListener {
+    /**
+     * @param written true if the whole frame was written to the socket, false if it was dropped because the
+     *                connection closed first
+     */
+    void frameWritten(MessagingConnection connection, boolean written);
+}
@@ -0,0 +1,74 @@
+package ru.ancevt.net.messaging;
+
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Settings of connection liveness checks. Every value of 0 disables its check.
+ * <p>
+ * A connection with a heartbeat interval pings its peer whenever it has written nothing for that long, and the peer
+ * answers with a pong whether or not it has heartbeats enabled itself. The read idle timeout closes a connection that
+ * has received nothing for that long, pongs included, so it should be a few heartbeat intervals. The write idle
+ * timeout closes a connection whose queued frames have not moved for that long, a peer that stopped reading.
+ *
+ * @author ancevt
+ */
+public final class HeartbeatConfig {
+
+    private final long intervalMillis;
+    private final long readIdleTimeoutMillis;
+    private final long writeIdleTimeoutMillis;
+
+    /**
+     * Pings every interval and gives the peer three intervals to answer, both for reading and for writing.
+     */
+    public HeartbeatConfig(long intervalMillis) {
+        this(intervalMillis, intervalMillis * 3, intervalMillis * 3);
+    }
+
+    public HeartbeatConfig(long intervalMillis, long readIdleTimeoutMillis, long writeIdleTimeoutMillis) {
+        if (intervalMillis < 0 || readIdleTimeoutMillis < 0 || writeIdleTimeoutMillis < 0) {
+            throw new IllegalArgumentException(
+                "Invalid heartbeat " + intervalMillis + "/" + readIdleTimeoutMillis + "/" + writeIdleTimeoutMillis
+            );
+        }
+        this.intervalMillis = intervalMillis;
+        this.readIdleTimeoutMillis = readIdleTimeoutMillis;
+        this.writeIdleTimeoutMillis = writeIdleTimeoutMillis;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public long getReadIdleTimeoutMillis() {
+        return readIdleTimeoutMillis;
+    }
+
+    public long getWriteIdleTimeoutMillis() {
+        return writeIdleTimeoutMillis;
+    }
+
+    /**
+     * Period of the check, half the shortest of the enabled values so none of them is overrun by more than that.
+     *
+     * @return 0 if every check is disabled
+     */
+    long getCheckPeriodMillis() {
+        long shortest = 0;
+        for (long value : new long[]{intervalMillis, readIdleTimeoutMillis, writeIdleTimeoutMillis}) {
+            if (value > 0 && (shortest == 0 || value < shortest)) {
+                shortest = value;
+            }
+        }
+        return shortest == 0 ? 0 : Math.max(1, shortest / 2);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("intervalMillis", intervalMillis)
+            .append("readIdleTimeoutMillis", readIdleTimeoutMillis)
+            .append("writeIdleTimeoutMillis", writeIdleTimeoutMillis)
+            .build();
+    }
+}
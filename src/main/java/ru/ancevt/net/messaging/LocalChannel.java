@@ -0,0 +1,204 @@
+package ru.ancevt.net.messaging;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import ru.ancevt.net.messaging.exec.SpscQueue;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * One end of an in-JVM connection. Frames go to the other end by reference through a {@link SpscQueue} per
+ * direction, nothing is encoded, copied or decoded on the way. The writer of the {@link OutboundQueue} of a
+ * connection is its only producer and the read loop of the other connection its only consumer.
+ * <p>
+ * A full queue blocks the writer until the reader catches up, the way a full socket buffer blocks a blocking socket.
+ * Closing an end closes both directions; the other end still receives the frames sent before and then reads the end
+ * of the stream.
+ *
+ * @author ancevt
+ */
+final class LocalChannel {
+
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private final String name;
+    private final Pipe in;
+    private final Pipe out;
+
+    private LocalChannel(String name, Pipe in, Pipe out) {
+        this.name = name;
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * @return the client end and the server end of a new connection to the local server of the given name
+     */
+    static LocalChannel[] pair(String name, int capacity) {
+        final Pipe toServer = new Pipe(capacity);
+        final Pipe toClient = new Pipe(capacity);
+        return new LocalChannel[]{
+            new LocalChannel(name, toClient, toServer),
+            new LocalChannel(name, toServer, toClient)
+        };
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Hands the frame over to the other end, waiting while its queue is full. Called by the writer of the connection
+     * only.
+     *
+     * @return false if the channel is closed, in which case the frame stays with the caller
+     */
+    boolean send(MessageData frame) throws InterruptedIOException {
+        return out.offer(frame);
+    }
+
+    /**
+     * Waits for the next frame. Called by the read loop of the connection only.
+     *
+     * @return the frame, null once the channel is closed and every frame sent before has been received
+     */
+    MessageData receive() throws InterruptedIOException {
+        return in.take();
+    }
+
+    /**
+     * Number of frames sent and not received by the other end yet.
+     */
+    int getPendingCount() {
+        return out.queue.size();
+    }
+
+    void close() {
+        in.close();
+        out.close();
+    }
+
+    /**
+     * Called by the read loop when it ends: frames left in the queue, and those still arriving, are released.
+     */
+    void abandon() {
+        in.close();
+        in.abandon();
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("name", name)
+            .append("in", in.queue.size())
+            .append("out", out.queue.size())
+            .build();
+    }
+
+    private static final class Pipe {
+
+        // bounds the wait of a writer whose wake-up raced with the reader
+        private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+        private final SpscQueue<MessageData> queue;
+        private final AtomicBoolean releasing;
+        private volatile boolean closed;
+        private volatile boolean abandoned;
+        private volatile Thread parkedConsumer;
+        private volatile Thread parkedProducer;
+
+        private Pipe(int capacity) {
+            this.queue = new SpscQueue<>(capacity);
+            this.releasing = new AtomicBoolean();
+        }
+
+        private boolean offer(MessageData frame) throws InterruptedIOException {
+            if (closed) {
+                return false;
+            }
+            while (!queue.offer(frame)) {
+                if (closed) {
+                    return false;
+                }
+                parkedProducer = Thread.currentThread();
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                parkedProducer = null;
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Interrupted while waiting for the local peer to read");
+                }
+            }
+            if (abandoned) {
+                // the reader has gone meanwhile, nobody else is going to release the frame
+                releaseAll();
+            }
+            final Thread consumer = parkedConsumer;
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+            return true;
+        }
+
+        private MessageData take() throws InterruptedIOException {
+            for (;;) {
+                final MessageData frame = queue.poll();
+                if (frame != null) {
+                    final Thread producer = parkedProducer;
+                    if (producer != null) {
+                        LockSupport.unpark(producer);
+                    }
+                    return frame;
+                }
+                if (closed) {
+                    // frames offered before the channel was closed
+                    return queue.poll();
+                }
+                parkedConsumer = Thread.currentThread();
+                if (queue.isEmpty() && !closed) {
+                    LockSupport.park(this);
+                }
+                parkedConsumer = null;
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Interrupted while waiting for the local peer to write");
+                }
+            }
+        }
+
+        private void close() {
+            closed = true;
+            final Thread consumer = parkedConsumer;
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+            final Thread producer = parkedProducer;
+            if (producer != null) {
+                LockSupport.unpark(producer);
+            }
+        }
+
+        private void abandon() {
+            abandoned = true;
+            releaseAll();
+        }
+
+        /**
+         * Either side may end up here once the consumer is gone; only one of them polls at a time.
+         */
+        private void releaseAll() {
+            do {
+                if (!releasing.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    MessageData frame;
+                    while ((frame = queue.poll()) != null) {
+                        frame.release();
+                    }
+                } finally {
+                    releasing.set(false);
+                }
+            } while (!queue.isEmpty());
+        }
+    }
+}
@@ -1,21 +1,57 @@
 package ru.ancevt.net.messaging;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketAddress;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.CopyOnWriteArrayList;
+import ru.ancevt.net.messaging.buffer.BufferPool;
+import ru.ancevt.net.messaging.buffer.MemoryBudget;
+import ru.ancevt.net.messaging.compression.CompressionConfig;
+import ru.ancevt.net.messaging.compression.FrameCompressor;
+import ru.ancevt.net.messaging.compression.FrameDecompressor;
+import ru.ancevt.net.messaging.exec.ConnectionExecutor;
+import ru.ancevt.net.messaging.exec.ConnectionExecutors;
+import ru.ancevt.net.messaging.exec.DiscardableTask;
+import ru.ancevt.net.messaging.exec.HashedWheelTimer;
+import ru.ancevt.net.messaging.exec.OrderedExecutor;
+import ru.ancevt.net.messaging.message.FileMessage;
+import ru.ancevt.net.messaging.message.FrameDecoder;
+import ru.ancevt.net.messaging.message.FrameReassembler;
+import ru.ancevt.net.messaging.message.FrameSpool;
 import ru.ancevt.net.messaging.message.Message;
-import static ru.ancevt.net.messaging.message.Message.SIGNATURE;
 import ru.ancevt.net.messaging.message.MessageData;
 import ru.ancevt.net.messaging.message.MessagingException;
+import ru.ancevt.net.messaging.metrics.MessagingMetrics;
+import ru.ancevt.net.messaging.nio.ChannelHandler;
+import ru.ancevt.net.messaging.nio.EventLoop;
 import ru.ancevt.net.messaging.server.MessagingServer;
+import ru.ancevt.net.messaging.transport.Transport;
+import ru.ancevt.net.messaging.transport.Transports;
 import ru.ancevt.util.string.ToStringBuilder;
 import ru.ancevt.util.system.UnixDisplay;
 
@@ -23,45 +59,397 @@ import ru.ancevt.util.system.UnixDisplay;
  *
  * @author ancevt
  */
-public class MessagingConnection extends Thread implements Closeable {
+public class MessagingConnection implements Runnable, Closeable {
 
     public static final int DEFAULT_CHUNK_SIZE = 1024;
 
-    private static int idCounter;
+    private static final AtomicInteger idCounter = new AtomicInteger();
+    private static final ConnectionExecutor DEFAULT_CONNECTION_EXECUTOR = ConnectionExecutors.platformThreads();
+    /**
+     * Runs what timeouts of blocking connections do, since writing to or closing such a connection may block the timer
+     * thread.
+     */
+    private static final ExecutorService TIMEOUT_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "MessagingConnection-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private final List<MessagingConnectionListener> listeners;
     private final Socket socket;
+    private final SocketChannel channel;
+    private final EventLoop eventLoop;
+    private final LocalChannel localChannel;
+    private SelectionKey selectionKey;
+    private FrameDecoder frameDecoder;
+    private OutboundQueue outboundQueue;
+    private PendingRequests pendingRequests;
+    private BufferPool bufferPool;
     private MessagingServer server;
-    private boolean opened;
+    private ConnectionExecutor connectionExecutor;
+    private OrderedExecutor dispatchExecutor;
+    private MessagingMetrics metrics;
+    private FrameCompressor compressor;
+    private FrameDecompressor decompressor;
+    private FrameSpool frameSpool;
+    private FrameReassembler reassembler;
+    private int fragmentSize;
+    private long maxReassemblyBytes = FrameReassembler.DEFAULT_MAX_BUFFERED_BYTES;
+    private int maxFrameSize = FrameDecoder.DEFAULT_MAX_FRAME_SIZE;
+    private long maxInboundBytes;
+    private MemoryBudget inboundBudget;
+    private MemoryBudget connectionBudget;
+    private MemoryBudget globalBudget;
+    private final Object creditLock = new Object();
+    private boolean readPaused;
+    private HeartbeatConfig heartbeat;
+    private volatile HashedWheelTimer.Timeout idleCheck;
+    // owned by the idle check
+    private long checkedBytesReceived;
+    private long checkedBytesWritten;
+    private long lastReadNanos;
+    private long lastWriteNanos;
+    private long lastWriteProgressNanos;
+    private volatile Session session;
+    private SessionRegistry sessionRegistry;
+    private volatile HashedWheelTimer.Timeout handshakeTimeout;
+    private String name;
+    private final AtomicBoolean opened;
     private int chunkSize;
     private MessageData messageData;
-    private long bytesSent, bytesReceived;
+    private volatile long bytesReceived;
+    private volatile long messagesReceived;
     private boolean shutdownSignal;
 
     public MessagingConnection(Socket socket) {
+        this(socket, null, null, null);
+    }
+
+    /**
+     * Creates a blocking connection over a connected channel of any {@link Transport}.
+     */
+    public MessagingConnection(SocketChannel channel) {
+        this(channel, null, null);
+    }
+
+    /**
+     * Creates a non-blocking connection served by the given event loop instead of its own thread, or a blocking one
+     * if the event loop is null.
+     */
+    public MessagingConnection(SocketChannel channel, MessagingServer server, EventLoop eventLoop) {
+        this(socketOf(channel), channel, eventLoop, null);
+        this.server = server;
+        this.pendingRequests = new PendingRequests(server != null, this::executeTimeout);
+    }
+
+    private MessagingConnection(LocalChannel localChannel, MessagingServer server) {
+        this(null, null, null, localChannel);
+        this.server = server;
+        this.pendingRequests = new PendingRequests(server != null, this::executeTimeout);
+    }
+
+    private MessagingConnection(Socket socket, SocketChannel channel, EventLoop eventLoop, LocalChannel localChannel) {
         this.listeners = new CopyOnWriteArrayList<>();
+        this.opened = new AtomicBoolean();
         this.socket = socket;
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.localChannel = localChannel;
         chunkSize = DEFAULT_CHUNK_SIZE;
-        setName("messConnection-" + (++idCounter));
+        pendingRequests = new PendingRequests(false, this::executeTimeout);
+        connectionExecutor = DEFAULT_CONNECTION_EXECUTOR;
+        name = "messConnection-" + idCounter.incrementAndGet();
     }
 
     public MessagingConnection(Socket socket, MessagingServer server) {
         this(socket);
         this.server = server;
+        this.pendingRequests = new PendingRequests(server != null, this::executeTimeout);
     }
 
     public MessagingConnection(String host, int port) throws IOException {
-        this(new Socket(host, port));
+        this(Transports.tcp(), new InetSocketAddress(host, port));
+    }
+
+    /**
+     * Connects a blocking connection to the address through the transport.
+     */
+    public MessagingConnection(Transport transport, SocketAddress address) throws IOException {
+        this(transport.connect(address, 0));
+    }
+
+    /**
+     * @return the socket of the channel, null for channels of transports without sockets, such as Unix domain ones
+     */
+    private static Socket socketOf(SocketChannel channel) {
+        try {
+            return channel.socket();
+        } catch (UnsupportedOperationException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Connects to the server {@link MessagingServer#startLocal(String) started locally} under the given name in this
+     * JVM. Frames are passed to the server connection by reference, without sockets, encoding or decoding, and each
+     * side reads them on a thread of its {@link ConnectionExecutor}, so listeners are called the same way as for a
+     * blocking connection. Compression, fragmentation, the frame spool and the frame size limit do not apply.
+     * <p>
+     * The server side of the connection is accepted and started right away; this side is started by the caller.
+     *
+     * @throws ConnectException if no server is started under the name
+     */
+    public static MessagingConnection connectLocal(String name) throws IOException {
+        final MessagingServer localServer = MessagingServer.getLocalServer(name);
+        if (localServer == null) {
+            throw new ConnectException("No local messaging server " + name);
+        }
+        final LocalChannel[] ends = LocalChannel.pair(name, LocalChannel.DEFAULT_CAPACITY);
+        localServer.acceptLocal(new MessagingConnection(ends[1], localServer));
+        return new MessagingConnection(ends[0], null);
+    }
+
+    /**
+     * @return true if this connection runs in this JVM without a socket
+     */
+    public boolean isLocal() {
+        return localChannel != null;
     }
 
     public long getBytesReceived() {
         return bytesReceived;
     }
 
+    /**
+     * @return number of messages received, a fragmented one counting once it is reassembled
+     */
+    public long getMessagesReceived() {
+        return messagesReceived;
+    }
+
     public long getBytesSent() {
-        return bytesSent;
+        return outboundQueue != null ? outboundQueue.getBytesWritten() : 0;
+    }
+
+    /**
+     * Number of frames queued for sending and not completely written yet.
+     */
+    public int getOutboundQueueSize() {
+        return outboundQueue != null ? outboundQueue.size() : 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Executor running the read loop of a blocking connection, platform thread per connection by default. Not used by
+     * connections served by an event loop. Takes effect when the connection is started.
+     */
+    public void setConnectionExecutor(ConnectionExecutor connectionExecutor) {
+        this.connectionExecutor = connectionExecutor;
+    }
+
+    public ConnectionExecutor getConnectionExecutor() {
+        return connectionExecutor;
+    }
+
+    /**
+     * Moves listener callbacks off the thread reading this connection. Callbacks of one connection keep their order
+     * because all of them go to the same stripe of the executor. Null dispatches on the reading thread.
+     */
+    public void setDispatchExecutor(OrderedExecutor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+    }
+
+    public OrderedExecutor getDispatchExecutor() {
+        return dispatchExecutor;
+    }
+
+    /**
+     * Metrics this connection reports its traffic to, usually shared with the other connections of the server. Null
+     * disables reporting.
+     */
+    public void setMetrics(MessagingMetrics metrics) {
+        this.metrics = metrics;
     }
 
+    public MessagingMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Compresses outgoing frames larger than the threshold of the config, null sends everything raw. Compressed
+     * frames received from the peer are inflated either way, so only senders need to agree on enabling it. Takes
+     * effect when the connection is started.
+     */
+    public void setCompression(CompressionConfig compression) {
+        final FrameCompressor previous = compressor;
+        this.compressor = compression != null ? new FrameCompressor(compression) : null;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    public CompressionConfig getCompression() {
+        return compressor != null ? compressor.getConfig() : null;
+    }
+
+    /**
+     * Makes incoming frames above the threshold of the spool be received into files instead of memory, null keeps
+     * all of them in memory. Takes effect when the connection is started.
+     */
+    public void setFrameSpool(FrameSpool frameSpool) {
+        this.frameSpool = frameSpool;
+    }
+
+    public FrameSpool getFrameSpool() {
+        return frameSpool;
+    }
+
+    /**
+     * Splits outgoing frames longer than the given size into fragments interleaved with the other frames, so that a
+     * large message does not hold back the small ones sent after it. Those may then arrive before it. 0, the
+     * default, never splits. Fragments are always reassembled on receipt. Takes effect when the connection is
+     * started.
+     */
+    public void setFragmentSize(int fragmentSize) {
+        if (fragmentSize != 0 && fragmentSize < OutboundQueue.MIN_FRAGMENT_SIZE) {
+            throw new IllegalArgumentException("fragmentSize must be 0 or at least " + OutboundQueue.MIN_FRAGMENT_SIZE + ": " + fragmentSize);
+        }
+        this.fragmentSize = fragmentSize;
+    }
+
+    public int getFragmentSize() {
+        return fragmentSize;
+    }
+
+    /**
+     * Limits the memory held by frames whose fragments are still arriving; the connection fails when the peer
+     * exceeds it. Frames reassembled through the frame spool do not count. Takes effect when the connection is
+     * started.
+     */
+    public void setMaxReassemblyBytes(long maxReassemblyBytes) {
+        this.maxReassemblyBytes = maxReassemblyBytes;
+    }
+
+    public long getMaxReassemblyBytes() {
+        return maxReassemblyBytes;
+    }
+
+    /**
+     * Largest frame the peer may send, checked against the size field of the frame before anything is allocated for
+     * it; the connection fails when the peer exceeds it. Compressed frames are limited by the size they inflate to.
+     * Frames received through the frame spool are not limited. Takes effect when the connection is started.
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        if (maxFrameSize < Message.HEADERS_SIZE) {
+            throw new IllegalArgumentException("maxFrameSize must be at least " + Message.HEADERS_SIZE + ": " + maxFrameSize);
+        }
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Limits the bytes of received frames waiting for the dispatch executor. Once they reach the limit the connection
+     * stops reading its socket, leaving the peer to the backpressure of TCP, until the listeners catch up. 0, the
+     * default, is unlimited. Frames dispatched on the reading thread hold it back by themselves and do not count.
+     * Takes effect when the connection is started.
+     */
+    public void setMaxInboundBytes(long maxInboundBytes) {
+        this.maxInboundBytes = maxInboundBytes;
+    }
+
+    public long getMaxInboundBytes() {
+        return maxInboundBytes;
+    }
+
+    /**
+     * Same as {@link #setMaxInboundBytes(long)} for a budget shared with other connections, null for none. Both limits
+     * apply if both are set. Takes effect when the connection is started.
+     */
+    public void setInboundBudget(MemoryBudget inboundBudget) {
+        this.inboundBudget = inboundBudget;
+    }
+
+    public MemoryBudget getInboundBudget() {
+        return inboundBudget;
+    }
+
+    /**
+     * Bytes of received frames waiting for the dispatch executor, counted only when {@link #setMaxInboundBytes(long)}
+     * is set.
+     */
+    public long getInboundBytes() {
+        return connectionBudget != null ? connectionBudget.getUsed() : 0;
+    }
+
+    /**
+     * Enables pings to the peer and idle timeouts, null disables them. The checks are scheduled on the
+     * {@link HashedWheelTimer#shared() shared timer} and only compare traffic counters, so they cost nothing per
+     * frame. They run on the event loop of the connection, or on a pooled thread for a blocking one. Takes effect when
+     * the connection is started.
+     */
+    public void setHeartbeat(HeartbeatConfig heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
+    public HeartbeatConfig getHeartbeat() {
+        return heartbeat;
+    }
+
+    /**
+     * Makes this client side connection carry the session, starting it if it has no token yet or resuming it
+     * otherwise. Takes effect when the connection is started.
+     *
+     * @see Session
+     */
+    public void setSession(Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Session carried by this connection, null for none. On the server side it is a provisional one until the
+     * client has said which session it resumes.
+     */
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * Makes this server side connection carry the session the client starts or resumes, null for a connection
+     * without sessions. Takes effect when the connection is started.
+     */
+    public void setSessionRegistry(SessionRegistry sessionRegistry) {
+        this.sessionRegistry = sessionRegistry;
+    }
+
+    public SessionRegistry getSessionRegistry() {
+        return sessionRegistry;
+    }
+
+    /**
+     * Makes incoming frames be read into buffers of the pool. Such frames are released once the listeners return.
+     * Takes effect when the connection is started.
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Sets the size of the read buffer of a blocking connection. Takes effect when the connection is started.
+     */
     public void setChunkSize(int chunkSize) {
         this.chunkSize = chunkSize;
     }
@@ -89,15 +477,17 @@ public class MessagingConnection extends Thread implements Closeable {
                 listeners.get(i).incomingMessageData(this, messageData);
             }
         } catch (IndexOutOfBoundsException ex) {
-            ex.printStackTrace();
+            Log.err(ex, ex);
         }
     }
 
     private void dispatchConnectionClosed(Throwable exception) {
         Log.logger.info("Connection closed: " + this);
-        for (int i = 0; i < listeners.size(); i++) {
-            listeners.get(i).connectionClosed(this, exception);
-        }
+        dispatchOrdered(() -> {
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).connectionClosed(this, exception);
+            }
+        });
     }
 
     private void dispatchConnectionOpened() {
@@ -107,23 +497,604 @@ public class MessagingConnection extends Thread implements Closeable {
             Log.logger.info("Connection opened: " + this);
         }
 
-        for (int i = 0; i < listeners.size(); i++) {
-            listeners.get(i).connectionOpened(this);
+        dispatchOrdered(() -> {
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).connectionOpened(this);
+            }
+        });
+    }
+
+    /**
+     * Runs the event on the dispatch executor, behind the frames already queued, or right away if there is none.
+     */
+    private void dispatchOrdered(Runnable event) {
+        final OrderedExecutor executor = dispatchExecutor;
+        if (executor != null) {
+            try {
+                executor.executeMandatory(this, event);
+                return;
+            } catch (RejectedExecutionException ex) {
+                Log.logger.warn("Dispatch executor is closed, dispatching in place " + this);
+            }
         }
+        event.run();
     }
 
-    private void sendMessageData(MessageData messageData) throws IOException {
-        final OutputStream outputStream = socket.getOutputStream();
+    private void sendMessageData(MessageData messageData, FrameWriteListener listener) throws IOException {
+        // frames passed by reference gain nothing from compression
+        final MessageData compressed = compressor != null && localChannel == null
+            ? compressor.compress(messageData, bufferPool)
+            : null;
+        final MessageData frame = compressed != null ? compressed : messageData;
+        try {
+            if (session != null) {
+                sendInSession(new ReplayBuffer.Entry(frame, this, listener));
+            } else {
+                outboundQueue.enqueue(frame, listener);
+            }
+            if (!opened.get()) {
+                // closed while enqueuing, nobody else is going to drop the frame
+                outboundQueue.clear();
+            }
+            if (metrics != null) {
+                metrics.frameSent(frame.length());
+            }
+        } catch (IOException ex) {
+            connectionFailed(ex);
+            throw ex;
+        } finally {
+            if (compressed != null) {
+                compressed.release();
+            }
+        }
+    }
+
+    private void updateInterestOps() {
+        if (selectionKey == null || !selectionKey.isValid()) {
+            return;
+        }
+        selectionKey.interestOps(
+            (readPaused ? 0 : SelectionKey.OP_READ) | (outboundQueue.isBlocked() ? SelectionKey.OP_WRITE : 0)
+        );
+    }
+
+    private void takeCredit(int bytes) {
+        if (connectionBudget != null) {
+            connectionBudget.acquire(bytes);
+        }
+        if (globalBudget != null) {
+            globalBudget.acquire(bytes);
+        }
+    }
+
+    private void returnCredit(int bytes) {
+        if (connectionBudget != null) {
+            connectionBudget.release(bytes);
+        }
+        if (globalBudget != null) {
+            globalBudget.release(bytes);
+        }
+    }
+
+    private boolean isCreditExhausted() {
+        return connectionBudget != null && connectionBudget.isExhausted()
+            || globalBudget != null && globalBudget.isExhausted();
+    }
+
+    /**
+     * Runs the callback once one of the exhausted budgets has room again. The caller checks again then, the other
+     * budget may still be exhausted.
+     */
+    private void whenCreditAvailable(Runnable callback) {
+        if (connectionBudget != null && connectionBudget.isExhausted()) {
+            connectionBudget.whenAvailable(callback);
+        } else if (globalBudget != null) {
+            globalBudget.whenAvailable(callback);
+        } else {
+            callback.run();
+        }
+    }
+
+    private void pauseReading() {
+        readPaused = true;
+        updateInterestOps();
+        whenCreditAvailable(() -> eventLoop.execute(this::resumeReading));
+    }
+
+    private void resumeReading() {
+        if (!opened.get()) {
+            return;
+        }
+        if (isCreditExhausted()) {
+            whenCreditAvailable(() -> eventLoop.execute(this::resumeReading));
+            return;
+        }
+        readPaused = false;
+        updateInterestOps();
+    }
+
+    /**
+     * Blocks the read loop of a blocking connection while the inbound budget is exhausted.
+     */
+    private void awaitCredit() throws InterruptedIOException {
+        if (!isCreditExhausted()) {
+            return;
+        }
+        synchronized (creditLock) {
+            while (opened.get() && isCreditExhausted()) {
+                // the callback needs the lock, so it cannot notify before the wait below
+                whenCreditAvailable(this::creditAvailable);
+                if (!isCreditExhausted()) {
+                    break;
+                }
+                try {
+                    creditLock.wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for inbound credit " + this);
+                }
+            }
+        }
+    }
+
+    private void creditAvailable() {
+        synchronized (creditLock) {
+            creditLock.notifyAll();
+        }
+    }
+
+    private void readFromChannel() throws IOException {
+        final ByteBuffer buffer = eventLoop.getReadBuffer();
+        buffer.clear();
+
+        if (channel.read(buffer) == -1) {
+            throw new EOFException();
+        }
+
+        buffer.flip();
+        while (opened.get() && buffer.hasRemaining()) {
+            final MessageData data = frameDecoder.decode(buffer);
+            if (data == null) {
+                break;
+            }
+            receive(data);
+        }
+        if (opened.get() && isCreditExhausted()) {
+            pauseReading();
+        }
+    }
+
+    private void receive(MessageData data) throws IOException {
+        // written by the reading thread only
+        bytesReceived += data.length();
+        if (data.isSessionFrame()) {
+            try {
+                receiveSessionFrame(data);
+            } finally {
+                data.release();
+            }
+            return;
+        }
+        if (data.isHeartbeat()) {
+            final boolean ping = data.getRequestId() == Message.PING;
+            data.release();
+            if (ping) {
+                sendHeartbeat(Message.PONG);
+            }
+            return;
+        }
+        final MessagingMetrics metrics = this.metrics;
+        final long receivedAt = metrics != null ? System.nanoTime() : 0;
+        if (metrics != null) {
+            metrics.frameReceived(data.length());
+        }
+
+        if (data.isFragment()) {
+            final MessageData fragment = data;
+            try {
+                data = reassembler.add(fragment);
+            } finally {
+                fragment.release();
+            }
+            if (data == null) {
+                return;
+            }
+        }
+        messagesReceived++;
+        if (data.isCompressed()) {
+            data = inflate(data);
+        }
+        messageData = data;
+
+        final Session session = this.session;
+        if (session != null && session.frameReceived(data.length())) {
+            sendControlFrame(session.ack(bufferPool));
+        }
+
+        if (pendingRequests.complete(data)) {
+            return;
+        }
+
+        final OrderedExecutor executor = dispatchExecutor;
+        if (executor == null) {
+            try {
+                dispatchIncomingMessageData(data);
+            } finally {
+                releaseDispatched(data);
+                if (metrics != null) {
+                    metrics.frameDispatched(System.nanoTime() - receivedAt);
+                }
+            }
+            return;
+        }
+
+        final int credit = data.length();
+        takeCredit(credit);
+        try {
+            executor.execute(this, new DispatchTask(data, credit, metrics, receivedAt));
+        } catch (RejectedExecutionException ex) {
+            returnCredit(credit);
+            data.release();
+            throw new MessagingException("Incoming frame rejected by dispatch executor: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Listeners may keep a frame of a plain array without retaining it, so only frames holding pooled or mapped
+     * memory are released once dispatched.
+     */
+    private static void releaseDispatched(MessageData data) {
+        if (data.isReleasable()) {
+            data.release();
+        }
+    }
 
-        outputStream.write(messageData.getBytes());
-        outputStream.flush();
-        bytesSent += messageData.getBytes().length;
+    private MessageData inflate(MessageData compressed) {
+        if (decompressor == null) {
+            final FrameCompressor compressor = this.compressor;
+            final CompressionConfig config = compressor != null ? compressor.getConfig() : new CompressionConfig();
+            // an inflated frame is held in memory, so the frame size limit applies to it as well
+            decompressor = new FrameDecompressor(config, maxFrameSize);
+        }
+        try {
+            return decompressor.decompress(compressed, bufferPool);
+        } finally {
+            compressed.release();
+        }
+    }
+
+    /**
+     * Called by the thread reading the connection once it stops reading.
+     */
+    private void closeDecompressor() {
+        if (decompressor != null) {
+            decompressor.close();
+            decompressor = null;
+        }
+    }
+
+    private class DispatchTask implements DiscardableTask {
+
+        private final MessageData data;
+        private final int credit;
+        private final MessagingMetrics metrics;
+        private final long receivedAt;
+
+        private DispatchTask(MessageData data, int credit, MessagingMetrics metrics, long receivedAt) {
+            this.data = data;
+            this.credit = credit;
+            this.metrics = metrics;
+            this.receivedAt = receivedAt;
+        }
+
+        @Override
+        public void run() {
+            try {
+                dispatchIncomingMessageData(data);
+            } finally {
+                releaseDispatched(data);
+                returnCredit(credit);
+                if (metrics != null) {
+                    metrics.frameDispatched(System.nanoTime() - receivedAt);
+                }
+            }
+        }
+
+        @Override
+        public void discard() {
+            Log.logger.warn("Dispatch queue overflow, dropped " + data + " of " + MessagingConnection.this);
+            data.release();
+            returnCredit(credit);
+        }
+    }
+
+    private void sendHeartbeat(int requestId) throws IOException {
+        sendControlFrame(MessageData.heartbeat(bufferPool, requestId));
+    }
+
+    /**
+     * Queues a frame of the connection itself, never compressed nor numbered in the session, and releases it.
+     */
+    private void sendControlFrame(MessageData frame) throws IOException {
+        try {
+            outboundQueue.enqueue(frame, null);
+        } catch (IOException ex) {
+            connectionFailed(ex);
+            throw ex;
+        } finally {
+            frame.release();
+        }
     }
 
+    /**
+     * Keeps the frame for replay and queues it unless it has to wait for the handshake. Frames are numbered and
+     * queued under the lock of the session, so they reach the socket in the order they are numbered. Once kept, the
+     * frame counts as sent even if writing it fails; the connection closes then and the frame is replayed by the
+     * one resuming the session.
+     */
+    private void sendInSession(ReplayBuffer.Entry entry) throws IOException {
+        IOException failure = null;
+        for (;;) {
+            final Session current = session;
+            synchronized (current) {
+                if (current != session) {
+                    // the provisional session has just been replaced by the resumed one
+                    continue;
+                }
+                final boolean established;
+                try {
+                    established = current.append(this, entry);
+                } catch (IOException ex) {
+                    entry.frame.release();
+                    throw ex;
+                }
+                if (established) {
+                    try {
+                        enqueue(entry);
+                    } catch (IOException ex) {
+                        failure = ex;
+                    }
+                }
+            }
+            break;
+        }
+        if (failure != null) {
+            connectionFailed(failure);
+        }
+    }
+
+    private void enqueue(ReplayBuffer.Entry entry) throws IOException {
+        final FrameWriteListener listener = entry.listener;
+        entry.listener = null;
+        if (entry.file != null) {
+            final FileChannel file = FileChannel.open(entry.file, StandardOpenOption.READ);
+            outboundQueue.enqueue(entry.frame, file, entry.filePosition, entry.fileCount, listener);
+        } else {
+            outboundQueue.enqueue(entry.frame, listener);
+        }
+    }
+
+    /**
+     * Opens the session once the connection is open. Listeners learn about the connection when the handshake
+     * completes.
+     */
+    private void connectionStarted() {
+        startIdleCheck();
+        if (session == null) {
+            dispatchConnectionOpened();
+            return;
+        }
+        final long timeoutMillis = session.getConfig().getHandshakeTimeoutMillis();
+        handshakeTimeout = HashedWheelTimer.shared().schedule(
+            () -> failLater(new SocketTimeoutException("No session handshake in " + timeoutMillis + " ms " + this)),
+            timeoutMillis,
+            TimeUnit.MILLISECONDS
+        );
+        if (sessionRegistry == null) {
+            try {
+                sendControlFrame(session.hello(bufferPool));
+            } catch (IOException ex) {
+                // the connection is closed and the listeners told
+            }
+        }
+    }
+
+    private void sessionEstablished() {
+        final HashedWheelTimer.Timeout timeout = handshakeTimeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        Log.logger.info((session.isResumed() ? "Session resumed " : "Session started ") + session);
+        dispatchConnectionOpened();
+    }
+
+    private void receiveSessionFrame(MessageData data) throws IOException {
+        final ByteBuffer payload = data.buffer();
+        payload.position(Message.HEADERS_SIZE);
+        final int kind = data.getRequestId();
+        if (kind == Session.ACK && session != null) {
+            session.acknowledge(payload.getLong());
+        } else if (kind == Session.HELLO && sessionRegistry != null) {
+            acceptSession(Session.readToken(payload), payload.getLong(), payload.getLong(), payload.getLong());
+        } else if (kind == Session.WELCOME && sessionRegistry == null && session != null) {
+            final UUID token = Session.readToken(payload);
+            final long peerReceived = payload.getLong();
+            final boolean resumed = payload.get() != 0;
+            joinSession(token, peerReceived, resumed);
+        } else {
+            throw new MessagingException("Unexpected session frame " + kind + " " + this);
+        }
+    }
+
+    /**
+     * Server side handshake: resumes the session the client asks for if both sides still have the frames the other
+     * is missing, or starts a new one.
+     */
+    private void acceptSession(UUID token, long peerReceived, long peerFirst, long peerSent) throws IOException {
+        final Session provisional = session;
+        final Session requested = token != null ? sessionRegistry.get(token) : null;
+        MessagingConnection previous = null;
+
+        if (requested != null) {
+            synchronized (provisional) {
+                synchronized (requested) {
+                    if (requested.canResume(peerReceived, peerFirst, peerSent)) {
+                        previous = requested.takeOver(this, provisional, peerReceived);
+                        session = requested;
+                        sendControlFrame(requested.welcome(bufferPool));
+                        for (ReplayBuffer.Entry entry : requested.replayFrom(peerReceived)) {
+                            enqueue(entry);
+                        }
+                    }
+                }
+            }
+            if (session != requested) {
+                Log.logger.info("Session " + token + " cannot be resumed from " + peerReceived);
+                sessionRegistry.remove(requested);
+            }
+        }
+        if (session == provisional) {
+            synchronized (provisional) {
+                sessionRegistry.register(provisional);
+                sendControlFrame(provisional.welcome(bufferPool));
+                for (ReplayBuffer.Entry entry : provisional.replayFrom(0)) {
+                    enqueue(entry);
+                }
+            }
+        }
+        if (previous != null) {
+            // a connection the server has not noticed dropping yet
+            previous.failLater(new IOException("Session resumed by " + this));
+        }
+        sessionEstablished();
+    }
+
+    /**
+     * Client side handshake: replays what the server is missing of a resumed session, or starts over with the frames
+     * sent since the handshake began.
+     */
+    private void joinSession(UUID token, long peerReceived, boolean resumed) throws IOException {
+        final Session current = session;
+        synchronized (current) {
+            if (!current.established(this, token, peerReceived, resumed)) {
+                throw new MessagingException("Session " + token + " cannot be resumed from " + peerReceived + " " + this);
+            }
+            for (ReplayBuffer.Entry entry : current.replayFrom(resumed ? peerReceived : 0)) {
+                enqueue(entry);
+            }
+        }
+        sessionEstablished();
+    }
+
+    private void startIdleCheck() {
+        final HeartbeatConfig heartbeat = this.heartbeat;
+        if (heartbeat == null || heartbeat.getCheckPeriodMillis() == 0) {
+            return;
+        }
+        final long now = System.nanoTime();
+        lastReadNanos = now;
+        lastWriteNanos = now;
+        lastWriteProgressNanos = now;
+        scheduleIdleCheck(heartbeat);
+    }
+
+    private void scheduleIdleCheck(HeartbeatConfig heartbeat) {
+        idleCheck = HashedWheelTimer.shared().schedule(
+            () -> executeTimeout(() -> checkIdle(heartbeat)), heartbeat.getCheckPeriodMillis(), TimeUnit.MILLISECONDS
+        );
+        if (!opened.get()) {
+            // closed meanwhile, releaseBuffers may have missed the new timeout
+            idleCheck.cancel();
+        }
+    }
+
+    /**
+     * Runs off the timer thread, see {@link #executeTimeout}. Traffic shows as changes of the counters since the
+     * previous run.
+     */
+    private void checkIdle(HeartbeatConfig heartbeat) {
+        if (!opened.get()) {
+            return;
+        }
+        final long now = System.nanoTime();
+
+        final long received = bytesReceived;
+        if (received != checkedBytesReceived || isCreditExhausted()) {
+            // a connection held back by its inbound budget is not idle
+            checkedBytesReceived = received;
+            lastReadNanos = now;
+        }
+        final long written = getBytesSent();
+        final boolean queued = getOutboundQueueSize() > 0;
+        if (written != checkedBytesWritten) {
+            checkedBytesWritten = written;
+            lastWriteNanos = now;
+            lastWriteProgressNanos = now;
+        } else if (!queued) {
+            // nothing to write is no stall
+            lastWriteProgressNanos = now;
+        }
+
+        final long readIdleTimeout = TimeUnit.MILLISECONDS.toNanos(heartbeat.getReadIdleTimeoutMillis());
+        if (readIdleTimeout > 0 && now - lastReadNanos >= readIdleTimeout) {
+            failLater(new SocketTimeoutException(
+                "Nothing received in " + heartbeat.getReadIdleTimeoutMillis() + " ms " + this
+            ));
+            return;
+        }
+        final long writeIdleTimeout = TimeUnit.MILLISECONDS.toNanos(heartbeat.getWriteIdleTimeoutMillis());
+        if (writeIdleTimeout > 0 && now - lastWriteProgressNanos >= writeIdleTimeout) {
+            failLater(new SocketTimeoutException(
+                "Nothing written in " + heartbeat.getWriteIdleTimeoutMillis() + " ms with frames queued " + this
+            ));
+            return;
+        }
+        final long interval = TimeUnit.MILLISECONDS.toNanos(heartbeat.getIntervalMillis());
+        if (interval > 0 && !queued && now - lastWriteNanos >= interval) {
+            lastWriteNanos = now;
+            try {
+                sendHeartbeat(Message.PING);
+            } catch (IOException ex) {
+                // the connection is closed and the listeners told
+                return;
+            }
+        }
+        scheduleIdleCheck(heartbeat);
+    }
+
+    /**
+     * Closes the connection on its event loop, or on a pooled thread for a blocking one. Closing the socket ends the
+     * read loop.
+     */
+    private void failLater(IOException ex) {
+        executeTimeout(() -> connectionFailed(ex));
+    }
+
+    /**
+     * Runs work of a timer task where it may write and close: on the event loop of the connection, or on a pooled
+     * thread for a blocking one.
+     */
+    private void executeTimeout(Runnable task) {
+        if (eventLoop != null) {
+            eventLoop.execute(task);
+        } else {
+            TIMEOUT_EXECUTOR.execute(task);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the request id of the message is negative, such ids are reserved for
+     *                                  {@link #request} and {@link #reply}
+     */
     public final void send(final Message message) throws IOException {
+        checkRequestId(message.getRequestId(), message);
+        sendMessage(message);
+    }
+
+    private void sendMessage(Message message) throws IOException {
         message.prepare();
 
-        if (!opened) {
+        if (!opened.get()) {
             if (server != null) {
                 throw new IOException("(S)attempt to send message via closed connection " + this.toString() + " " + message);
             } else {
@@ -137,22 +1108,260 @@ public class MessagingConnection extends Thread implements Closeable {
             Log.logger.info(UnixDisplay.CYAN + "Send message: " + message.toString() + UnixDisplay.RESET);
         }
 
-        sendMessageData(message.getMessageData());
+        if (message instanceof FileMessage) {
+            sendFile((FileMessage) message);
+        } else {
+            sendMessageData(message.getMessageData(), null);
+        }
+    }
+
+    /**
+     * Queues the headers of the file message and lets the writer transfer the file region right after them.
+     */
+    private void sendFile(FileMessage message) throws IOException {
+        if (session != null) {
+            try {
+                sendInSession(new ReplayBuffer.Entry(
+                    message.getMessageData(), message.getPath(), message.getPosition(), message.getCount(), this, null
+                ));
+                if (metrics != null) {
+                    metrics.frameSent(message.getFrameLength());
+                }
+            } catch (IOException ex) {
+                connectionFailed(ex);
+                throw ex;
+            }
+            return;
+        }
+        final FileChannel file = FileChannel.open(message.getPath(), StandardOpenOption.READ);
+        try {
+            outboundQueue.enqueue(message.getMessageData(), file, message.getPosition(), message.getCount(), null);
+            if (!opened.get()) {
+                outboundQueue.clear();
+            }
+            if (metrics != null) {
+                metrics.frameSent(message.getFrameLength());
+            }
+        } catch (IOException ex) {
+            connectionFailed(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Queues an already encoded frame as is, without preparing or logging it. The frame is only retained while
+     * queued, so one frame can be sent through many connections at once; the caller keeps its own reference.
+     *
+     * @param listener notified when the frame is written or dropped, may be null
+     * @return false if the connection is closed, in which case the listener is not notified
+     * @throws IllegalArgumentException if the request id of the frame is negative, such ids are reserved for
+     *                                  {@link #request} and {@link #reply}
+     */
+    public boolean send(MessageData frame, FrameWriteListener listener) {
+        checkRequestId(frame.getRequestId(), frame);
+        return sendFrame(frame, listener);
+    }
+
+    private boolean sendFrame(MessageData frame, FrameWriteListener listener) {
+        if (!opened.get()) {
+            return false;
+        }
+        try {
+            sendMessageData(frame, listener);
+        } catch (IOException ex) {
+            // the connection is closed and the frame dropped, the listener has been told
+        }
+        return true;
+    }
+
+    /**
+     * Sends the message as a request and returns the response the peer sends back through {@link #reply}.
+     * <p>
+     * The future is completed on the thread reading this connection, so dependent stages should not block. It fails
+     * with {@link java.util.concurrent.TimeoutException} when no response arrives in time and with
+     * {@link IOException} when the connection closes first. With a buffer pool the response frame belongs to the
+     * caller, who must {@link MessageData#release()} it.
+     *
+     * @param timeoutMillis time to wait for the response, 0 to wait forever
+     */
+    public CompletableFuture<MessageData> request(Message message, long timeoutMillis) {
+        final int requestId = pendingRequests.nextRequestId();
+        message.setRequestId(requestId);
+
+        final CompletableFuture<MessageData> future = pendingRequests.register(requestId, timeoutMillis);
+        try {
+            sendMessage(message);
+        } catch (IOException ex) {
+            pendingRequests.fail(requestId, ex);
+        }
+        return future;
+    }
+
+    /**
+     * Sends an already encoded frame as a request, like {@link #send(MessageData, FrameWriteListener)}. The frame is
+     * left as it is: it is copied into a frame from the buffer pool of this connection, which gets the request id, so
+     * shared and read-only frames, such as ones mapped from a journal, can be sent.
+     *
+     * @param timeoutMillis time to wait for the response, 0 to wait forever
+     */
+    public CompletableFuture<MessageData> request(MessageData frame, long timeoutMillis) {
+        final int requestId = pendingRequests.nextRequestId();
+        final MessageData request = copy(frame, requestId);
+        try {
+            final CompletableFuture<MessageData> future = pendingRequests.register(requestId, timeoutMillis);
+            if (!sendFrame(request, null)) {
+                pendingRequests.fail(requestId, new IOException("attempt to send request via closed connection " + this));
+            }
+            return future;
+        } finally {
+            request.release();
+        }
+    }
+
+    /**
+     * Sends the response to a request received from the peer.
+     */
+    public void reply(MessageData request, Message response) throws IOException {
+        response.setRequestId(request.getRequestId());
+        sendMessage(response);
+    }
+
+    /**
+     * Sends an already encoded frame as the response to a request received from the peer, like
+     * {@link #send(MessageData, FrameWriteListener)}. As with {@link #request(MessageData, long)}, the request id goes
+     * into a copy of the frame, which is left as it is.
+     *
+     * @return false if the connection is closed
+     */
+    public boolean reply(MessageData request, MessageData response) {
+        final MessageData copy = copy(response, request.getRequestId());
+        try {
+            return sendFrame(copy, null);
+        } finally {
+            copy.release();
+        }
+    }
+
+    /**
+     * @return copy of the frame in a buffer from the pool of this connection, carrying the given request id
+     */
+    private MessageData copy(MessageData frame, int requestId) {
+        final MessageData copy = MessageData.allocate(bufferPool, frame.length());
+        final ByteBuffer buffer = copy.buffer();
+        buffer.put(frame.buffer());
+        buffer.putInt(5, requestId);
+        return copy;
+    }
+
+    /**
+     * Negative request ids tell requests and their responses from ordinary messages, which therefore must not use
+     * them.
+     */
+    private static void checkRequestId(int requestId, Object message) {
+        if (requestId < 0) {
+            throw new IllegalArgumentException("Negative request ids are reserved for requests and responses: " + message);
+        }
+    }
+
+    /**
+     * Number of requests sent through this connection and still waiting for their responses.
+     */
+    public int getPendingRequestCount() {
+        return pendingRequests.size();
     }
 
     public boolean isOpened() {
-        return opened;
+        return opened.get();
+    }
+
+    /**
+     * Runs the read loop of a blocking connection on its {@link ConnectionExecutor} or registers a non-blocking one
+     * in its event loop.
+     */
+    public synchronized void start() {
+        reassembler = new FrameReassembler(bufferPool, maxReassemblyBytes);
+        reassembler.setSpool(frameSpool);
+        reassembler.setMaxFrameSize(maxFrameSize);
+        connectionBudget = maxInboundBytes > 0 ? new MemoryBudget(maxInboundBytes) : null;
+        globalBudget = inboundBudget;
+        if (sessionRegistry != null) {
+            // frames sent before the client says which session it resumes wait here
+            session = new Session(sessionRegistry.getConfig());
+        }
+        if (session != null) {
+            session.attach(this);
+        }
+        final int fragmentSize = session != null || localChannel != null ? 0 : this.fragmentSize;
+        if (localChannel != null) {
+            outboundQueue = new OutboundQueue(localChannel);
+            outboundQueue.setOwner(this);
+            connectionExecutor.execute(this, name);
+        } else if (eventLoop == null) {
+            try {
+                final SocketChannel output = channel != null ? channel : socket.getChannel();
+                outboundQueue = output != null
+                    ? new OutboundQueue(output, false, null)
+                    : new OutboundQueue(socket.getOutputStream());
+            } catch (IOException ex) {
+                throw new MessagingException("Unable to open output of " + this + ": " + ex);
+            }
+            outboundQueue.setOwner(this);
+            outboundQueue.setFragmentSize(fragmentSize);
+            connectionExecutor.execute(this, name);
+        } else {
+            outboundQueue = new OutboundQueue(channel, true, () -> eventLoop.execute(this::updateInterestOps));
+            outboundQueue.setOwner(this);
+            outboundQueue.setFragmentSize(fragmentSize);
+            frameDecoder = new FrameDecoder(bufferPool);
+            frameDecoder.setSpool(frameSpool);
+            frameDecoder.setMaxFrameSize(maxFrameSize);
+            eventLoop.register(channel, SelectionKey.OP_READ, new ChannelHandler() {
+
+                @Override
+                public void channelRegistered(SelectionKey key) {
+                    selectionKey = key;
+                    opened.set(true);
+                    if (metrics != null) {
+                        metrics.connectionOpened();
+                    }
+                    connectionStarted();
+                }
+
+                @Override
+                public void channelReady(SelectionKey key) throws IOException {
+                    if (key.isReadable()) {
+                        readFromChannel();
+                    }
+                    if (key.isValid() && key.isWritable() && outboundQueue.resume()) {
+                        updateInterestOps();
+                    }
+                }
+
+                @Override
+                public void channelFailed(Throwable ex) {
+                    connectionFailed(ex);
+                }
+            });
+        }
     }
 
     @Override
     public void run() {
-        opened = true;
-        dispatchConnectionOpened();
+        opened.set(true);
+        if (metrics != null) {
+            metrics.connectionOpened();
+        }
+        connectionStarted();
+
+        if (localChannel != null) {
+            runLocal();
+            return;
+        }
 
         try {
 
-            final InputStream inputStream = socket.getInputStream();
-            final DataInputStream dataInputStream = new DataInputStream(inputStream);
+            final InputStream input = socket != null ? socket.getInputStream() : Channels.newInputStream(channel);
+            final DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(input, chunkSize));
             /*
             
              1 b - sign
@@ -162,117 +1371,214 @@ public class MessagingConnection extends Thread implements Closeable {
              9
             
              */
+            final byte[] header = new byte[Message.HEADERS_SIZE];
 
-            while (opened && !shutdownSignal) {
+            while (opened.get() && !shutdownSignal) {
+                awaitCredit();
+                dataInputStream.readFully(header);
 
-                synchronized (this) {
-
-                    try (ByteArrayOutputStream baos = new ByteArrayOutputStream();) {
-                        final int sign = dataInputStream.readUnsignedByte();
-
-                        if (sign != SIGNATURE) {
-                            if (server != null) {
-                                throw new MessagingException("(S)Invalid message signature 0x" + Integer.toString(sign, 16));
-                            } else {
-                                throw new MessagingException("Invalid message signature 0x" + Integer.toString(sign, 16));
-                            }
-                        }
-
-                        final int messageSize = dataInputStream.readInt();
-                        final int requestId = dataInputStream.readInt();
-
-                        int currentSize = Message.HEADERS_SIZE;
-
-                        while (currentSize < messageSize) {
-                            if (inputStream.available() == 0) {
-                                continue;
-                            }
+                final int frameSize = FrameDecoder.readFrameSize(header);
+                FrameDecoder.checkFrameSize(frameSize, maxFrameSize, frameSpool);
+                if (frameSpool != null && frameSpool.isSpooled(frameSize)) {
+                    receive(spool(dataInputStream, header, frameSize));
+                    continue;
+                }
 
-                            int arraySize = Math.min(chunkSize, inputStream.available());
-                            arraySize = Math.min(messageSize - Message.HEADERS_SIZE, arraySize);
+                final MessageData data = MessageData.allocate(bufferPool, frameSize);
+                try {
+                    final ByteBuffer frame = data.buffer();
+                    frame.put(header);
+                    readFully(dataInputStream, frame);
+                } catch (IOException ex) {
+                    data.release();
+                    throw ex;
+                }
 
-                            final byte[] bytes = new byte[arraySize];
-                            inputStream.read(bytes);
-                            baos.write(bytes);
+                if (shutdownSignal) {
+                    close();
+                }
 
-                            currentSize += bytes.length;
+                receive(data);
+            }
+        } catch (IOException | RuntimeException ex) {
+            // a listener failing fails the connection, as on an event loop
+            connectionFailed(ex);
+        } finally {
+            reassembler.reset();
+            closeDecompressor();
+        }
 
-                            if (currentSize >= messageSize) {
-                                break;
-                            }
-                        }
+    }
 
-                        final byte[] bytesToSend = baos.toByteArray();
+    private void runLocal() {
+        try {
+            while (opened.get() && !shutdownSignal) {
+                awaitCredit();
+                final MessageData data = localChannel.receive();
+                if (data == null) {
+                    throw new EOFException();
+                }
+                receive(data);
+            }
+        } catch (IOException | RuntimeException ex) {
+            // a listener failing fails the connection, as on an event loop
+            connectionFailed(ex);
+        } finally {
+            localChannel.abandon();
+            reassembler.reset();
+        }
+    }
 
-                        messageData = new MessageData();
-                        messageData.setBytes(requestId, bytesToSend);
+    private MessageData spool(DataInputStream dataInputStream, byte[] header, int frameSize) throws IOException {
+        try (FrameSpool.Writer writer = frameSpool.open(frameSize)) {
+            writer.write(header, 0, header.length);
+            final byte[] chunk = new byte[Math.max(chunkSize, EventLoop.READ_BUFFER_SIZE)];
+            while (writer.remaining() > 0) {
+                final int count = Math.min(chunk.length, writer.remaining());
+                dataInputStream.readFully(chunk, 0, count);
+                writer.write(chunk, 0, count);
+            }
+            return writer.finish();
+        }
+    }
 
-                        bytesReceived += messageData.getBytes().length;
+    private void readFully(DataInputStream dataInputStream, ByteBuffer frame) throws IOException {
+        if (frame.hasArray()) {
+            dataInputStream.readFully(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            frame.position(frame.limit());
+        } else {
+            final byte[] chunk = new byte[Math.min(chunkSize, frame.remaining())];
+            while (frame.hasRemaining()) {
+                final int count = Math.min(chunk.length, frame.remaining());
+                dataInputStream.readFully(chunk, 0, count);
+                frame.put(chunk, 0, count);
+            }
+        }
+    }
 
-                        if (shutdownSignal) {
-                            close();
-                        }
+    private void connectionFailed(Throwable ex) {
+        if (!opened.compareAndSet(true, false)) {
+            // closed already, or by another thread meanwhile
+            return;
+        }
+        if (metrics != null) {
+            metrics.connectionClosed();
+        }
 
-                        dispatchIncomingMessageData(messageData);
-                    }
-                }
+        if (ex instanceof EOFException) {
+            if (server != null) {
+                Log.logger.info("(S)Connection " + this + " closed by peer");
+            } else {
+                Log.logger.info("Connection " + this + " closed by peer");
             }
-        } catch (IOException ex) {
-            if (ex instanceof EOFException) {
-                if (server != null) {
-                    Log.logger.info("(S)Connection " + this + " closed by peer");
-                } else {
-                    Log.logger.info("Connection " + this + " closed by peer");
-                }
+        } else if (ex instanceof IOException && !(ex instanceof SocketException)) {
+            Log.logger.error(ex);
+        } else if (ex instanceof RuntimeException && !(ex instanceof MessagingException)) {
+            Log.err("Unexpected failure, closing " + this, ex);
+        }
 
-                dispatchConnectionClosed(ex);
-                try {
-                    socket.close();
-                } catch (IOException ex1) {
-                    Log.err(ex1, ex1);
-                }
-                if (server != null) {
-                    server.dispatchCloseMessagingConnection(this, ex);
-                }
+        dispatchConnectionClosed(ex);
+        try {
+            closeTransport();
+        } catch (IOException ex1) {
+            Log.err(ex1, ex1);
+        }
+        releaseBuffers();
+        if (server != null) {
+            server.dispatchCloseMessagingConnection(this, ex);
+        }
+    }
+
+    private void releaseBuffers() {
+        final HashedWheelTimer.Timeout check = idleCheck;
+        if (check != null) {
+            check.cancel();
+        }
+        final HashedWheelTimer.Timeout timeout = handshakeTimeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        final Session current = session;
+        if (current != null && current.detach(this) && sessionRegistry != null) {
+            sessionRegistry.detached(current);
+        }
+        pendingRequests.failAll(new IOException("Connection closed " + this));
+        creditAvailable();
+        if (outboundQueue != null) {
+            outboundQueue.clear();
+        }
+        final FrameCompressor compressor = this.compressor;
+        if (compressor != null) {
+            compressor.close();
+        }
+        if (frameDecoder != null) {
+            // the read loop of a blocking connection resets its reassembler and decompressor itself when it ends
+            final Runnable reset = () -> {
+                frameDecoder.reset();
+                reassembler.reset();
+                closeDecompressor();
+            };
+            if (eventLoop.inEventLoop()) {
+                reset.run();
             } else {
-                if (!(ex instanceof SocketException)) {
-                    Log.logger.error(ex);
-                }
-                dispatchConnectionClosed(ex);
-            }
-        } catch (MessagingException ex) {
-            dispatchConnectionClosed(ex);
-            try {
-                socket.close();
-            } catch (IOException ex1) {
-                Log.err(ex1, ex1);
-            }
-            if (server != null) {
-                server.dispatchCloseMessagingConnection(this, ex);
+                eventLoop.execute(reset);
             }
         }
+    }
 
+    private void closeTransport() throws IOException {
+        if (localChannel != null) {
+            // the read loop of the other end reads the frames sent so far and then the end of the stream
+            localChannel.close();
+        } else if (socket != null) {
+            socket.close();
+        } else {
+            channel.close();
+        }
     }
 
     public MessageData getMessageData() {
         return messageData;
     }
 
+    /**
+     * @return host of the peer, or the name of the local server for a {@link #isLocal() local} connection
+     */
     public String getHost() {
-        return socket.getInetAddress().getHostName();
+        if (localChannel != null) {
+            return localChannel.getName();
+        }
+        return socket != null ? socket.getInetAddress().getHostName() : String.valueOf(getRemoteAddress());
     }
 
+    /**
+     * @return port of the peer, 0 for transports without ports
+     */
     public int getPort() {
-        return socket.getPort();
+        return socket != null ? socket.getPort() : 0;
     }
 
     public int getLocalPort() {
-        return socket.getLocalPort();
+        return socket != null ? socket.getLocalPort() : 0;
+    }
+
+    /**
+     * @return address of the peer in terms of the transport, null for a local or closed connection
+     */
+    public SocketAddress getRemoteAddress() {
+        if (socket != null) {
+            return socket.getRemoteSocketAddress();
+        }
+        try {
+            return channel != null ? channel.getRemoteAddress() : null;
+        } catch (IOException ex) {
+            return null;
+        }
     }
 
     @Override
     public void close() throws IOException {
-        if (!opened) {
+        if (!opened.compareAndSet(true, false)) {
             if (server != null) {
                 throw new IOException("(S)Connection already closed " + this.toString());
             } else {
@@ -281,18 +1587,19 @@ public class MessagingConnection extends Thread implements Closeable {
 
         }
 
-        opened = false;
+        if (metrics != null) {
+            metrics.connectionClosed();
+        }
         dispatchConnectionClosed(null);
-        socket.close(); 
+        closeTransport();
+        releaseBuffers();
         if (server != null) {
             server.dispatchCloseMessagingConnection(this, null);
         }
-        interrupt();
     }
 
     public void shutdown() {
         this.shutdownSignal = true;
-        this.interrupt();
 
         try {
             close();
@@ -311,7 +1618,8 @@ public class MessagingConnection extends Thread implements Closeable {
                 "localPort",
                 "chunkSize",
                 "bytesSent",
-                "bytesReceived"
+                "bytesReceived",
+                "messagesReceived"
             ).build();
     }
 
@@ -0,0 +1,523 @@
+package ru.ancevt.net.messaging;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import ru.ancevt.net.messaging.buffer.FrameBuffer;
+import ru.ancevt.net.messaging.message.Message;
+import ru.ancevt.net.messaging.message.MessageData;
+
+/**
+ * Outbound frames of one connection. Any thread may enqueue; whichever thread finds the queue idle becomes its only
+ * writer and drains everything queued so far, frames queued meanwhile by other threads included, in as few gathering
+ * writes as possible. Frames keep the order they were enqueued in.
+ * <p>
+ * A frame may continue with a region of a file, which is transferred with {@link FileChannel#transferTo} right after
+ * its headers without passing through the heap.
+ * <p>
+ * Frames longer than the fragment size are sent as a series of fragments, see
+ * {@link ru.ancevt.net.messaging.message.FrameReassembler}. After each fragment the frame goes to the back of the
+ * queue, so frames queued after it are written in between instead of waiting for the whole frame; such frames may
+ * then overtake it. Regions of files are never fragmented.
+ * <p>
+ * On a non-blocking channel a write that does not fit the socket buffer keeps the writer role and reports
+ * {@link #isBlocked()}; the owner is expected to call {@link #resume()} once the channel becomes writable.
+ * <p>
+ * Over a {@link LocalChannel} nothing is written: the writer hands the frames themselves to the other end.
+ * <p>
+ * Only the writer touches queued entries, so closing the queue only marks it closed; frames still queued, and those
+ * queued later, are dropped by whichever thread holds or next takes the writer role.
+ *
+ * @author ancevt
+ */
+final class OutboundQueue {
+
+    static final int MAX_BATCH = 64;
+    static final int STREAM_BUFFER_SIZE = 8192;
+    static final int MIN_FRAGMENT_SIZE = 256;
+
+    private final Queue<Entry> queue;
+    private final AtomicInteger size;
+    private final AtomicBoolean writing;
+    private final AtomicBoolean blocked;
+    private final GatheringByteChannel channel;
+    private final OutputStream outputStream;
+    private final LocalChannel localChannel;
+    private final boolean nonBlocking;
+    private final ByteBuffer[] batch;
+    private final Runnable writeBlocked;
+    private final AtomicInteger fragmentedFrameIds;
+    private MessagingConnection owner;
+    private int fragmentSize;
+    private volatile boolean closed;
+    private volatile long bytesWritten;
+
+    /**
+     * @param channel      channel to write to
+     * @param nonBlocking  true if the channel is in non-blocking mode
+     * @param writeBlocked invoked by the writer when a non-blocking channel could not take the whole batch
+     */
+    OutboundQueue(GatheringByteChannel channel, boolean nonBlocking, Runnable writeBlocked) {
+        this(channel, null, null, nonBlocking, writeBlocked);
+    }
+
+    /**
+     * Queue over a plain stream; frames of a batch are coalesced in a buffer and flushed once.
+     */
+    OutboundQueue(OutputStream outputStream) {
+        this(null, new BufferedOutputStream(outputStream, STREAM_BUFFER_SIZE), null, false, null);
+    }
+
+    /**
+     * Queue handing frames over to the other end of an in-JVM channel.
+     */
+    OutboundQueue(LocalChannel localChannel) {
+        this(null, null, localChannel, false, null);
+    }
+
+    private OutboundQueue(GatheringByteChannel channel, OutputStream outputStream, LocalChannel localChannel,
+        boolean nonBlocking, Runnable writeBlocked) {
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.size = new AtomicInteger();
+        this.writing = new AtomicBoolean();
+        this.blocked = new AtomicBoolean();
+        this.channel = channel;
+        this.outputStream = outputStream;
+        this.localChannel = localChannel;
+        this.nonBlocking = nonBlocking;
+        this.writeBlocked = writeBlocked;
+        this.batch = new ByteBuffer[MAX_BATCH];
+        this.fragmentedFrameIds = new AtomicInteger();
+    }
+
+    /**
+     * @param fragmentSize largest number of frame bytes per fragment, 0 to never fragment
+     */
+    void setFragmentSize(int fragmentSize) {
+        if (fragmentSize != 0 && fragmentSize < MIN_FRAGMENT_SIZE) {
+            throw new IllegalArgumentException("fragmentSize must be 0 or at least " + MIN_FRAGMENT_SIZE + ": " + fragmentSize);
+        }
+        this.fragmentSize = fragmentSize;
+    }
+
+    int getFragmentSize() {
+        return fragmentSize;
+    }
+
+    /**
+     * Connection passed to {@link FrameWriteListener}s.
+     */
+    void setOwner(MessagingConnection owner) {
+        this.owner = owner;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    boolean isBlocked() {
+        return blocked.get();
+    }
+
+    /**
+     * Queues the frame and writes it unless another thread is writing already, in which case that thread will.
+     */
+    void enqueue(MessageData messageData) throws IOException {
+        enqueue(messageData.buffer(), messageData.frameBuffer(), null);
+    }
+
+    /**
+     * Queues the frame and notifies the listener when it is written or dropped. The frame is retained while queued,
+     * so the same one may be queued by any number of connections at once.
+     */
+    void enqueue(MessageData messageData, FrameWriteListener listener) throws IOException {
+        enqueue(messageData.buffer(), messageData.frameBuffer(), listener);
+    }
+
+    void enqueue(ByteBuffer buffer, FrameBuffer frameBuffer, FrameWriteListener listener) throws IOException {
+        final Entry entry = new Entry(buffer, frameBuffer.retain(), listener);
+        if (fragmentSize > 0 && buffer.remaining() > fragmentSize) {
+            entry.fragment(fragmentSize, fragmentedFrameIds.getAndIncrement());
+        }
+        enqueue(entry);
+    }
+
+    /**
+     * Queues the headers of a frame followed by a region of the file. The queue takes over the file channel and
+     * closes it once the region is written or dropped.
+     */
+    void enqueue(MessageData headers, FileChannel file, long position, long count, FrameWriteListener listener) throws IOException {
+        final Entry entry = new Entry(headers.buffer(), headers.frameBuffer().retain(), listener);
+        entry.file = file;
+        entry.filePosition = position;
+        entry.fileRemaining = count;
+        enqueue(entry);
+    }
+
+    private void enqueue(Entry entry) throws IOException {
+        queue.add(entry);
+        size.incrementAndGet();
+
+        if (writing.compareAndSet(false, true)) {
+            drain();
+        }
+    }
+
+    /**
+     * Continues writing after the non-blocking channel became writable again. Must be called by the owner of the
+     * blocked writer role only.
+     *
+     * @return true if everything has been written
+     */
+    boolean resume() throws IOException {
+        if (!blocked.compareAndSet(true, false)) {
+            // not blocked, or the role has been taken over by clear()
+            return true;
+        }
+        drain();
+        return !blocked.get();
+    }
+
+    private void drain() throws IOException {
+        for (;;) {
+            try {
+                while (!queue.isEmpty()) {
+                    if (closed) {
+                        dropAll();
+                    } else if (!writeBatch()) {
+                        blocked.set(true);
+                        if (writeBlocked != null) {
+                            writeBlocked.run();
+                        }
+                        return;
+                    }
+                }
+            } catch (IOException | RuntimeException ex) {
+                releaseWriting();
+                throw ex;
+            }
+
+            writing.set(false);
+
+            if (queue.isEmpty() || !writing.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gives up the writer role after a failed write. The frames left are dropped once the queue is closed, here if
+     * {@link #clear()} has been called meanwhile and found the role taken.
+     */
+    private void releaseWriting() {
+        writing.set(false);
+        while (closed && !queue.isEmpty() && writing.compareAndSet(false, true)) {
+            dropAll();
+            writing.set(false);
+        }
+    }
+
+    /**
+     * @return false if a non-blocking channel could not take the whole batch
+     */
+    private boolean writeBatch() throws IOException {
+        if (localChannel != null) {
+            transferBatch();
+            return true;
+        }
+        int count = 0;
+        long total = 0;
+        Entry fileEntry = null;
+        final Iterator<Entry> iterator = queue.iterator();
+        while (count < MAX_BATCH - 1 && iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (entry.fragmentHeaders != null && entry.fragmentHeaders.hasRemaining()) {
+                batch[count++] = entry.fragmentHeaders;
+                total += entry.fragmentHeaders.remaining();
+            }
+            if (entry.buffer.hasRemaining()) {
+                batch[count++] = entry.buffer;
+                total += entry.buffer.remaining();
+            }
+            if (entry.file != null) {
+                // the region has to follow its headers, the batch ends here
+                fileEntry = entry;
+                break;
+            }
+        }
+
+        long written = 0;
+        try {
+            if (channel != null) {
+                while (written < total) {
+                    final long result = channel.write(batch, 0, count);
+                    written += result;
+                    if (result == 0 && nonBlocking) {
+                        break;
+                    }
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    writeToStream(batch[i]);
+                }
+                outputStream.flush();
+                written = total;
+            }
+        } finally {
+            for (int i = 0; i < count; i++) {
+                batch[i] = null;
+            }
+            bytesWritten += written;
+            removeWritten();
+        }
+        if (written < total) {
+            return false;
+        }
+        if (fileEntry != null) {
+            try {
+                if (!transferFile(fileEntry)) {
+                    return false;
+                }
+            } finally {
+                removeWritten();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hands queued frames over to the other end of the local channel. The other end shares the frames, which are
+     * never written to once queued; only a frame continuing with a region of a file is put together in a new buffer.
+     */
+    private void transferBatch() throws IOException {
+        Entry entry;
+        for (int count = 0; count < MAX_BATCH && (entry = queue.peek()) != null; count++) {
+            final MessageData frame = entry.file == null
+                ? MessageData.wrap(entry.frameBuffer.retain(), entry.buffer.limit())
+                : readFrame(entry);
+            if (!localChannel.send(frame)) {
+                frame.release();
+                throw new EOFException("Local channel closed by peer " + localChannel.getName());
+            }
+            queue.poll();
+            size.decrementAndGet();
+            bytesWritten += frame.length();
+            entry.frameBuffer.release();
+            entry.closeFile();
+            entry.complete(owner, true);
+        }
+    }
+
+    private MessageData readFrame(Entry entry) throws IOException {
+        final ByteBuffer headers = entry.buffer.duplicate();
+        final MessageData frame = MessageData.allocate(
+            owner != null ? owner.getBufferPool() : null, headers.remaining() + (int) entry.fileRemaining
+        );
+        try {
+            final ByteBuffer target = frame.buffer();
+            target.put(headers);
+            while (target.hasRemaining()) {
+                final int count = entry.file.read(target, entry.filePosition);
+                if (count <= 0) {
+                    throw new EOFException("File was truncated while being sent");
+                }
+                entry.filePosition += count;
+            }
+        } catch (IOException ex) {
+            frame.release();
+            throw ex;
+        }
+        entry.fileRemaining = 0;
+        return frame;
+    }
+
+    /**
+     * @return false if a non-blocking channel could not take the whole region
+     */
+    private boolean transferFile(Entry entry) throws IOException {
+        final ByteBuffer chunk = channel == null
+            ? ByteBuffer.allocate((int) Math.min(STREAM_BUFFER_SIZE, entry.fileRemaining))
+            : null;
+        while (entry.fileRemaining > 0) {
+            final long count;
+            if (channel != null) {
+                count = entry.file.transferTo(entry.filePosition, entry.fileRemaining, channel);
+            } else {
+                count = transferToStream(entry, chunk);
+            }
+            if (count == 0) {
+                if (entry.filePosition >= entry.file.size()) {
+                    throw new EOFException("File was truncated while being sent");
+                }
+                if (nonBlocking) {
+                    return false;
+                }
+            }
+            entry.filePosition += count;
+            entry.fileRemaining -= count;
+            bytesWritten += count;
+        }
+        if (outputStream != null) {
+            outputStream.flush();
+        }
+        return true;
+    }
+
+    private long transferToStream(Entry entry, ByteBuffer chunk) throws IOException {
+        chunk.clear();
+        if (chunk.remaining() > entry.fileRemaining) {
+            chunk.limit((int) entry.fileRemaining);
+        }
+        final int count = entry.file.read(chunk, entry.filePosition);
+        if (count <= 0) {
+            return 0;
+        }
+        outputStream.write(chunk.array(), 0, count);
+        return count;
+    }
+
+    private void writeToStream(ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            final byte[] chunk = new byte[Math.min(STREAM_BUFFER_SIZE, buffer.remaining())];
+            while (buffer.hasRemaining()) {
+                final int count = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, count);
+                outputStream.write(chunk, 0, count);
+            }
+        }
+    }
+
+    private void removeWritten() {
+        Entry entry;
+        while ((entry = queue.peek()) != null) {
+            if (entry.isWritten()) {
+                queue.poll();
+                size.decrementAndGet();
+                entry.frameBuffer.release();
+                entry.closeFile();
+                entry.complete(owner, true);
+            } else if (entry.isFragmentWritten()) {
+                // let the frames queued meanwhile go before the next fragment
+                queue.poll();
+                entry.nextFragment();
+                queue.add(entry);
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Closes the queue. Pending writes of a closed connection are never going to complete, so all queued frames are
+     * dropped, right away if no other thread is writing, otherwise by the writer once its current batch is done.
+     */
+    void clear() {
+        closed = true;
+        // a blocked writer has returned and waits for resume(), its role can be taken over
+        if (blocked.compareAndSet(true, false) || writing.compareAndSet(false, true)) {
+            dropAll();
+            releaseWriting();
+        }
+    }
+
+    private void dropAll() {
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            size.decrementAndGet();
+            entry.frameBuffer.release();
+            entry.closeFile();
+            entry.complete(owner, false);
+        }
+    }
+
+    private static final class Entry {
+
+        private ByteBuffer buffer;
+        private final FrameBuffer frameBuffer;
+        private final FrameWriteListener listener;
+        private FileChannel file;
+        private long filePosition;
+        private long fileRemaining;
+        private ByteBuffer frame;
+        private ByteBuffer fragmentHeaders;
+        private int fragmentSize;
+        private int fragmentedFrameId;
+        private int nextOffset;
+
+        private Entry(ByteBuffer buffer, FrameBuffer frameBuffer, FrameWriteListener listener) {
+            this.buffer = buffer;
+            this.frameBuffer = frameBuffer;
+            this.listener = listener;
+        }
+
+        private void fragment(int fragmentSize, int fragmentedFrameId) {
+            this.frame = buffer;
+            this.fragmentSize = fragmentSize;
+            this.fragmentedFrameId = fragmentedFrameId;
+            this.fragmentHeaders = ByteBuffer.allocate(Message.FRAGMENT_HEADERS_SIZE);
+            nextFragment();
+        }
+
+        private void nextFragment() {
+            final int length = Math.min(fragmentSize, frame.limit() - nextOffset);
+            fragmentHeaders.clear();
+            MessageData.writeHeaders(fragmentHeaders, Message.FRAGMENT_HEADERS_SIZE + length, fragmentedFrameId);
+            fragmentHeaders.put(0, (byte) Message.FRAGMENT_SIGNATURE);
+            fragmentHeaders.putInt(frame.limit());
+            fragmentHeaders.putInt(nextOffset);
+            fragmentHeaders.flip();
+
+            buffer = frame.duplicate();
+            buffer.position(nextOffset).limit(nextOffset + length);
+            nextOffset += length;
+        }
+
+        private boolean isFragmentWritten() {
+            return frame != null && !fragmentHeaders.hasRemaining() && !buffer.hasRemaining();
+        }
+
+        private boolean isWritten() {
+            return !buffer.hasRemaining() && fileRemaining == 0
+                && (frame == null || !fragmentHeaders.hasRemaining() && nextOffset == frame.limit());
+        }
+
+        private void closeFile() {
+            if (file == null) {
+                return;
+            }
+            try {
+                file.close();
+            } catch (IOException ex) {
+                Log.err(ex, ex);
+            }
+        }
+
+        private void complete(MessagingConnection owner, boolean written) {
+            if (listener == null) {
+                return;
+            }
+            try {
+                listener.frameWritten(owner, written);
+            } catch (RuntimeException ex) {
+                Log.err(ex, ex);
+            }
+        }
+    }
+
+}
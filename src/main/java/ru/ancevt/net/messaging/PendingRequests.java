@@ -0,0 +1,109 @@
+package ru.ancevt.net.messaging;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import ru.ancevt.net.messaging.exec.HashedWheelTimer;
+import ru.ancevt.net.messaging.message.MessageData;
+
+/**
+ * Requests of one connection waiting for their responses, keyed by request id.
+ * <p>
+ * Ids of requests are negative so they never clash with ids of ordinary messages, and their lowest bit tells the
+ * side that issued them: even for server side connections, odd for client side ones. A frame carrying an id of our
+ * own parity is therefore a response to one of our requests, never a request of the peer. Ordinary messages are not
+ * allowed negative ids, {@link MessagingConnection#send} rejects them.
+ *
+ * @author ancevt
+ */
+final class PendingRequests {
+
+    private final Map<Integer, CompletableFuture<MessageData>> pending;
+    private final AtomicInteger counter;
+    private final int parity;
+    private final Executor timeoutExecutor;
+
+    PendingRequests(boolean serverSide) {
+        this(serverSide, Runnable::run);
+    }
+
+    /**
+     * @param timeoutExecutor runs the failing of timed out requests, and so whatever waits for them, instead of the
+     *                        timer thread, which must not block
+     */
+    PendingRequests(boolean serverSide, Executor timeoutExecutor) {
+        pending = new ConcurrentHashMap<>();
+        counter = new AtomicInteger();
+        parity = serverSide ? 0 : 1;
+        this.timeoutExecutor = timeoutExecutor;
+    }
+
+    int nextRequestId() {
+        return Integer.MIN_VALUE | (((counter.getAndIncrement() << 1) | parity) & Integer.MAX_VALUE);
+    }
+
+    boolean isOwnRequestId(int requestId) {
+        return requestId < 0 && (requestId & 1) == parity;
+    }
+
+    int size() {
+        return pending.size();
+    }
+
+    /**
+     * @param timeoutMillis time to wait for the response, 0 or less to wait forever
+     */
+    CompletableFuture<MessageData> register(int requestId, long timeoutMillis) {
+        final CompletableFuture<MessageData> future = new CompletableFuture<>();
+        pending.put(requestId, future);
+
+        if (timeoutMillis > 0) {
+            final HashedWheelTimer.Timeout timeout = HashedWheelTimer.shared().schedule(
+                () -> timeoutExecutor.execute(() -> fail(
+                    requestId, new TimeoutException("No response to request " + requestId + " in " + timeoutMillis + " ms")
+                )),
+                timeoutMillis,
+                TimeUnit.MILLISECONDS
+            );
+            future.whenComplete((messageData, ex) -> timeout.cancel());
+        }
+        return future;
+    }
+
+    /**
+     * Completes the request the frame responds to. A completed future owns the frame.
+     *
+     * @return true if the frame was a response and must not be dispatched to the listeners
+     */
+    boolean complete(MessageData messageData) {
+        final int requestId = messageData.getRequestId();
+        if (!isOwnRequestId(requestId)) {
+            return false;
+        }
+
+        final CompletableFuture<MessageData> future = pending.remove(requestId);
+        if (future == null || !future.complete(messageData)) {
+            Log.logger.info("Dropping response to expired request " + requestId);
+            messageData.release();
+        }
+        return true;
+    }
+
+    void fail(int requestId, Throwable ex) {
+        final CompletableFuture<MessageData> future = pending.remove(requestId);
+        if (future != null) {
+            future.completeExceptionally(ex);
+        }
+    }
+
+    void failAll(Throwable ex) {
+        for (Integer requestId : pending.keySet()) {
+            fail(requestId, ex);
+        }
+    }
+
+}
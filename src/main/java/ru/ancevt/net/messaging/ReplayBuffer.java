@@ -0,0 +1,175 @@
+package ru.ancevt.net.messaging;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Frames sent in a session, numbered in the order they were sent, kept until the peer acknowledges them or the
+ * limits push them out. Guarded by the lock of its {@link Session}.
+ *
+ * @author ancevt
+ */
+final class ReplayBuffer {
+
+    private final ArrayDeque<Entry> entries;
+    private final int capacity;
+    private final long maxBytes;
+    private long first;
+    private long bytes;
+
+    ReplayBuffer(int capacity, long maxBytes) {
+        this.entries = new ArrayDeque<>(Math.min(capacity, 1024));
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return number of the oldest frame kept
+     */
+    long first() {
+        return first;
+    }
+
+    /**
+     * @return number the next frame will get, the count of frames sent in the session
+     */
+    long next() {
+        return first + entries.size();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @param evict true to push out the oldest frames beyond the limits, false to keep everything for now. The frame
+     *              appended is never pushed out by itself.
+     */
+    void append(Entry entry, boolean evict) {
+        entries.addLast(entry);
+        bytes += entry.frame.length();
+        if (evict) {
+            while (entries.size() > 1 && (entries.size() > capacity || bytes > maxBytes)) {
+                removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Drops the frames numbered below the given one.
+     */
+    void trim(long next) {
+        while (first < next && !entries.isEmpty()) {
+            removeFirst();
+        }
+    }
+
+    /**
+     * @return true if every frame from the given number on is still kept
+     */
+    boolean covers(long number) {
+        return number >= first && number <= next();
+    }
+
+    List<Entry> from(long number) {
+        final List<Entry> result = new ArrayList<>((int) (next() - number));
+        final Iterator<Entry> iterator = entries.iterator();
+        for (long i = first; iterator.hasNext(); i++) {
+            final Entry entry = iterator.next();
+            if (i >= number) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops the frames numbered below the given one and numbers the rest from 0, for a session started afresh.
+     */
+    void restartAt(long number) {
+        trim(number);
+        first = 0;
+    }
+
+    /**
+     * Appends all frames to the other buffer and leaves this one empty.
+     */
+    void moveTo(ReplayBuffer target) {
+        for (Entry entry : entries) {
+            target.append(entry, false);
+        }
+        first = next();
+        entries.clear();
+        bytes = 0;
+    }
+
+    void clear() {
+        while (!entries.isEmpty()) {
+            removeFirst();
+        }
+    }
+
+    private void removeFirst() {
+        final Entry entry = entries.removeFirst();
+        first++;
+        bytes -= entry.frame.length();
+        entry.drop();
+    }
+
+    /**
+     * Frame as it goes to the socket, or the headers of a file message followed by the region of its file.
+     */
+    static final class Entry {
+
+        final MessageData frame;
+        final Path file;
+        final long filePosition;
+        final long fileCount;
+        // notified on the first write only, on behalf of the connection the frame was sent through
+        final MessagingConnection sender;
+        FrameWriteListener listener;
+
+        Entry(MessageData frame, MessagingConnection sender, FrameWriteListener listener) {
+            this(frame, null, 0, 0, sender, listener);
+        }
+
+        /**
+         * Retains the frame.
+         */
+        Entry(MessageData frame, Path file, long filePosition, long fileCount, MessagingConnection sender, FrameWriteListener listener) {
+            this.frame = frame.retain();
+            this.sender = sender;
+            this.file = file;
+            this.filePosition = filePosition;
+            this.fileCount = fileCount;
+            this.listener = listener;
+        }
+
+        private void drop() {
+            if (listener != null) {
+                // never written
+                listener.frameWritten(sender, false);
+                listener = null;
+            }
+            frame.release();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("first", first)
+            .append("size", entries.size())
+            .append("bytes", bytes)
+            .build();
+    }
+}
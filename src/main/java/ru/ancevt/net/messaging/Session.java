@@ -0,0 +1,361 @@
+package ru.ancevt.net.messaging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import ru.ancevt.net.messaging.buffer.BufferPool;
+import ru.ancevt.net.messaging.exec.HashedWheelTimer;
+import ru.ancevt.net.messaging.message.FileMessage;
+import ru.ancevt.net.messaging.message.Message;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Conversation between a client and a server that outlives the connection carrying it. Both sides number the frames
+ * they send and receive in the session and keep the sent ones in a bounded {@link ReplayBuffer} until the peer
+ * acknowledges them. When the client reconnects with the token the server issued, each side replays only the frames
+ * the other has not received, and the listeners carry on as if the connection never dropped.
+ * <p>
+ * A session cannot be resumed once the frames to replay have been pushed out of a replay buffer, or once the server
+ * has dropped it after {@link SessionConfig#getSessionTimeoutMillis()} without a connection; the client then gets a
+ * new session and has to restore its state itself. {@link MessagingConnectionListener#connectionOpened} is only
+ * dispatched once the session is established, so listeners can tell both cases apart by {@link #isResumed()}.
+ * <p>
+ * Frames of a session are never fragmented, since frames have to arrive in the order they were numbered. Requests
+ * waiting for responses still fail when their connection closes; responses replayed later are dropped.
+ *
+ * @author ancevt
+ */
+public final class Session {
+
+    static final int HELLO = 0;
+    static final int WELCOME = 1;
+    static final int ACK = 2;
+
+    private final SessionConfig config;
+    private final ReplayBuffer replay;
+    private final AtomicLong acknowledged;
+    private final long ackBytes;
+    private final int ackFrames;
+    private volatile UUID token;
+    private volatile boolean resumed;
+    private volatile long received;
+    // written by the reading thread only
+    private int framesSinceAck;
+    private long bytesSinceAck;
+    // guarded by this
+    private MessagingConnection connection;
+    private boolean established;
+    private long handshakeNumber;
+    private boolean closed;
+    private HashedWheelTimer.Timeout expiry;
+
+    public Session(SessionConfig config) {
+        this.config = config;
+        this.replay = new ReplayBuffer(config.getReplayCapacity(), config.getMaxReplayBytes());
+        this.acknowledged = new AtomicLong();
+        // acknowledging at a quarter of the limits keeps frames from being pushed out while the peer is still there
+        this.ackFrames = Math.max(1, config.getReplayCapacity() / 4);
+        this.ackBytes = Math.max(1, config.getMaxReplayBytes() / 4);
+    }
+
+    public SessionConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Token issued by the server, null until the first connection has established the session.
+     */
+    public UUID getToken() {
+        return token;
+    }
+
+    /**
+     * @return true if the last connection resumed the session, false if it started it
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    public synchronized long getSentCount() {
+        return replay.next();
+    }
+
+    public long getReceivedCount() {
+        return received;
+    }
+
+    /**
+     * Number of sent frames kept for replay.
+     */
+    public synchronized int getReplaySize() {
+        return replay.size();
+    }
+
+    public synchronized MessagingConnection getConnection() {
+        return connection;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Sends the message through the connection carrying the session, or keeps it for the connection that resumes
+     * the session if there is none at the moment. Kept messages count against the replay limits, the oldest ones
+     * pushed out make the session impossible to resume.
+     *
+     * @throws IOException if the session is closed
+     */
+    public void send(Message message) throws IOException {
+        for (;;) {
+            final MessagingConnection current = getConnection();
+            if (current != null) {
+                final boolean wasOpened = current.isOpened();
+                try {
+                    current.send(message);
+                    return;
+                } catch (IOException ex) {
+                    if (getConnection() == current && current.isOpened() && wasOpened) {
+                        throw ex;
+                    }
+                    // the connection either opened or dropped meanwhile, a dropped one is about to let go of the
+                    // session
+                    Thread.yield();
+                    continue;
+                }
+            }
+            message.prepare();
+            synchronized (this) {
+                if (connection != null) {
+                    continue;
+                }
+                if (closed) {
+                    throw new IOException("Session " + token + " is closed");
+                }
+                replay.trim(acknowledged.get());
+                replay.append(message instanceof FileMessage
+                    ? new ReplayBuffer.Entry(message.getMessageData(), ((FileMessage) message).getPath(),
+                        ((FileMessage) message).getPosition(), ((FileMessage) message).getCount(), null, null)
+                    : new ReplayBuffer.Entry(message.getMessageData(), null, null),
+                    true
+                );
+                return;
+            }
+        }
+    }
+
+    /**
+     * Ends the session and drops the frames kept for replay. A connection still carrying it fails on the next send.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (expiry != null) {
+            expiry.cancel();
+            expiry = null;
+        }
+        replay.clear();
+    }
+
+    synchronized void attach(MessagingConnection connection) {
+        this.connection = connection;
+        this.established = false;
+        this.handshakeNumber = replay.next();
+    }
+
+    /**
+     * @return false if the connection is no longer the one carrying the session
+     */
+    synchronized boolean detach(MessagingConnection connection) {
+        if (this.connection != connection) {
+            return false;
+        }
+        this.connection = null;
+        this.established = false;
+        return true;
+    }
+
+    /**
+     * Keeps the frame for replay. Must be called holding the lock of the session, so that frames reach the socket
+     * in the order they are numbered.
+     *
+     * @return true if the frame is to be written right away, false if it waits for the handshake
+     * @throws IOException if the session is closed or carried by another connection
+     */
+    boolean append(MessagingConnection sender, ReplayBuffer.Entry entry) throws IOException {
+        if (closed || connection != sender) {
+            throw new IOException("Session " + token + " is " + (closed ? "closed" : "not carried by " + sender));
+        }
+        replay.trim(acknowledged.get());
+        replay.append(entry, established);
+        return established;
+    }
+
+    /**
+     * Counts a frame received in the session.
+     *
+     * @return true if the peer should be sent an acknowledgement now
+     */
+    boolean frameReceived(int length) {
+        received++;
+        bytesSinceAck += length;
+        if (++framesSinceAck >= ackFrames || bytesSinceAck >= ackBytes) {
+            framesSinceAck = 0;
+            bytesSinceAck = 0;
+            return true;
+        }
+        return false;
+    }
+
+    void acknowledge(long count) {
+        acknowledged.accumulateAndGet(count, Math::max);
+    }
+
+    /**
+     * Server side check of a resumption request, under the lock.
+     */
+    boolean canResume(long peerReceived, long peerFirst, long peerSent) {
+        replay.trim(acknowledged.get());
+        return !closed && replay.covers(peerReceived) && peerFirst <= received && received <= peerSent;
+    }
+
+    /**
+     * Server side resumption by a new connection, under the locks of both sessions. The frames the connection has
+     * sent so far in its provisional session follow the ones kept here.
+     *
+     * @return connection that carried the session until now, to be closed by the caller, or null
+     */
+    MessagingConnection takeOver(MessagingConnection connection, Session provisional, long peerReceived) {
+        final MessagingConnection previous = this.connection;
+        if (expiry != null) {
+            expiry.cancel();
+            expiry = null;
+        }
+        acknowledge(peerReceived);
+        replay.trim(peerReceived);
+        provisional.replay.moveTo(replay);
+        provisional.closed = true;
+        this.connection = connection;
+        this.established = true;
+        this.resumed = true;
+        return previous != connection ? previous : null;
+    }
+
+    /**
+     * Server side start of a new session, under the lock.
+     */
+    void start(UUID token) {
+        this.token = token;
+        this.established = true;
+        this.resumed = false;
+    }
+
+    /**
+     * Client side completion of the handshake, under the lock.
+     *
+     * @return false if the frames the server asks for are gone
+     */
+    boolean established(MessagingConnection connection, UUID token, long peerReceived, boolean resumed) {
+        if (closed || this.connection != connection) {
+            return false;
+        }
+        if (resumed) {
+            acknowledge(peerReceived);
+            replay.trim(peerReceived);
+            if (!replay.covers(peerReceived)) {
+                return false;
+            }
+        } else {
+            // whatever the old session had in flight is lost, only the frames sent since the handshake began remain
+            replay.restartAt(handshakeNumber);
+            acknowledged.set(0);
+            received = 0;
+            framesSinceAck = 0;
+            bytesSinceAck = 0;
+        }
+        this.token = token;
+        this.resumed = resumed;
+        this.established = true;
+        return true;
+    }
+
+    /**
+     * Frames to write once the session is established, under the lock.
+     */
+    List<ReplayBuffer.Entry> replayFrom(long number) {
+        return replay.from(number);
+    }
+
+    void setExpiry(HashedWheelTimer.Timeout expiry) {
+        this.expiry = expiry;
+    }
+
+    MessageData hello(BufferPool bufferPool) {
+        final UUID current = token;
+        final MessageData frame = allocate(bufferPool, HELLO, 40);
+        final ByteBuffer payload = frame.buffer();
+        payload.position(Message.HEADERS_SIZE);
+        payload.putLong(current != null ? current.getMostSignificantBits() : 0);
+        payload.putLong(current != null ? current.getLeastSignificantBits() : 0);
+        synchronized (this) {
+            replay.trim(acknowledged.get());
+            payload.putLong(received);
+            payload.putLong(replay.first());
+            payload.putLong(replay.next());
+        }
+        return frame;
+    }
+
+    MessageData welcome(BufferPool bufferPool) {
+        final MessageData frame = allocate(bufferPool, WELCOME, 25);
+        final ByteBuffer payload = frame.buffer();
+        payload.position(Message.HEADERS_SIZE);
+        payload.putLong(token.getMostSignificantBits());
+        payload.putLong(token.getLeastSignificantBits());
+        payload.putLong(received);
+        payload.put((byte) (resumed ? 1 : 0));
+        return frame;
+    }
+
+    MessageData ack(BufferPool bufferPool) {
+        final MessageData frame = allocate(bufferPool, ACK, 8);
+        final ByteBuffer payload = frame.buffer();
+        payload.position(Message.HEADERS_SIZE);
+        payload.putLong(received);
+        return frame;
+    }
+
+    /**
+     * @return the token read at the current position of the payload, null for none
+     */
+    static UUID readToken(ByteBuffer payload) {
+        final long most = payload.getLong();
+        final long least = payload.getLong();
+        return most == 0 && least == 0 ? null : new UUID(most, least);
+    }
+
+    private static MessageData allocate(BufferPool bufferPool, int kind, int payloadLength) {
+        final int frameLength = Message.HEADERS_SIZE + payloadLength;
+        final MessageData frame = MessageData.allocate(bufferPool, frameLength);
+        final ByteBuffer buffer = frame.buffer();
+        buffer.put((byte) Message.SESSION_SIGNATURE);
+        buffer.putInt(frameLength);
+        buffer.putInt(kind);
+        return frame;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return new ToStringBuilder(this)
+            .append("token", token)
+            .append("resumed", resumed)
+            .append("sent", replay.next())
+            .append("received", received)
+            .append("replay", replay.size())
+            .append("established", established)
+            .append("closed", closed)
+            .build();
+    }
+}
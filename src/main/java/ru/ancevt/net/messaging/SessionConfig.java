@@ -0,0 +1,78 @@
+package ru.ancevt.net.messaging;
+
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Settings of resumable sessions. Both peers need sessions enabled; the limits only matter to the side holding the
+ * frames.
+ *
+ * @author ancevt
+ * @see Session
+ */
+public final class SessionConfig {
+
+    public static final int DEFAULT_REPLAY_CAPACITY = 1024;
+    public static final long DEFAULT_MAX_REPLAY_BYTES = 4 * 1024 * 1024;
+    public static final long DEFAULT_SESSION_TIMEOUT_MILLIS = 60_000;
+    public static final long DEFAULT_HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+
+    private final int replayCapacity;
+    private final long maxReplayBytes;
+    private final long sessionTimeoutMillis;
+    private final long handshakeTimeoutMillis;
+
+    public SessionConfig() {
+        this(DEFAULT_REPLAY_CAPACITY, DEFAULT_MAX_REPLAY_BYTES, DEFAULT_SESSION_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param replayCapacity       number of sent frames kept until the peer acknowledges them
+     * @param maxReplayBytes       bytes of sent frames kept until the peer acknowledges them
+     * @param sessionTimeoutMillis time the server keeps a session without a connection
+     */
+    public SessionConfig(int replayCapacity, long maxReplayBytes, long sessionTimeoutMillis) {
+        this(replayCapacity, maxReplayBytes, sessionTimeoutMillis, DEFAULT_HANDSHAKE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param handshakeTimeoutMillis time a new connection has to establish its session before it is closed
+     */
+    public SessionConfig(int replayCapacity, long maxReplayBytes, long sessionTimeoutMillis, long handshakeTimeoutMillis) {
+        if (replayCapacity < 1 || maxReplayBytes < 1) {
+            throw new IllegalArgumentException("Invalid replay buffer " + replayCapacity + " frames, " + maxReplayBytes + " bytes");
+        }
+        if (sessionTimeoutMillis <= 0 || handshakeTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Invalid timeouts " + sessionTimeoutMillis + "/" + handshakeTimeoutMillis);
+        }
+        this.replayCapacity = replayCapacity;
+        this.maxReplayBytes = maxReplayBytes;
+        this.sessionTimeoutMillis = sessionTimeoutMillis;
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+    }
+
+    public int getReplayCapacity() {
+        return replayCapacity;
+    }
+
+    public long getMaxReplayBytes() {
+        return maxReplayBytes;
+    }
+
+    public long getSessionTimeoutMillis() {
+        return sessionTimeoutMillis;
+    }
+
+    public long getHandshakeTimeoutMillis() {
+        return handshakeTimeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("replayCapacity", replayCapacity)
+            .append("maxReplayBytes", maxReplayBytes)
+            .append("sessionTimeoutMillis", sessionTimeoutMillis)
+            .append("handshakeTimeoutMillis", handshakeTimeoutMillis)
+            .build();
+    }
+}
@@ -0,0 +1,104 @@
+package ru.ancevt.net.messaging;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import ru.ancevt.net.messaging.exec.HashedWheelTimer;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Sessions of a server by their tokens. A session without a connection is dropped after
+ * {@link SessionConfig#getSessionTimeoutMillis()} unless a client resumes it first.
+ *
+ * @author ancevt
+ */
+public final class SessionRegistry implements Closeable {
+
+    private final SessionConfig config;
+    private final Map<UUID, Session> sessions;
+
+    public SessionRegistry(SessionConfig config) {
+        this.config = config;
+        this.sessions = new ConcurrentHashMap<>();
+    }
+
+    public SessionConfig getConfig() {
+        return config;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    Session get(UUID token) {
+        return sessions.get(token);
+    }
+
+    /**
+     * Issues a token to the session, under its lock.
+     */
+    void register(Session session) {
+        UUID token;
+        do {
+            token = UUID.randomUUID();
+        } while (sessions.putIfAbsent(token, session) != null);
+        session.start(token);
+    }
+
+    void remove(Session session) {
+        final UUID token = session.getToken();
+        if (token != null) {
+            sessions.remove(token, session);
+        }
+        session.close();
+    }
+
+    /**
+     * Called once the connection carrying the session has closed.
+     */
+    void detached(Session session) {
+        if (session.getToken() == null) {
+            // the handshake never completed
+            session.close();
+            return;
+        }
+        synchronized (session) {
+            if (session.getConnection() == null && !session.isClosed()) {
+                session.setExpiry(HashedWheelTimer.shared().schedule(
+                    () -> expire(session), config.getSessionTimeoutMillis(), TimeUnit.MILLISECONDS
+                ));
+            }
+        }
+    }
+
+    private void expire(Session session) {
+        synchronized (session) {
+            // resumed meanwhile
+            if (session.getConnection() != null) {
+                return;
+            }
+            remove(session);
+        }
+        Log.logger.info("Session expired " + session);
+    }
+
+    /**
+     * Drops every session.
+     */
+    @Override
+    public void close() {
+        for (Session session : sessions.values()) {
+            remove(session);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("sessions", sessions.size())
+            .append("config", config)
+            .build();
+    }
+}
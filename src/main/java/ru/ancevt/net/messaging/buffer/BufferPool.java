@@ -0,0 +1,142 @@
+package ru.ancevt.net.messaging.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Pool of heap or direct buffers split into power-of-two size classes. Requests larger than the biggest class are
+ * served by plain unpooled allocations.
+ * <p>
+ * Leak detection is enabled with the system property {@value #LEAK_DETECTION_PROPERTY} or
+ * {@link #setLeakDetection(boolean)}.
+ *
+ * @author ancevt
+ */
+public class BufferPool {
+
+    public static final String LEAK_DETECTION_PROPERTY = "ru.ancevt.net.messaging.leakDetection";
+
+    public static final int MIN_SIZE_CLASS = 256;
+    public static final int DEFAULT_MAX_SIZE_CLASS = 1024 * 1024;
+    public static final int DEFAULT_MAX_BUFFERS_PER_CLASS = 256;
+
+    private static volatile boolean leakDetection = Boolean.getBoolean(LEAK_DETECTION_PROPERTY);
+
+    private final boolean direct;
+    private final int maxSizeClass;
+    private final int maxBuffersPerClass;
+    private final Queue<ByteBuffer>[] freeLists;
+    private final AtomicInteger[] freeCounts;
+    private final LeakDetector leakDetector;
+
+    public BufferPool(boolean direct) {
+        this(direct, DEFAULT_MAX_SIZE_CLASS, DEFAULT_MAX_BUFFERS_PER_CLASS);
+    }
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(boolean direct, int maxSizeClass, int maxBuffersPerClass) {
+        if (maxSizeClass < MIN_SIZE_CLASS || Integer.bitCount(maxSizeClass) != 1) {
+            throw new IllegalArgumentException("maxSizeClass must be a power of two >= " + MIN_SIZE_CLASS);
+        }
+        this.direct = direct;
+        this.maxSizeClass = maxSizeClass;
+        this.maxBuffersPerClass = maxBuffersPerClass;
+
+        final int classCount = sizeClassIndex(maxSizeClass) + 1;
+        freeLists = (Queue<ByteBuffer>[]) new Queue<?>[classCount];
+        freeCounts = new AtomicInteger[classCount];
+        for (int i = 0; i < classCount; i++) {
+            freeLists[i] = new ConcurrentLinkedQueue<>();
+            freeCounts[i] = new AtomicInteger();
+        }
+        leakDetector = new LeakDetector();
+    }
+
+    public static void setLeakDetection(boolean enabled) {
+        leakDetection = enabled;
+    }
+
+    public static boolean isLeakDetection() {
+        return leakDetection;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * @return buffer of at least the requested capacity holding one reference
+     */
+    public FrameBuffer acquire(int capacity) {
+        if (capacity > maxSizeClass) {
+            return new FrameBuffer(allocate(capacity), null);
+        }
+
+        final int index = sizeClassIndex(capacity);
+        ByteBuffer buffer = freeLists[index].poll();
+        if (buffer != null) {
+            freeCounts[index].decrementAndGet();
+            buffer.clear();
+        } else {
+            buffer = allocate(MIN_SIZE_CLASS << index);
+        }
+
+        final FrameBuffer frameBuffer = new FrameBuffer(buffer, this);
+        if (leakDetection) {
+            frameBuffer.setTracker(leakDetector.track(frameBuffer, buffer.capacity()));
+        }
+        return frameBuffer;
+    }
+
+    void recycle(ByteBuffer buffer) {
+        final int index = sizeClassIndex(buffer.capacity());
+        if (freeCounts[index].incrementAndGet() <= maxBuffersPerClass) {
+            freeLists[index].add(buffer);
+        } else {
+            freeCounts[index].decrementAndGet();
+        }
+    }
+
+    /**
+     * Number of idle buffers currently held by the pool.
+     */
+    public int getFreeCount() {
+        int count = 0;
+        for (AtomicInteger freeCount : freeCounts) {
+            count += freeCount.get();
+        }
+        return count;
+    }
+
+    /**
+     * Number of pooled buffers acquired while leak detection was on and not released yet.
+     */
+    public int getTrackedCount() {
+        leakDetector.reportLeaks();
+        return leakDetector.getTrackedCount();
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static int sizeClassIndex(int capacity) {
+        if (capacity <= MIN_SIZE_CLASS) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - Integer.numberOfTrailingZeros(MIN_SIZE_CLASS);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("direct")
+            .append("maxSizeClass")
+            .append("freeCount", getFreeCount())
+            .build();
+    }
+
+}
@@ -0,0 +1,147 @@
+package ru.ancevt.net.messaging.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Reference counted byte buffer. Starts with one reference owned by whoever acquired it. Every {@link #retain()}
+ * must be paired with a {@link #release()}; when the count drops to zero a pooled buffer goes back to its pool and
+ * must not be touched anymore.
+ *
+ * @author ancevt
+ */
+public final class FrameBuffer {
+
+    private static final AtomicIntegerFieldUpdater<FrameBuffer> REF_COUNT
+        = AtomicIntegerFieldUpdater.newUpdater(FrameBuffer.class, "refCount");
+
+    private final ByteBuffer buffer;
+    private final BufferPool pool;
+    private final Runnable releaseAction;
+    private LeakDetector.Tracker tracker;
+    private volatile int refCount;
+
+    FrameBuffer(ByteBuffer buffer, BufferPool pool) {
+        this(buffer, pool, null);
+    }
+
+    private FrameBuffer(ByteBuffer buffer, BufferPool pool, Runnable releaseAction) {
+        this.buffer = buffer;
+        this.pool = pool;
+        this.releaseAction = releaseAction;
+        this.refCount = 1;
+    }
+
+    void setTracker(LeakDetector.Tracker tracker) {
+        this.tracker = tracker;
+    }
+
+    /**
+     * Wraps an array into an unpooled buffer. Releasing it does nothing but decrement the count.
+     */
+    public static FrameBuffer wrap(byte[] array) {
+        return new FrameBuffer(ByteBuffer.wrap(array), null);
+    }
+
+    /**
+     * Wraps a buffer that holds some other resource, such as a mapped file, which the action frees once the last
+     * reference is released.
+     */
+    public static FrameBuffer wrap(ByteBuffer buffer, Runnable releaseAction) {
+        return new FrameBuffer(buffer, null, releaseAction);
+    }
+
+    /**
+     * Underlying buffer spanning the whole capacity. Callers should work on a duplicate of it.
+     */
+    public ByteBuffer nioBuffer() {
+        return buffer;
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    public boolean hasArray() {
+        return buffer.hasArray();
+    }
+
+    public byte[] array() {
+        return buffer.array();
+    }
+
+    public boolean isDirect() {
+        return buffer.isDirect();
+    }
+
+    public boolean isPooled() {
+        return pool != null;
+    }
+
+    /**
+     * Returns false for a buffer over a plain allocation, which the garbage collector reclaims whether it is released
+     * or not.
+     */
+    public boolean isReleasable() {
+        return pool != null || releaseAction != null;
+    }
+
+    public int refCount() {
+        return refCount;
+    }
+
+    /**
+     * Returns false once a pooled buffer has been handed back to its pool or the resource behind it freed.
+     */
+    public boolean isAccessible() {
+        return pool == null && releaseAction == null || refCount > 0;
+    }
+
+    public FrameBuffer retain() {
+        for (;;) {
+            final int count = refCount;
+            if (count <= 0) {
+                throw new IllegalStateException("retain of released buffer " + this);
+            }
+            if (REF_COUNT.compareAndSet(this, count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * @return true if this call dropped the last reference
+     */
+    public boolean release() {
+        final int count = REF_COUNT.decrementAndGet(this);
+        if (count > 0) {
+            return false;
+        }
+        if (count < 0) {
+            REF_COUNT.incrementAndGet(this);
+            throw new IllegalStateException("release of released buffer " + this);
+        }
+        if (tracker != null) {
+            tracker.close();
+        }
+        if (pool != null) {
+            pool.recycle(buffer);
+        }
+        if (releaseAction != null) {
+            releaseAction.run();
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("capacity", capacity())
+            .append("direct", isDirect())
+            .append("pooled", isPooled())
+            .append("refCount")
+            .build();
+    }
+
+}
@@ -0,0 +1,63 @@
+package ru.ancevt.net.messaging.buffer;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import ru.ancevt.net.messaging.Log;
+
+/**
+ * Reports pooled buffers that were garbage collected without being released, together with the stack trace of
+ * their allocation. Meant for debugging only, every tracked acquisition captures a stack trace.
+ *
+ * @author ancevt
+ */
+final class LeakDetector {
+
+    private final ReferenceQueue<FrameBuffer> queue;
+    private final Set<Tracker> trackers;
+
+    LeakDetector() {
+        queue = new ReferenceQueue<>();
+        trackers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    }
+
+    Tracker track(FrameBuffer buffer, int capacity) {
+        reportLeaks();
+        return new Tracker(buffer, capacity);
+    }
+
+    int getTrackedCount() {
+        return trackers.size();
+    }
+
+    void reportLeaks() {
+        Tracker tracker;
+        while ((tracker = (Tracker) queue.poll()) != null) {
+            if (trackers.remove(tracker)) {
+                Log.logger.error("LEAK: FrameBuffer of " + tracker.capacity
+                    + " bytes was garbage collected without release(), allocated at:", tracker.allocation);
+            }
+        }
+    }
+
+    final class Tracker extends PhantomReference<FrameBuffer> {
+
+        private final int capacity;
+        private final Throwable allocation;
+
+        private Tracker(FrameBuffer referent, int capacity) {
+            super(referent, queue);
+            this.capacity = capacity;
+            this.allocation = new Throwable("FrameBuffer allocation");
+            trackers.add(this);
+        }
+
+        void close() {
+            trackers.remove(this);
+            clear();
+        }
+    }
+
+}
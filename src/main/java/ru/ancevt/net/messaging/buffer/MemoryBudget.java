@@ -0,0 +1,84 @@
+package ru.ancevt.net.messaging.buffer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Number of bytes that may be held at once by frames received but not yet consumed. Readers take credit for every
+ * frame they hand over and stop reading while the budget is exhausted; consumers return the credit when they are
+ * done with the frame, which wakes the readers up again.
+ * <p>
+ * Credit is taken unconditionally, so usage may overshoot the limit by the frames a reader is already holding when
+ * it notices. One budget may be shared by many connections.
+ *
+ * @author ancevt
+ */
+public class MemoryBudget {
+
+    private final long limit;
+    private final AtomicLong used;
+    private final Queue<Runnable> waiters;
+
+    public MemoryBudget(long limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        this.limit = limit;
+        this.used = new AtomicLong();
+        this.waiters = new ConcurrentLinkedQueue<>();
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    public boolean isExhausted() {
+        return used.get() >= limit;
+    }
+
+    /**
+     * @return false if the budget is exhausted after taking the bytes
+     */
+    public boolean acquire(long bytes) {
+        return used.addAndGet(bytes) < limit;
+    }
+
+    public void release(long bytes) {
+        if (used.addAndGet(-bytes) < limit) {
+            runWaiters();
+        }
+    }
+
+    /**
+     * Runs the callback once, as soon as the budget is not exhausted: right away on the calling thread if it is not
+     * exhausted now, otherwise on the thread releasing the credit.
+     */
+    public void whenAvailable(Runnable callback) {
+        waiters.add(callback);
+        if (!isExhausted()) {
+            runWaiters();
+        }
+    }
+
+    private void runWaiters() {
+        Runnable waiter;
+        while (!isExhausted() && (waiter = waiters.poll()) != null) {
+            waiter.run();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("limit", limit)
+            .append("used", used.get())
+            .append("waiters", waiters.size())
+            .build();
+    }
+}
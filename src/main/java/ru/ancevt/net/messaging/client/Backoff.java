@@ -0,0 +1,59 @@
+package ru.ancevt.net.messaging.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Exponential backoff with jitter between reconnection attempts. The delay before attempt n is picked at random
+ * between half and all of {@code min(maxDelay, initialDelay * 2^n)}, so clients that lost a server at the same moment
+ * do not all come back at the same moment.
+ *
+ * @author ancevt
+ */
+public final class Backoff {
+
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 100;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 30_000;
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+
+    public Backoff() {
+        this(DEFAULT_INITIAL_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    public Backoff(long initialDelayMillis, long maxDelayMillis) {
+        if (initialDelayMillis <= 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("Invalid backoff " + initialDelayMillis + ".." + maxDelayMillis);
+        }
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public long getInitialDelayMillis() {
+        return initialDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * @param attempt number of attempts failed in a row, 0 for the first one
+     */
+    public long getDelayMillis(int attempt) {
+        final long ceiling = attempt >= Long.SIZE - 2 || initialDelayMillis << attempt >>> attempt != initialDelayMillis
+            ? maxDelayMillis
+            : Math.min(maxDelayMillis, initialDelayMillis << attempt);
+        final long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("initialDelayMillis", initialDelayMillis)
+            .append("maxDelayMillis", maxDelayMillis)
+            .build();
+    }
+}
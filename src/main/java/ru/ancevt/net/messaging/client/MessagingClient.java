@@ -1,11 +1,30 @@
 package ru.ancevt.net.messaging.client;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
+import ru.ancevt.net.messaging.HeartbeatConfig;
 import ru.ancevt.net.messaging.MessagingConnection;
 import ru.ancevt.net.messaging.MessagingConnectionListener;
+import ru.ancevt.net.messaging.Session;
+import ru.ancevt.net.messaging.SessionConfig;
+import ru.ancevt.net.messaging.buffer.BufferPool;
+import ru.ancevt.net.messaging.buffer.MemoryBudget;
+import ru.ancevt.net.messaging.compression.CompressionConfig;
+import ru.ancevt.net.messaging.exec.ConnectionExecutor;
+import ru.ancevt.net.messaging.exec.OrderedExecutor;
+import ru.ancevt.net.messaging.metrics.MessagingMetrics;
+import ru.ancevt.net.messaging.exec.ConnectionExecutors;
+import ru.ancevt.net.messaging.message.FrameDecoder;
+import ru.ancevt.net.messaging.message.FrameReassembler;
+import ru.ancevt.net.messaging.message.FrameSpool;
+import ru.ancevt.net.messaging.message.Message;
 import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.transport.Transport;
+import ru.ancevt.net.messaging.transport.Transports;
 
 /**
  *
@@ -16,9 +35,193 @@ public class MessagingClient implements MessagingConnectionListener {
     private final List<MessagingClientListener> listeners;
     private MessagingConnection connection;
     private Throwable exception;
+    private final ConnectionExecutor connectionExecutor;
+    private BufferPool bufferPool;
+    private OrderedExecutor dispatchExecutor;
+    private MessagingMetrics metrics;
+    private CompressionConfig compression;
+    private FrameSpool frameSpool;
+    private int fragmentSize;
+    private long maxReassemblyBytes = FrameReassembler.DEFAULT_MAX_BUFFERED_BYTES;
+    private int maxFrameSize = FrameDecoder.DEFAULT_MAX_FRAME_SIZE;
+    private long maxInboundBytes;
+    private MemoryBudget inboundBudget;
+    private HeartbeatConfig heartbeat;
+    private SessionConfig sessions;
+    private Session session;
 
     public MessagingClient() {
+        this(ConnectionExecutors.platformThreads());
+    }
+
+    /**
+     * @param connectionExecutor executor running the read loops of the connections of this client
+     * @see ConnectionExecutors
+     */
+    public MessagingClient(ConnectionExecutor connectionExecutor) {
         listeners = new CopyOnWriteArrayList<>();
+        this.connectionExecutor = connectionExecutor;
+    }
+
+    public ConnectionExecutor getConnectionExecutor() {
+        return connectionExecutor;
+    }
+
+    /**
+     * Pool for incoming frames of connections opened from now on, null for plain arrays.
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Executor for listener callbacks of connections opened from now on, null to dispatch on their reading
+     * threads. Not closed by the client.
+     *
+     * @see MessagingConnection#setDispatchExecutor(OrderedExecutor)
+     */
+    public void setDispatchExecutor(OrderedExecutor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+    }
+
+    public OrderedExecutor getDispatchExecutor() {
+        return dispatchExecutor;
+    }
+
+    /**
+     * Metrics for connections opened from now on, null for none.
+     *
+     * @see MessagingConnection#setMetrics(MessagingMetrics)
+     */
+    public void setMetrics(MessagingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public MessagingMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Compression of frames sent by connections opened from now on, null for none.
+     *
+     * @see MessagingConnection#setCompression(CompressionConfig)
+     */
+    public void setCompression(CompressionConfig compression) {
+        this.compression = compression;
+    }
+
+    public CompressionConfig getCompression() {
+        return compression;
+    }
+
+    /**
+     * Spool for large frames received by connections opened from now on, null to keep them in memory.
+     *
+     * @see MessagingConnection#setFrameSpool(FrameSpool)
+     */
+    public void setFrameSpool(FrameSpool frameSpool) {
+        this.frameSpool = frameSpool;
+    }
+
+    public FrameSpool getFrameSpool() {
+        return frameSpool;
+    }
+
+    /**
+     * @see MessagingConnection#setFragmentSize(int)
+     */
+    public void setFragmentSize(int fragmentSize) {
+        this.fragmentSize = fragmentSize;
+    }
+
+    public int getFragmentSize() {
+        return fragmentSize;
+    }
+
+    /**
+     * @see MessagingConnection#setMaxReassemblyBytes(long)
+     */
+    public void setMaxReassemblyBytes(long maxReassemblyBytes) {
+        this.maxReassemblyBytes = maxReassemblyBytes;
+    }
+
+    public long getMaxReassemblyBytes() {
+        return maxReassemblyBytes;
+    }
+
+    /**
+     * @see MessagingConnection#setMaxFrameSize(int)
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Inbound limit of each connection opened from now on, 0 for none.
+     *
+     * @see MessagingConnection#setMaxInboundBytes(long)
+     */
+    public void setMaxInboundBytes(long maxInboundBytes) {
+        this.maxInboundBytes = maxInboundBytes;
+    }
+
+    public long getMaxInboundBytes() {
+        return maxInboundBytes;
+    }
+
+    /**
+     * Inbound budget shared by all connections opened from now on, null for none.
+     *
+     * @see MessagingConnection#setInboundBudget(MemoryBudget)
+     */
+    public void setInboundBudget(MemoryBudget inboundBudget) {
+        this.inboundBudget = inboundBudget;
+    }
+
+    public MemoryBudget getInboundBudget() {
+        return inboundBudget;
+    }
+
+    /**
+     * Heartbeat and idle timeouts of connections opened from now on, null for none.
+     *
+     * @see MessagingConnection#setHeartbeat(HeartbeatConfig)
+     */
+    public void setHeartbeat(HeartbeatConfig heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
+    public HeartbeatConfig getHeartbeat() {
+        return heartbeat;
+    }
+
+    /**
+     * Makes connections opened from now on carry a session, so that a connection reopened after a drop resumes it
+     * instead of starting over. Null for connections without sessions.
+     *
+     * @see Session
+     */
+    public void setSessions(SessionConfig sessions) {
+        this.sessions = sessions;
+    }
+
+    public SessionConfig getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Session carried by the connections of this client, null until one is connected with sessions enabled.
+     */
+    public Session getSession() {
+        return session;
     }
 
     public void addMessagingClientListener(MessagingClientListener listener) {
@@ -42,19 +245,90 @@ public class MessagingClient implements MessagingConnectionListener {
     }
 
     public void connect(String host, int port) throws IOException {
+        connect(Transports.tcp(), InetSocketAddress.createUnresolved(host, port));
+    }
+
+    /**
+     * Connects through the transport, for example to a Unix domain socket file.
+     *
+     * @see Transports
+     */
+    public void connect(Transport transport, SocketAddress address) throws IOException {
+        if (connection != null && connection.isOpened()) {
+            throw new IOException("connection is already opened");
+        }
+
+        try {
+            start(new MessagingConnection(transport, address));
+        } catch (IOException ex) {
+            dispatchClientMessagingConnectionError(exception = ex);
+        }
+    }
+
+    /**
+     * Connects to the server started locally under the given name in this JVM.
+     *
+     * @see MessagingConnection#connectLocal(String)
+     */
+    public void connectLocal(String name) throws IOException {
         if (connection != null && connection.isOpened()) {
             throw new IOException("connection is already opened");
         }
 
         try {
-            connection = new MessagingConnection(host, port);
-            connection.addMessagingConnectionListener(this);
-            connection.start();
+            start(MessagingConnection.connectLocal(name));
         } catch (IOException ex) {
             dispatchClientMessagingConnectionError(exception = ex);
         }
     }
 
+    private void start(MessagingConnection connection) {
+        this.connection = connection;
+        connection.addMessagingConnectionListener(this);
+        configure(connection);
+        if (sessions != null) {
+            if (session == null || session.isClosed()) {
+                session = new Session(sessions);
+            }
+            connection.setSession(session);
+        }
+        connection.start();
+    }
+
+    /**
+     * Applies the settings of this client to a connection about to be started.
+     */
+    protected void configure(MessagingConnection connection) {
+        connection.setBufferPool(bufferPool);
+        connection.setDispatchExecutor(dispatchExecutor);
+        connection.setMetrics(metrics);
+        connection.setCompression(compression);
+        connection.setFrameSpool(frameSpool);
+        connection.setFragmentSize(fragmentSize);
+        connection.setMaxReassemblyBytes(maxReassemblyBytes);
+        connection.setMaxFrameSize(maxFrameSize);
+        connection.setMaxInboundBytes(maxInboundBytes);
+        connection.setInboundBudget(inboundBudget);
+        connection.setHeartbeat(heartbeat);
+        connection.setConnectionExecutor(connectionExecutor);
+    }
+
+    protected void setException(Throwable exception) {
+        this.exception = exception;
+    }
+
+    /**
+     * @see MessagingConnection#request(Message, long)
+     */
+    public CompletableFuture<MessageData> request(Message message, long timeoutMillis) {
+        if (connection == null || !connection.isOpened()) {
+            final CompletableFuture<MessageData> future = new CompletableFuture<>();
+            future.completeExceptionally(new IOException("attempt to send request via closed connection " + message));
+            return future;
+        }
+        return connection.request(message, timeoutMillis);
+    }
+
     public Throwable getException() {
         return exception;
     }
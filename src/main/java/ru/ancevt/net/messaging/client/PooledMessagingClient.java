@@ -0,0 +1,374 @@
+package ru.ancevt.net.messaging.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import ru.ancevt.net.messaging.Log;
+import ru.ancevt.net.messaging.MessagingConnection;
+import ru.ancevt.net.messaging.MessagingConnectionListener;
+import ru.ancevt.net.messaging.Session;
+import ru.ancevt.net.messaging.exec.ConnectionExecutor;
+import ru.ancevt.net.messaging.exec.ConnectionExecutors;
+import ru.ancevt.net.messaging.message.Message;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.transport.Transport;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Client keeping several connections to each of its servers and spreading messages over the open ones. Every message
+ * goes to the least loaded connection, the one with the fewest requests waiting for responses and frames waiting to
+ * be written; ties are broken round robin.
+ * <p>
+ * A connection that closes or fails to open is reopened after a {@link Backoff} delay growing with every failed
+ * attempt in a row, while the other connections keep serving. Each {@link #connect(String, int)} adds a server.
+ * <p>
+ * Listeners added with {@link #addMessagingConnectionListener(MessagingConnectionListener)} get the events of every
+ * pooled connection, reopened ones included. Messages sent through different connections may arrive out of order.
+ * With {@link #setSessions sessions} enabled every pooled connection has a session of its own, resumed when it is
+ * reopened.
+ *
+ * @author ancevt
+ */
+public class PooledMessagingClient extends MessagingClient implements Closeable {
+
+    public static final int DEFAULT_CONNECTIONS_PER_SERVER = 4;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private static final AtomicInteger idCounter = new AtomicInteger();
+
+    private final int connectionsPerServer;
+    private final List<Slot> slots;
+    private final List<MessagingConnectionListener> connectionListeners;
+    private final AtomicInteger nextSlot;
+    private final ScheduledThreadPoolExecutor reconnectTimer;
+    private volatile Backoff backoff;
+    private volatile int connectTimeoutMillis;
+    private volatile boolean closed;
+
+    public PooledMessagingClient() {
+        this(DEFAULT_CONNECTIONS_PER_SERVER);
+    }
+
+    public PooledMessagingClient(int connectionsPerServer) {
+        this(connectionsPerServer, ConnectionExecutors.platformThreads());
+    }
+
+    /**
+     * @param connectionsPerServer number of connections to open to every server
+     * @param connectionExecutor   executor running the read loops of the connections
+     */
+    public PooledMessagingClient(int connectionsPerServer, ConnectionExecutor connectionExecutor) {
+        super(connectionExecutor);
+        if (connectionsPerServer < 1) {
+            throw new IllegalArgumentException("connectionsPerServer must be positive: " + connectionsPerServer);
+        }
+        this.connectionsPerServer = connectionsPerServer;
+        this.slots = new CopyOnWriteArrayList<>();
+        this.connectionListeners = new CopyOnWriteArrayList<>();
+        this.nextSlot = new AtomicInteger();
+        this.backoff = new Backoff();
+        this.connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+        final String threadName = "PooledMessagingClient-" + idCounter.incrementAndGet() + "-reconnect";
+        // connecting blocks, so a server that does not answer should not hold up the others for long
+        reconnectTimer = new ScheduledThreadPoolExecutor(connectionsPerServer, runnable -> {
+            final Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconnectTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    public int getConnectionsPerServer() {
+        return connectionsPerServer;
+    }
+
+    public void setBackoff(Backoff backoff) {
+        this.backoff = backoff;
+    }
+
+    public Backoff getBackoff() {
+        return backoff;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void addMessagingConnectionListener(MessagingConnectionListener listener) {
+        connectionListeners.add(listener);
+        for (Slot slot : slots) {
+            final MessagingConnection connection = slot.connection;
+            if (connection != null) {
+                connection.addMessagingConnectionListener(listener);
+            }
+        }
+    }
+
+    public void removeMessagingConnectionListener(MessagingConnectionListener listener) {
+        connectionListeners.remove(listener);
+        for (Slot slot : slots) {
+            final MessagingConnection connection = slot.connection;
+            if (connection != null) {
+                connection.removeMessagingConnectionListener(listener);
+            }
+        }
+    }
+
+    /**
+     * Adds the server to the pool and opens its connections. The ones that fail to open are reported to the
+     * {@link MessagingClientListener}s and retried in the background.
+     */
+    @Override
+    public void connect(Transport transport, SocketAddress address) throws IOException {
+        if (closed) {
+            throw new IOException("client is closed " + this);
+        }
+        final List<Slot> added = new ArrayList<>(connectionsPerServer);
+        for (int i = 0; i < connectionsPerServer; i++) {
+            added.add(new Slot(transport, address));
+        }
+        slots.addAll(added);
+        for (Slot slot : added) {
+            slot.open();
+        }
+    }
+
+    /**
+     * Sends the message through the least loaded open connection. If that one turns out to be closed already, the
+     * next one is tried.
+     *
+     * @throws IOException if no connection is open
+     */
+    public void send(Message message) throws IOException {
+        IOException failure = null;
+        for (int i = 0; i < slots.size(); i++) {
+            final MessagingConnection connection = choose();
+            if (connection == null) {
+                break;
+            }
+            try {
+                connection.send(message);
+                return;
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+        throw failure != null ? failure : new IOException("No open connection to send " + message + " " + this);
+    }
+
+    /**
+     * Sends the request through the least loaded open connection. The response comes back through the same one.
+     */
+    @Override
+    public CompletableFuture<MessageData> request(Message message, long timeoutMillis) {
+        final MessagingConnection connection = choose();
+        if (connection == null) {
+            final CompletableFuture<MessageData> future = new CompletableFuture<>();
+            future.completeExceptionally(new IOException("No open connection to send request " + message + " " + this));
+            return future;
+        }
+        return connection.request(message, timeoutMillis);
+    }
+
+    /**
+     * @return the least loaded open connection, null if none is open
+     */
+    @Override
+    public MessagingConnection getConnection() {
+        return choose();
+    }
+
+    public List<MessagingConnection> getConnections() {
+        final List<MessagingConnection> result = new ArrayList<>(slots.size());
+        for (Slot slot : slots) {
+            final MessagingConnection connection = slot.connection;
+            if (connection != null && connection.isOpened()) {
+                result.add(connection);
+            }
+        }
+        return result;
+    }
+
+    public int getOpenConnectionCount() {
+        int count = 0;
+        for (Slot slot : slots) {
+            final MessagingConnection connection = slot.connection;
+            if (connection != null && connection.isOpened()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private MessagingConnection choose() {
+        final int size = slots.size();
+        final int start = nextSlot.getAndIncrement();
+        MessagingConnection best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            final MessagingConnection connection = slots.get(Math.floorMod(start + i, size)).connection;
+            if (connection == null || !connection.isOpened()) {
+                continue;
+            }
+            final int load = connection.getPendingRequestCount() + connection.getOutboundQueueSize();
+            if (load < bestLoad) {
+                best = connection;
+                bestLoad = load;
+                if (load == 0) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void connectionOpened(MessagingConnection connection) {
+        super.connectionOpened(connection);
+        for (Slot slot : slots) {
+            if (slot.connection == connection) {
+                // only a connection that got this far ends the backoff, a session handshake included
+                slot.failures.set(0);
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void connectionClosed(MessagingConnection connection, Throwable exception) {
+        super.connectionClosed(connection, exception);
+        for (Slot slot : slots) {
+            if (slot.connection == connection) {
+                slot.scheduleReconnect();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Closes every connection and stops reconnecting.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        reconnectTimer.shutdownNow();
+        for (Slot slot : slots) {
+            slot.close();
+        }
+        slots.clear();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * One of the connections to a server, reopened whenever it is lost.
+     */
+    private final class Slot {
+
+        private final Transport transport;
+        private final SocketAddress address;
+        private final AtomicInteger failures;
+        private volatile MessagingConnection connection;
+        private volatile SocketChannel channel;
+        private volatile Session session;
+
+        private Slot(Transport transport, SocketAddress address) {
+            this.transport = transport;
+            this.address = address;
+            this.failures = new AtomicInteger();
+        }
+
+        private void open() {
+            if (closed) {
+                return;
+            }
+            final SocketChannel channel;
+            try {
+                channel = transport.connect(address, connectTimeoutMillis);
+            } catch (IOException ex) {
+                setException(ex);
+                dispatchClientMessagingConnectionError(ex);
+                scheduleReconnect();
+                return;
+            }
+
+            final MessagingConnection opened = new MessagingConnection(channel);
+            opened.addMessagingConnectionListener(PooledMessagingClient.this);
+            for (MessagingConnectionListener listener : connectionListeners) {
+                opened.addMessagingConnectionListener(listener);
+            }
+            configure(opened);
+            if (getSessions() != null) {
+                if (session == null || session.isClosed()) {
+                    session = new Session(getSessions());
+                }
+                opened.setSession(session);
+            }
+            this.channel = channel;
+            connection = opened;
+            opened.start();
+            if (closed) {
+                close();
+            }
+        }
+
+        private void scheduleReconnect() {
+            if (closed) {
+                return;
+            }
+            final long delay = backoff.getDelayMillis(failures.getAndIncrement());
+            Log.logger.info("Reconnecting to " + transport + ":" + address + " in " + delay + " ms");
+            try {
+                reconnectTimer.schedule(this::open, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                // closed meanwhile
+            }
+        }
+
+        private void close() {
+            final MessagingConnection current = connection;
+            if (current != null) {
+                try {
+                    current.close();
+                } catch (IOException ex) {
+                    // closed by the peer meanwhile, or not opened yet
+                }
+                try {
+                    // one not opened yet fails its first read and cleans up then
+                    channel.close();
+                } catch (IOException ex) {
+                    Log.err(ex, ex);
+                }
+            }
+            if (session != null) {
+                session.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("connectionsPerServer", connectionsPerServer)
+            .append("slots", slots.size())
+            .append("openConnections", getOpenConnectionCount())
+            .append("closed", closed)
+            .build();
+    }
+}
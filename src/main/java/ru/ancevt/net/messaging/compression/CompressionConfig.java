@@ -0,0 +1,85 @@
+package ru.ancevt.net.messaging.compression;
+
+import java.util.zip.Deflater;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Settings of frame compression. Both peers must use the same dictionary; the threshold and the level only matter to
+ * the sending side.
+ *
+ * @author ancevt
+ */
+public final class CompressionConfig {
+
+    public static final int DEFAULT_THRESHOLD = 1024;
+    public static final int DEFAULT_MAX_INFLATED_SIZE = 16 * 1024 * 1024;
+
+    private final int threshold;
+    private final int level;
+    private final byte[] dictionary;
+    private final int maxInflatedSize;
+
+    public CompressionConfig() {
+        this(DEFAULT_THRESHOLD, Deflater.DEFAULT_COMPRESSION, null);
+    }
+
+    /**
+     * @param threshold  payloads shorter than this many bytes are sent raw
+     * @param level      deflate level from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param dictionary preset dictionary, typically fragments that frequently occur in payloads, null for none
+     */
+    public CompressionConfig(int threshold, int level, byte[] dictionary) {
+        this(threshold, level, dictionary, DEFAULT_MAX_INFLATED_SIZE);
+    }
+
+    /**
+     * @param maxInflatedSize largest payload a compressed frame may claim to expand to; frames claiming more are
+     *                        rejected before anything is allocated, as are frames that would exceed the maximum frame
+     *                        size of the receiving connection
+     */
+    public CompressionConfig(int threshold, int level, byte[] dictionary, int maxInflatedSize) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative: " + threshold);
+        }
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        if (maxInflatedSize < 0) {
+            throw new IllegalArgumentException("maxInflatedSize must not be negative: " + maxInflatedSize);
+        }
+        this.threshold = threshold;
+        this.level = level;
+        this.dictionary = dictionary != null ? dictionary.clone() : null;
+        this.maxInflatedSize = maxInflatedSize;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public byte[] getDictionary() {
+        return dictionary != null ? dictionary.clone() : null;
+    }
+
+    byte[] dictionary() {
+        return dictionary;
+    }
+
+    public int getMaxInflatedSize() {
+        return maxInflatedSize;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("threshold", threshold)
+            .append("level", level)
+            .append("dictionaryLength", dictionary != null ? dictionary.length : 0)
+            .append("maxInflatedSize", maxInflatedSize)
+            .build();
+    }
+}
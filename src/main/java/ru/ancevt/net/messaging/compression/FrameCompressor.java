@@ -0,0 +1,139 @@
+package ru.ancevt.net.messaging.compression;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import ru.ancevt.net.messaging.buffer.BufferPool;
+import ru.ancevt.net.messaging.message.Message;
+import ru.ancevt.net.messaging.message.MessageData;
+
+/**
+ * Deflates frame payloads, reusing one {@link Deflater}. A compressed frame carries
+ * {@link Message#COMPRESSED_SIGNATURE} instead of the usual signature, so peers tell both kinds apart frame by frame:
+ * <pre>
+ *  1 b - signature 0xFE
+ *  4 b - size of the compressed frame
+ *  4 b - reqId
+ *  4 b - length of the inflated payload
+ *  n b - zlib stream
+ * </pre>
+ * Compression may be called from any thread. Frames are inflated by a {@link FrameDecompressor}.
+ *
+ * @author ancevt
+ */
+public final class FrameCompressor implements Closeable {
+
+    static final int LENGTH_SIZE = 4;
+    static final int MAX_SCRATCH_SIZE = 1024 * 1024;
+
+    private final CompressionConfig config;
+    private final Deflater deflater;
+    private byte[] deflateInput;
+    private byte[] deflateOutput;
+    private boolean closed;
+
+    public FrameCompressor(CompressionConfig config) {
+        this.config = config;
+        deflater = new Deflater(config.getLevel());
+    }
+
+    public CompressionConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return compressed copy of the frame, or null if the frame is below the threshold, already compressed, would
+     *         not get any smaller, or the compressor is closed
+     */
+    public MessageData compress(MessageData frame, BufferPool bufferPool) {
+        final int payloadLength = frame.length() - Message.HEADERS_SIZE;
+        if (payloadLength < config.getThreshold() || payloadLength <= LENGTH_SIZE || frame.isCompressed()) {
+            return null;
+        }
+
+        synchronized (deflater) {
+            if (closed) {
+                return null;
+            }
+            try {
+                return deflate(frame, payloadLength, bufferPool);
+            } finally {
+                releaseLargeScratch();
+            }
+        }
+    }
+
+    private MessageData deflate(MessageData frame, int payloadLength, BufferPool bufferPool) {
+        final ByteBuffer source = frame.buffer();
+        final byte[] input;
+        final int inputOffset;
+        if (source.hasArray()) {
+            input = source.array();
+            inputOffset = source.arrayOffset() + Message.HEADERS_SIZE;
+        } else {
+            input = deflateInput = scratch(deflateInput, payloadLength);
+            inputOffset = 0;
+            source.position(Message.HEADERS_SIZE);
+            source.get(input, 0, payloadLength);
+        }
+
+        deflater.reset();
+        if (config.dictionary() != null) {
+            deflater.setDictionary(config.dictionary());
+        }
+        deflater.setInput(input, inputOffset, payloadLength);
+        deflater.finish();
+
+        // anything not shorter than the raw payload is not worth sending
+        final int limit = payloadLength - LENGTH_SIZE - 1;
+        final byte[] output = deflateOutput = scratch(deflateOutput, payloadLength);
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length > limit) {
+                return null;
+            }
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        if (length > limit) {
+            return null;
+        }
+
+        final int frameLength = Message.HEADERS_SIZE + LENGTH_SIZE + length;
+        final MessageData compressed = MessageData.allocate(bufferPool, frameLength);
+        final ByteBuffer target = compressed.buffer();
+        MessageData.writeHeaders(target, frameLength, frame.getRequestId());
+        target.put(0, (byte) Message.COMPRESSED_SIGNATURE);
+        target.putInt(payloadLength);
+        target.put(output, 0, length);
+        return compressed;
+    }
+
+    static byte[] scratch(byte[] current, int length) {
+        return current != null && current.length >= length ? current : new byte[length];
+    }
+
+    /**
+     * Keeps occasional huge payloads from pinning equally huge scratch arrays.
+     */
+    private void releaseLargeScratch() {
+        if (deflateInput != null && deflateInput.length > MAX_SCRATCH_SIZE) {
+            deflateInput = null;
+        }
+        if (deflateOutput != null && deflateOutput.length > MAX_SCRATCH_SIZE) {
+            deflateOutput = null;
+        }
+    }
+
+    /**
+     * Frees the native memory of the deflater. Frames compressed from then on are sent raw.
+     */
+    @Override
+    public void close() {
+        synchronized (deflater) {
+            if (!closed) {
+                closed = true;
+                deflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package ru.ancevt.net.messaging.compression;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import ru.ancevt.net.messaging.buffer.BufferPool;
+import ru.ancevt.net.messaging.message.Message;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.message.MessagingException;
+
+/**
+ * Inflates frames compressed by a {@link FrameCompressor}, reusing one {@link Inflater}. Meant for the single thread
+ * reading a connection and not synchronized.
+ *
+ * @author ancevt
+ */
+public final class FrameDecompressor implements Closeable {
+
+    private final CompressionConfig config;
+    private final int maxPayloadLength;
+    private final Inflater inflater;
+    private final byte[] probe;
+    private byte[] inflateInput;
+
+    public FrameDecompressor(CompressionConfig config) {
+        this(config, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxFrameSize largest frame, headers included, a compressed frame may inflate to, on top of
+     *                     {@link CompressionConfig#getMaxInflatedSize()}
+     */
+    public FrameDecompressor(CompressionConfig config, int maxFrameSize) {
+        if (maxFrameSize < Message.HEADERS_SIZE) {
+            throw new IllegalArgumentException("maxFrameSize must be at least " + Message.HEADERS_SIZE + ": " + maxFrameSize);
+        }
+        this.config = config;
+        maxPayloadLength = Math.min(config.getMaxInflatedSize(), maxFrameSize - Message.HEADERS_SIZE);
+        inflater = new Inflater();
+        probe = new byte[1];
+    }
+
+    public CompressionConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return inflated copy of a compressed frame, to be released by the caller
+     * @throws MessagingException if the frame is malformed or expands beyond the configured limits
+     */
+    public MessageData decompress(MessageData frame, BufferPool bufferPool) {
+        final ByteBuffer source = frame.buffer();
+        if (frame.length() < Message.HEADERS_SIZE + FrameCompressor.LENGTH_SIZE) {
+            throw new MessagingException("Compressed frame is too short: " + frame.length());
+        }
+        final int payloadLength = source.getInt(Message.HEADERS_SIZE);
+        if (payloadLength < 0 || payloadLength > maxPayloadLength) {
+            throw new MessagingException("Invalid inflated length " + payloadLength);
+        }
+
+        final int compressedLength = frame.length() - Message.HEADERS_SIZE - FrameCompressor.LENGTH_SIZE;
+        final byte[] input;
+        final int inputOffset;
+        if (source.hasArray()) {
+            input = source.array();
+            inputOffset = source.arrayOffset() + Message.HEADERS_SIZE + FrameCompressor.LENGTH_SIZE;
+        } else {
+            input = inflateInput = FrameCompressor.scratch(inflateInput, compressedLength);
+            inputOffset = 0;
+            source.position(Message.HEADERS_SIZE + FrameCompressor.LENGTH_SIZE);
+            source.get(input, 0, compressedLength);
+        }
+
+        final int frameLength = Message.HEADERS_SIZE + payloadLength;
+        final MessageData inflated = MessageData.allocate(bufferPool, frameLength);
+        try {
+            final ByteBuffer target = inflated.buffer();
+            MessageData.writeHeaders(target, frameLength, frame.getRequestId());
+
+            final byte[] output;
+            final int outputOffset;
+            if (target.hasArray()) {
+                output = target.array();
+                outputOffset = target.arrayOffset() + Message.HEADERS_SIZE;
+            } else {
+                output = new byte[payloadLength];
+                outputOffset = 0;
+            }
+
+            inflater.reset();
+            inflater.setInput(input, inputOffset, compressedLength);
+            int length = 0;
+            while (length < payloadLength) {
+                final int count = inflater.inflate(output, outputOffset + length, payloadLength - length);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (config.dictionary() == null) {
+                            throw new MessagingException("Compressed frame needs a preset dictionary");
+                        }
+                        inflater.setDictionary(config.dictionary());
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        break;
+                    }
+                }
+                length += count;
+            }
+            if (length == payloadLength && !inflater.finished() && inflater.inflate(probe) > 0) {
+                // the stream is longer than announced
+                length++;
+            }
+            if (length != payloadLength || !inflater.finished()) {
+                throw new MessagingException("Corrupted compressed frame, inflated " + length + " of " + payloadLength);
+            }
+
+            if (!target.hasArray()) {
+                target.put(output, 0, payloadLength);
+            }
+            if (input == inflateInput && input.length > FrameCompressor.MAX_SCRATCH_SIZE) {
+                inflateInput = null;
+            }
+            return inflated;
+        } catch (DataFormatException ex) {
+            inflated.release();
+            throw new MessagingException("Corrupted compressed frame: " + ex.getMessage());
+        } catch (MessagingException ex) {
+            inflated.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Frees the native memory of the inflater.
+     */
+    @Override
+    public void close() {
+        inflater.end();
+    }
+}
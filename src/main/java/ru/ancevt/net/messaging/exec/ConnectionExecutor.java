@@ -0,0 +1,24 @@
+package ru.ancevt.net.messaging.exec;
+
+import java.io.Closeable;
+
+/**
+ * Runs the read loops of blocking connections. Each loop occupies its thread for the whole life of the connection.
+ *
+ * @author ancevt
+ * @see ConnectionExecutors
+ */
+public interface ConnectionExecutor extends Closeable {
+
+    /**
+     * @param readLoop read loop of a connection, returns when the connection is closed
+     * @param name     name for the thread running the loop
+     */
+    void execute(Runnable readLoop, String name);
+
+    /**
+     * Stops taking new connections. Loops already running are not interrupted.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,124 @@
+package ru.ancevt.net.messaging.exec;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import ru.ancevt.net.messaging.Log;
+
+/**
+ * Factories of {@link ConnectionExecutor}s.
+ *
+ * @author ancevt
+ */
+public final class ConnectionExecutors {
+
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY = createVirtualThreadFactory();
+
+    private ConnectionExecutors() {
+    }
+
+    /**
+     * New platform thread per connection.
+     */
+    public static ConnectionExecutor platformThreads() {
+        return new ThreadFactoryExecutor(Thread::new);
+    }
+
+    /**
+     * At most {@code maxThreads} connections are served at a time; read loops of further connections wait in a queue
+     * until one of the running connections closes.
+     */
+    public static ConnectionExecutor boundedPool(int maxThreads) {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("maxThreads must be positive: " + maxThreads);
+        }
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return new ExecutorServiceExecutor(executor);
+    }
+
+    /**
+     * New virtual thread per connection. Falls back to {@link #platformThreads()} on runtimes without virtual
+     * threads (before Java 21, or Java 19-20 without --enable-preview).
+     */
+    public static ConnectionExecutor virtualThreads() {
+        if (VIRTUAL_THREAD_FACTORY == null) {
+            Log.logger.warn("Virtual threads are not supported by this runtime, using platform threads");
+            return platformThreads();
+        }
+        return new ThreadFactoryExecutor(VIRTUAL_THREAD_FACTORY);
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        return VIRTUAL_THREAD_FACTORY != null;
+    }
+
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    private static class ThreadFactoryExecutor implements ConnectionExecutor {
+
+        private final ThreadFactory threadFactory;
+        private volatile boolean closed;
+
+        private ThreadFactoryExecutor(ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory;
+        }
+
+        @Override
+        public void execute(Runnable readLoop, String name) {
+            if (closed) {
+                throw new IllegalStateException("ConnectionExecutor is closed");
+            }
+            final Thread thread = threadFactory.newThread(readLoop);
+            thread.setName(name);
+            thread.start();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static class ExecutorServiceExecutor implements ConnectionExecutor {
+
+        private final ExecutorService executorService;
+
+        private ExecutorServiceExecutor(ExecutorService executorService) {
+            this.executorService = executorService;
+        }
+
+        @Override
+        public void execute(Runnable readLoop, String name) {
+            executorService.execute(() -> {
+                final Thread thread = Thread.currentThread();
+                final String poolName = thread.getName();
+                thread.setName(name);
+                try {
+                    readLoop.run();
+                } finally {
+                    thread.setName(poolName);
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            executorService.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,11 @@
+package ru.ancevt.net.messaging.exec;
+
+/**
+ * Task that must free its resources when it is discarded instead of being run.
+ *
+ * @author ancevt
+ */
+public interface DiscardableTask extends Runnable {
+
+    void discard();
+}
@@ -0,0 +1,307 @@
+package ru.ancevt.net.messaging.exec;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import ru.ancevt.net.messaging.Log;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Timer for great numbers of short tasks that are mostly cancelled before they run, such as request and idle
+ * timeouts. Timeouts are hashed into a wheel of buckets by their deadlines; one thread advances the wheel every tick
+ * and runs the tasks of the bucket it reaches. Scheduling and cancelling are constant time and lock free, at the
+ * price of tasks running up to a tick late.
+ * <p>
+ * Tasks run on the timer thread, one after another, so they must be quick and must not block.
+ *
+ * @author ancevt
+ */
+public final class HashedWheelTimer implements Closeable {
+
+    public static final long DEFAULT_TICK_MILLIS = 10;
+    public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private static volatile HashedWheelTimer shared;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> added;
+    private final Queue<Timeout> cancelled;
+    private final AtomicLong pendingCount;
+    private final long startNanos;
+    private final Thread worker;
+    private volatile boolean closed;
+    private long tick;
+
+    public HashedWheelTimer(String threadName) {
+        this(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL, threadName);
+    }
+
+    /**
+     * @param ticksPerWheel number of buckets, rounded up to a power of two
+     */
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel, String threadName) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+            throw new IllegalArgumentException("Invalid wheel " + tickDuration + " " + unit + " x " + ticksPerWheel);
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = wheel.length - 1;
+        this.added = new ConcurrentLinkedQueue<>();
+        this.cancelled = new ConcurrentLinkedQueue<>();
+        this.pendingCount = new AtomicLong();
+        this.startNanos = System.nanoTime();
+
+        worker = new Thread(this::run, threadName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Timer shared by all connections of the process, created on first use. It is never closed.
+     */
+    public static HashedWheelTimer shared() {
+        HashedWheelTimer timer = shared;
+        if (timer == null) {
+            synchronized (HashedWheelTimer.class) {
+                timer = shared;
+                if (timer == null) {
+                    shared = timer = new HashedWheelTimer("MessagingConnection-timer");
+                }
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * @throws RejectedExecutionException if the timer is closed
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (closed) {
+            throw new RejectedExecutionException("Timer is closed");
+        }
+        final Timeout timeout = new Timeout(this, task, System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay)));
+        pendingCount.incrementAndGet();
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return number of timeouts neither expired nor cancelled yet
+     */
+    public long getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * Stops the timer thread. Pending timeouts never run.
+     */
+    @Override
+    public void close() {
+        if (this == shared) {
+            throw new IllegalStateException("The shared timer is not to be closed");
+        }
+        closed = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (!closed) {
+            if (!waitForNextTick()) {
+                break;
+            }
+            removeCancelled();
+            transferAdded();
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    /**
+     * @return false if interrupted by closing
+     */
+    private boolean waitForNextTick() {
+        final long deadline = tickNanos * (tick + 1);
+        for (;;) {
+            final long now = System.nanoTime() - startNanos;
+            final long sleepMillis = (deadline - now + 999_999) / 1_000_000;
+            if (sleepMillis <= 0) {
+                return true;
+            }
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException ex) {
+                if (closed) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private void transferAdded() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            final Timeout timeout = added.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state != Timeout.INIT) {
+                continue;
+            }
+            final long calculated = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (calculated - tick) / wheel.length;
+            // already late ones go to the current bucket
+            wheel[(int) (Math.max(calculated, tick) & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void expire(Bucket bucket) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            final Timeout next = timeout.next;
+            if (timeout.state == Timeout.CANCELLED) {
+                bucket.remove(timeout);
+            } else if (timeout.remainingRounds <= 0) {
+                // the deadline falls within the tick that has just passed
+                bucket.remove(timeout);
+                timeout.expire();
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public static final class Timeout {
+
+        private static final int INIT = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE
+            = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state;
+
+        // owned by the timer thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return false if the task has already run or been cancelled
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, INIT, CANCELLED)) {
+                return false;
+            }
+            timer.pendingCount.decrementAndGet();
+            timer.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, INIT, EXPIRED)) {
+                return;
+            }
+            timer.pendingCount.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable ex) {
+                Log.err("Timer task " + task + " failed", ex);
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of the timeouts hashed into one slot of the wheel, touched by the timer thread only.
+     */
+    private static final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("tickNanos", tickNanos)
+            .append("ticksPerWheel", wheel.length)
+            .append("pendingCount", pendingCount.get())
+            .build();
+    }
+}
@@ -0,0 +1,270 @@
+package ru.ancevt.net.messaging.exec;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import ru.ancevt.net.messaging.Log;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Fixed set of worker threads, each draining its own queue (stripe). Tasks submitted with the same key always land
+ * in the same stripe and therefore run one at a time in submission order, while tasks of different keys run in
+ * parallel.
+ * <p>
+ * Stripe queues are bounded; what happens to a task that does not fit is decided by the {@link OverflowPolicy}.
+ * Mandatory tasks are never rejected and do not count against the bound.
+ *
+ * @author ancevt
+ */
+public class OrderedExecutor implements Closeable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private final Stripe[] stripes;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicLong discardedCount;
+    private volatile boolean closed;
+
+    public OrderedExecutor(int threads) {
+        this(threads, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    public OrderedExecutor(int threads, int queueCapacity, OverflowPolicy overflowPolicy) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.discardedCount = new AtomicLong();
+
+        stripes = new Stripe[threads];
+        for (int i = 0; i < threads; i++) {
+            stripes[i] = new Stripe("OrderedExecutor-" + i);
+        }
+        for (Stripe stripe : stripes) {
+            stripe.thread.start();
+        }
+    }
+
+    public int getThreads() {
+        return stripes.length;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Number of tasks discarded because of overflow since the executor was created.
+     */
+    public long getDiscardedCount() {
+        return discardedCount.get();
+    }
+
+    /**
+     * Total number of tasks waiting in all stripes.
+     */
+    public int getQueuedCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            count += stripe.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return false if the task was discarded according to {@link OverflowPolicy#DROP_NEWEST}
+     * @throws RejectedExecutionException if the executor is closed or the policy is {@link OverflowPolicy#FAIL}
+     */
+    public boolean execute(Object key, Runnable task) {
+        return stripe(key).offer(task, false);
+    }
+
+    /**
+     * Queues the task regardless of the bound, for events that must not be lost, like a connection being closed.
+     */
+    public void executeMandatory(Object key, Runnable task) {
+        stripe(key).offer(task, true);
+    }
+
+    private Stripe stripe(Object key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return stripes[Math.floorMod(hash, stripes.length)];
+    }
+
+    private void discard(Runnable task) {
+        discardedCount.incrementAndGet();
+        if (task instanceof DiscardableTask) {
+            ((DiscardableTask) task).discard();
+        }
+    }
+
+    /**
+     * Lets the workers finish the queued tasks and stop.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Stripe stripe : stripes) {
+            stripe.wakeUp();
+        }
+    }
+
+    private static final class Entry {
+
+        private final Runnable task;
+        private final boolean mandatory;
+
+        private Entry(Runnable task, boolean mandatory) {
+            this.task = task;
+            this.mandatory = mandatory;
+        }
+    }
+
+    private final class Stripe implements Runnable {
+
+        private final Thread thread;
+        private final ReentrantLock lock;
+        private final Condition notEmpty;
+        private final Condition notFull;
+        private final ArrayDeque<Entry> entries;
+        private int boundedCount;
+
+        private Stripe(String name) {
+            thread = new Thread(this, name);
+            lock = new ReentrantLock();
+            notEmpty = lock.newCondition();
+            notFull = lock.newCondition();
+            entries = new ArrayDeque<>();
+        }
+
+        private int size() {
+            lock.lock();
+            try {
+                return entries.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean offer(Runnable task, boolean mandatory) {
+            Runnable discarded = null;
+
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new RejectedExecutionException("OrderedExecutor is closed");
+                }
+
+                if (!mandatory) {
+                    while (boundedCount >= queueCapacity) {
+                        switch (overflowPolicy) {
+                            case BLOCK:
+                                notFull.awaitUninterruptibly();
+                                if (closed) {
+                                    throw new RejectedExecutionException("OrderedExecutor is closed");
+                                }
+                                continue;
+                            case DROP_NEWEST:
+                                discarded = task;
+                                return false;
+                            case DROP_OLDEST:
+                                discarded = removeOldestBounded();
+                                continue;
+                            default:
+                                throw new RejectedExecutionException("Queue of " + thread.getName() + " is full");
+                        }
+                    }
+                    boundedCount++;
+                }
+
+                entries.add(new Entry(task, mandatory));
+                notEmpty.signal();
+                return true;
+            } finally {
+                lock.unlock();
+                if (discarded != null) {
+                    discard(discarded);
+                }
+            }
+        }
+
+        private Runnable removeOldestBounded() {
+            final Iterator<Entry> iterator = entries.iterator();
+            while (iterator.hasNext()) {
+                final Entry entry = iterator.next();
+                if (!entry.mandatory) {
+                    iterator.remove();
+                    boundedCount--;
+                    return entry.task;
+                }
+            }
+            return null;
+        }
+
+        private void wakeUp() {
+            lock.lock();
+            try {
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            for (;;) {
+                final Entry entry;
+
+                lock.lock();
+                try {
+                    while (entries.isEmpty()) {
+                        if (closed) {
+                            return;
+                        }
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    entry = entries.poll();
+                    if (!entry.mandatory) {
+                        boundedCount--;
+                        notFull.signal();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                try {
+                    entry.task.run();
+                } catch (RuntimeException ex) {
+                    Log.err(ex, ex);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("threads", getThreads())
+            .append("queueCapacity")
+            .append("overflowPolicy")
+            .append("queuedCount", getQueuedCount())
+            .append("discardedCount", getDiscardedCount())
+            .build();
+    }
+
+}
@@ -0,0 +1,31 @@
+package ru.ancevt.net.messaging.exec;
+
+/**
+ * What {@link OrderedExecutor} does with a task whose stripe queue is full.
+ *
+ * @author ancevt
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Submitting thread waits for a free slot. Applied to a connection's reader it stops reading the socket, so the
+     * peer is slowed down by TCP flow control. On an event loop it pauses all connections of that loop.
+     */
+    BLOCK,
+
+    /**
+     * The new task is discarded.
+     */
+    DROP_NEWEST,
+
+    /**
+     * The oldest waiting task of the stripe is discarded to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * {@link java.util.concurrent.RejectedExecutionException} is thrown to the submitting thread; a connection treats
+     * it as a failure and closes.
+     */
+    FAIL
+}
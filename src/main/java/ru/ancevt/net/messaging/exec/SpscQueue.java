@@ -0,0 +1,100 @@
+package ru.ancevt.net.messaging.exec;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue for exactly one producer and one consumer at a time. Elements live in a ring; the producer
+ * only writes the tail index and the consumer only the head one, and each side caches the index of the other, so an
+ * offer or a poll touches shared memory only when the cached index says the ring looks full or empty.
+ * <p>
+ * The producer and the consumer may be different threads over time, as long as the hand-over between them is
+ * ordered by some other synchronization.
+ *
+ * @author ancevt
+ */
+public final class SpscQueue<E> {
+
+    private final Object[] ring;
+    private final int mask;
+    // written by the consumer
+    private final AtomicLong head;
+    // written by the producer
+    private final AtomicLong tail;
+    // owned by the producer
+    private long headCache;
+    // owned by the consumer
+    private long tailCache;
+
+    /**
+     * @param capacity largest number of elements, rounded up to a power of two
+     */
+    public SpscQueue(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.ring = new Object[size];
+        this.mask = size - 1;
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+    }
+
+    /**
+     * Called by the producer only.
+     *
+     * @return false if the queue is full
+     */
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException("element");
+        }
+        final long index = tail.get();
+        if (index - headCache >= ring.length) {
+            headCache = head.get();
+            if (index - headCache >= ring.length) {
+                return false;
+            }
+        }
+        ring[(int) index & mask] = element;
+        // a volatile write, so that a consumer about to park either sees the element or is seen parking
+        tail.set(index + 1);
+        return true;
+    }
+
+    /**
+     * Called by the consumer only.
+     *
+     * @return the oldest element, null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        final long index = head.get();
+        if (index >= tailCache) {
+            tailCache = tail.get();
+            if (index >= tailCache) {
+                return null;
+            }
+        }
+        final int slot = (int) index & mask;
+        final E element = (E) ring[slot];
+        ring[slot] = null;
+        head.lazySet(index + 1);
+        return element;
+    }
+
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    public int size() {
+        final long currentHead = head.get();
+        return (int) Math.max(0, tail.get() - currentHead);
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+}
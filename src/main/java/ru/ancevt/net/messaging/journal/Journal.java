@@ -0,0 +1,214 @@
+package ru.ancevt.net.messaging.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import ru.ancevt.net.messaging.message.Message;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Append-only log of frames in their wire format, kept in a directory of memory-mapped segment files. Every frame
+ * gets the next sequence number and stays until it is acknowledged; segments whose frames are all acknowledged are
+ * deleted. Frames are read back in place and read only, without a copy on the heap.
+ * <p>
+ * Appended frames survive the process as soon as {@link #append(MessageData)} returns, and the machine once
+ * {@link #sync()} has been called. The acknowledged position is kept in a file of its own and survives the same way.
+ *
+ * @author ancevt
+ */
+public final class Journal implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String ACKNOWLEDGED_FILE = "acknowledged";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final List<Segment> segments;
+    private final MappedByteBuffer acknowledgedPosition;
+    private long acknowledged;
+    private boolean closed;
+
+    public Journal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the journal in the directory, recovering the frames of an earlier one.
+     *
+     * @param segmentSize size of new segment files, which also limits the size of a frame
+     */
+    public Journal(Path directory, int segmentSize) throws IOException {
+        if (segmentSize < Message.HEADERS_SIZE) {
+            throw new IllegalArgumentException("segmentSize is too small: " + segmentSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.segments = new ArrayList<>();
+
+        try (FileChannel channel = FileChannel.open(directory.resolve(ACKNOWLEDGED_FILE),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            acknowledgedPosition = channel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+        }
+        acknowledged = acknowledgedPosition.getLong(0);
+
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + Segment.SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        // names are zero padded sequence numbers
+        Collections.sort(files);
+        for (Path file : files) {
+            segments.add(Segment.open(file));
+        }
+        if (segments.isEmpty()) {
+            segments.add(Segment.create(directory, acknowledged, segmentSize));
+        }
+        acknowledged = Math.max(segments.get(0).firstSequence(), Math.min(acknowledged, getNextSequence()));
+        compact();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Writes the frame at the end of the journal. The frame stays with the caller.
+     *
+     * @return sequence number of the frame
+     */
+    public synchronized long append(MessageData frame) throws IOException {
+        checkOpen();
+        final int frameLength = frame.length();
+        if (frameLength > segmentSize) {
+            throw new IOException("Frame of " + frameLength + " bytes does not fit a journal segment of " + segmentSize);
+        }
+        Segment tail = segments.get(segments.size() - 1);
+        if (!tail.fits(frameLength)) {
+            tail = Segment.create(directory, tail.nextSequence(), segmentSize);
+            segments.add(tail);
+        }
+        final long sequence = tail.nextSequence();
+        tail.append(frame);
+        return sequence;
+    }
+
+    /**
+     * Maps the frame with the given sequence number in place. The caller must {@link MessageData#release()} it; the
+     * segment is not deleted before.
+     *
+     * @return the frame, null if no frame has the number yet
+     * @throws IllegalArgumentException if the frame has been acknowledged and dropped
+     */
+    public synchronized MessageData read(long sequence) throws IOException {
+        checkOpen();
+        if (sequence >= getNextSequence()) {
+            return null;
+        }
+        if (sequence < segments.get(0).firstSequence()) {
+            throw new IllegalArgumentException("Frame " + sequence + " has been dropped from " + this);
+        }
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            final Segment segment = segments.get(i);
+            if (sequence >= segment.firstSequence()) {
+                return segment.read(sequence);
+            }
+        }
+        throw new IllegalStateException("No segment for frame " + sequence);
+    }
+
+    /**
+     * Marks every frame numbered below the given one as delivered and deletes the segments left without others.
+     */
+    public synchronized void acknowledge(long next) throws IOException {
+        checkOpen();
+        if (next <= acknowledged) {
+            return;
+        }
+        acknowledged = Math.min(next, getNextSequence());
+        acknowledgedPosition.putLong(0, acknowledged);
+        compact();
+    }
+
+    private void compact() {
+        // the tail is kept for the frames to come
+        while (segments.size() > 1 && segments.get(1).firstSequence() <= acknowledged) {
+            segments.remove(0).drop();
+        }
+    }
+
+    /**
+     * @return sequence number of the oldest frame not acknowledged yet
+     */
+    public synchronized long getAcknowledged() {
+        return acknowledged;
+    }
+
+    /**
+     * @return sequence number the next appended frame gets
+     */
+    public synchronized long getNextSequence() {
+        return segments.get(segments.size() - 1).nextSequence();
+    }
+
+    /**
+     * @return number of frames not acknowledged yet
+     */
+    public synchronized long getPendingCount() {
+        return getNextSequence() - acknowledged;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Forces the frames and the acknowledged position to the storage device.
+     */
+    public synchronized void sync() throws IOException {
+        checkOpen();
+        for (Segment segment : segments) {
+            segment.force();
+        }
+        acknowledgedPosition.force();
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Journal is closed " + this);
+        }
+    }
+
+    /**
+     * Closes the journal, leaving its files for the next one opened in the directory. Frames read earlier stay
+     * readable until they are released.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return new ToStringBuilder(this)
+            .append("directory", directory)
+            .append("segments", segments.size())
+            .append("acknowledged", acknowledged)
+            .append("next", getNextSequence())
+            .append("closed", closed)
+            .build();
+    }
+}
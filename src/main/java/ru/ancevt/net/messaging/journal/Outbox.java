@@ -0,0 +1,319 @@
+package ru.ancevt.net.messaging.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import ru.ancevt.net.messaging.Log;
+import ru.ancevt.net.messaging.MessagingClientAdapter;
+import ru.ancevt.net.messaging.MessagingConnection;
+import ru.ancevt.net.messaging.MessagingConnectionListener;
+import ru.ancevt.net.messaging.message.Message;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Store-and-forward delivery to one destination. Messages are written to a {@link Journal} first and delivered
+ * whenever a connection to the destination is {@link #attach(MessagingConnection) attached}, as requests copied
+ * from the journal into pooled frames. The destination {@link #confirm(MessagingConnection, MessageData) confirms} each of them
+ * once it has processed it, after which it is acknowledged in the journal.
+ * <p>
+ * Delivery is at least once: messages sent but not confirmed when the connection drops or a confirmation times out
+ * are delivered again, so the destination has to tolerate duplicates. Messages are delivered in the order they
+ * were sent, up to {@link #getMaxInFlight()} of them awaiting confirmation at a time.
+ *
+ * @author ancevt
+ */
+public final class Outbox implements Closeable {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    public static final long DEFAULT_CONFIRM_TIMEOUT_MILLIS = 30_000;
+
+    private final Journal journal;
+    private final MessagingConnectionListener closeListener;
+    private final TreeSet<Long> confirmed;
+    private volatile int maxInFlight;
+    private volatile long confirmTimeoutMillis;
+    // guarded by this
+    private MessagingConnection connection;
+    private long nextToSend;
+    private int inFlight;
+    private long generation;
+    private boolean delivering;
+
+    public Outbox(Journal journal) {
+        this.journal = journal;
+        this.confirmed = new TreeSet<>();
+        this.maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+        this.confirmTimeoutMillis = DEFAULT_CONFIRM_TIMEOUT_MILLIS;
+        this.closeListener = new MessagingClientAdapter() {
+            @Override
+            public void connectionClosed(MessagingConnection connection, Throwable exception) {
+                detach(connection);
+            }
+        };
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Time to wait for the confirmation of a message before delivering it and the ones after it again.
+     */
+    public void setConfirmTimeoutMillis(long confirmTimeoutMillis) {
+        this.confirmTimeoutMillis = confirmTimeoutMillis;
+    }
+
+    public long getConfirmTimeoutMillis() {
+        return confirmTimeoutMillis;
+    }
+
+    /**
+     * Writes the message to the journal and delivers it if a connection is attached.
+     *
+     * @return sequence number of the message in the journal
+     */
+    public long send(Message message) throws IOException {
+        message.prepare();
+        final long sequence = journal.append(message.getMessageData());
+        deliver();
+        return sequence;
+    }
+
+    /**
+     * Starts delivering through the connection, beginning with the oldest message not confirmed yet. The outbox lets
+     * go of the connection when it closes.
+     */
+    public void attach(MessagingConnection connection) {
+        synchronized (this) {
+            detach();
+            this.connection = connection;
+            nextToSend = journal.getAcknowledged();
+        }
+        connection.addMessagingConnectionListener(closeListener);
+        deliver();
+    }
+
+    /**
+     * Stops delivering. Messages awaiting confirmation are delivered again through the next connection attached.
+     */
+    public synchronized void detach() {
+        if (connection != null) {
+            connection.removeMessagingConnectionListener(closeListener);
+        }
+        forget();
+    }
+
+    private synchronized void detach(MessagingConnection connection) {
+        if (this.connection == connection) {
+            // the listener stays, removing it while the connection is telling its listeners would skip the next one
+            forget();
+        }
+    }
+
+    private void forget() {
+        connection = null;
+        // completions of earlier deliveries are ignored from now on
+        generation++;
+        inFlight = 0;
+        confirmed.clear();
+    }
+
+    public synchronized MessagingConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * @return number of messages not confirmed yet, whether sent already or not
+     */
+    public long getPendingCount() {
+        return journal.getPendingCount();
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlight;
+    }
+
+    /**
+     * Sends what the window allows. Frames are picked under the lock and sent after releasing it, so confirmations
+     * and detaching never wait for a write; one thread sends at a time, which keeps the order.
+     */
+    private void deliver() {
+        synchronized (this) {
+            if (delivering) {
+                // the thread delivering picks up whatever changed once it is done with its batch
+                return;
+            }
+            delivering = true;
+        }
+        boolean done = false;
+        try {
+            for (;;) {
+                final List<Delivery> batch = pick();
+                if (batch == null) {
+                    done = true;
+                    return;
+                }
+                send(batch);
+            }
+        } finally {
+            if (!done) {
+                synchronized (this) {
+                    delivering = false;
+                }
+            }
+        }
+    }
+
+    private static void send(List<Delivery> batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                batch.get(i).send();
+            } catch (RuntimeException ex) {
+                for (int j = i + 1; j < batch.size(); j++) {
+                    batch.get(j).frame.release();
+                }
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * @return frames to send, null if there are none, in which case the delivering role is given up
+     */
+    private synchronized List<Delivery> pick() {
+        List<Delivery> batch = null;
+        while (connection != null && connection.isOpened() && inFlight < maxInFlight) {
+            final MessageData frame;
+            try {
+                frame = journal.read(nextToSend);
+            } catch (IOException ex) {
+                // closed
+                break;
+            }
+            if (frame == null) {
+                break;
+            }
+            if (batch == null) {
+                batch = new ArrayList<>();
+            }
+            batch.add(new Delivery(connection, generation, nextToSend++, frame));
+            inFlight++;
+        }
+        if (batch == null) {
+            delivering = false;
+        }
+        return batch;
+    }
+
+    private void completed(long requestGeneration, long sequence, MessageData response, Throwable ex) {
+        if (response != null) {
+            response.release();
+        }
+        synchronized (this) {
+            if (requestGeneration != generation) {
+                return;
+            }
+            inFlight--;
+            if (ex != null) {
+                Log.logger.warn("Delivery of " + sequence + " failed, redelivering from " + journal.getAcknowledged() + ": " + ex);
+                // everything after the oldest unconfirmed message goes again
+                generation++;
+                inFlight = 0;
+                confirmed.clear();
+                nextToSend = journal.getAcknowledged();
+            } else {
+                confirmed.add(sequence);
+                long next = journal.getAcknowledged();
+                while (confirmed.remove(next)) {
+                    next++;
+                }
+                try {
+                    journal.acknowledge(next);
+                } catch (IOException ex1) {
+                    // closed
+                    return;
+                }
+            }
+        }
+        deliver();
+    }
+
+    /**
+     * Confirms a message received from an outbox, meaning it may be forgotten by the sender.
+     *
+     * @return false if the connection is closed, in which case the message will be delivered again
+     */
+    public static boolean confirm(MessagingConnection connection, MessageData request) {
+        final MessageData response = MessageData.allocate(connection.getBufferPool(), Message.HEADERS_SIZE);
+        try {
+            final ByteBuffer frame = response.buffer();
+            MessageData.writeHeaders(frame, Message.HEADERS_SIZE, 0);
+            return connection.reply(request, response);
+        } finally {
+            response.release();
+        }
+    }
+
+    /**
+     * Detaches the outbox and closes its journal.
+     */
+    @Override
+    public void close() {
+        detach();
+        journal.close();
+    }
+
+    /**
+     * Frame read from the journal to be sent through the connection it was picked for.
+     */
+    private final class Delivery {
+
+        private final MessagingConnection connection;
+        private final long generation;
+        private final long sequence;
+        private final MessageData frame;
+
+        private Delivery(MessagingConnection connection, long generation, long sequence, MessageData frame) {
+            this.connection = connection;
+            this.generation = generation;
+            this.sequence = sequence;
+            this.frame = frame;
+        }
+
+        private void send() {
+            final CompletableFuture<MessageData> future;
+            try {
+                future = connection.request(frame, confirmTimeoutMillis);
+            } finally {
+                frame.release();
+            }
+            future.whenComplete((response, ex) -> completed(generation, sequence, response, ex));
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return new ToStringBuilder(this)
+            .append("journal", journal)
+            .append("nextToSend", nextToSend)
+            .append("inFlight", inFlight)
+            .append("attached", connection != null)
+            .build();
+    }
+}
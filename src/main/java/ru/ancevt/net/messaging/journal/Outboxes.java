@@ -0,0 +1,78 @@
+package ru.ancevt.net.messaging.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Outboxes of the logical destinations of a process, each with a journal in a subdirectory of its own named after
+ * the destination.
+ *
+ * @author ancevt
+ */
+public final class Outboxes implements Closeable {
+
+    private static final Pattern DESTINATION = Pattern.compile("[A-Za-z0-9._-]+");
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Map<String, Outbox> outboxes;
+    private boolean closed;
+
+    public Outboxes(Path directory) {
+        this(directory, Journal.DEFAULT_SEGMENT_SIZE);
+    }
+
+    public Outboxes(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.outboxes = new TreeMap<>();
+    }
+
+    /**
+     * Returns the outbox of the destination, opening its journal on first use.
+     *
+     * @param destination name of the destination, letters, digits, '.', '_' and '-' only
+     */
+    public synchronized Outbox get(String destination) throws IOException {
+        if (closed) {
+            throw new IOException("Outboxes are closed " + this);
+        }
+        if (!DESTINATION.matcher(destination).matches() || destination.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid destination name " + destination);
+        }
+        Outbox outbox = outboxes.get(destination);
+        if (outbox == null) {
+            outbox = new Outbox(new Journal(directory.resolve(destination), segmentSize));
+            outboxes.put(destination, outbox);
+        }
+        return outbox;
+    }
+
+    public synchronized Set<String> getDestinations() {
+        return new TreeSet<>(outboxes.keySet());
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Outbox outbox : outboxes.values()) {
+            outbox.close();
+        }
+        outboxes.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return new ToStringBuilder(this)
+            .append("directory", directory)
+            .append("destinations", outboxes.size())
+            .build();
+    }
+}
@@ -0,0 +1,196 @@
+package ru.ancevt.net.messaging.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import ru.ancevt.net.messaging.Log;
+import ru.ancevt.net.messaging.buffer.FrameBuffer;
+import ru.ancevt.net.messaging.message.FrameDecoder;
+import ru.ancevt.net.messaging.message.Message;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.message.MessagingException;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * One file of a {@link Journal}, mapped whole into memory. Frames follow each other from the start of the file; the
+ * signature of a frame is written last, so a frame torn by a crash reads as the end of the segment.
+ * <p>
+ * The file is deleted once the journal has dropped the segment and the last frame read from it is released. A
+ * segment of a closed journal is left as it is.
+ *
+ * @author ancevt
+ */
+final class Segment {
+
+    static final String SUFFIX = ".journal";
+
+    private final Path file;
+    private final long firstSequence;
+    private final MappedByteBuffer mapped;
+    private final AtomicInteger refCount;
+    private int[] offsets;
+    private int count;
+    private int writePosition;
+    private volatile boolean dropped;
+
+    private Segment(Path file, long firstSequence, MappedByteBuffer mapped) {
+        this.file = file;
+        this.firstSequence = firstSequence;
+        this.mapped = mapped;
+        this.refCount = new AtomicInteger(1);
+        this.offsets = new int[256];
+    }
+
+    static Segment create(Path directory, long firstSequence, int size) throws IOException {
+        final Path file = directory.resolve(String.format("%020d", firstSequence) + SUFFIX);
+        return new Segment(file, firstSequence, map(file, size));
+    }
+
+    /**
+     * Maps an existing file and finds its frames.
+     */
+    static Segment open(Path file) throws IOException {
+        final String name = file.getFileName().toString();
+        final long firstSequence;
+        try {
+            firstSequence = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException ex) {
+            throw new IOException("Not a journal segment " + file);
+        }
+        final Segment segment = new Segment(file, firstSequence, map(file, (int) Files.size(file)));
+        segment.recover();
+        return segment;
+    }
+
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private void recover() {
+        final byte[] header = new byte[Message.HEADERS_SIZE];
+        int position = 0;
+        while (position + Message.HEADERS_SIZE <= mapped.capacity() && mapped.get(position) != 0) {
+            final ByteBuffer view = mapped.duplicate();
+            view.position(position);
+            view.get(header);
+            final int frameLength;
+            try {
+                frameLength = FrameDecoder.readFrameSize(header);
+            } catch (MessagingException ex) {
+                Log.logger.warn("Journal segment " + file + " is corrupt at " + position + ", dropping the rest");
+                break;
+            }
+            if (frameLength > mapped.capacity() - position) {
+                Log.logger.warn("Journal segment " + file + " is truncated at " + position + ", dropping the rest");
+                break;
+            }
+            addOffset(position);
+            position += frameLength;
+        }
+        writePosition = position;
+        // whatever follows is garbage of a torn frame, the next append must not run into it
+        if (position < mapped.capacity()) {
+            mapped.put(position, (byte) 0);
+        }
+    }
+
+    long firstSequence() {
+        return firstSequence;
+    }
+
+    /**
+     * @return sequence number the next frame appended to this segment would get
+     */
+    long nextSequence() {
+        return firstSequence + count;
+    }
+
+    int count() {
+        return count;
+    }
+
+    boolean fits(int frameLength) {
+        return frameLength <= mapped.capacity() - writePosition;
+    }
+
+    void append(MessageData frame) {
+        final ByteBuffer source = frame.buffer();
+        final ByteBuffer target = mapped.duplicate();
+        final int signature = source.get(0);
+        target.position(writePosition + 1);
+        source.position(1);
+        target.put(source);
+        if (target.position() < target.capacity()) {
+            // marks the end until the next frame is published
+            target.put(target.position(), (byte) 0);
+        }
+        // published last, a reader never sees a frame that is not complete
+        mapped.put(writePosition, (byte) signature);
+        addOffset(writePosition);
+        writePosition += frame.length();
+    }
+
+    /**
+     * @return the frame mapped in place and read only, retaining the segment until it is released
+     */
+    MessageData read(long sequence) {
+        final int index = (int) (sequence - firstSequence);
+        final int offset = offsets[index];
+        final int end = index + 1 < count ? offsets[index + 1] : writePosition;
+        final ByteBuffer view = mapped.duplicate();
+        view.position(offset).limit(end);
+        refCount.incrementAndGet();
+        return MessageData.wrap(FrameBuffer.wrap(view.slice().asReadOnlyBuffer(), this::release), end - offset);
+    }
+
+    void force() {
+        mapped.force();
+    }
+
+    /**
+     * Drops the reference of the journal to a segment no longer needed. The file is deleted once no frame read from
+     * it is held anymore.
+     */
+    void drop() {
+        dropped = true;
+        release();
+    }
+
+    private void release() {
+        if (refCount.decrementAndGet() == 0 && dropped) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ex) {
+                // still mapped on some platforms
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    private void addOffset(int offset) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        offsets[count++] = offset;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("file", file)
+            .append("firstSequence", firstSequence)
+            .append("count", count)
+            .append("writePosition", writePosition)
+            .build();
+    }
+}
@@ -0,0 +1,100 @@
+package ru.ancevt.net.messaging.message;
+
+import ru.ancevt.net.messaging.buffer.BufferPool;
+import ru.ancevt.net.messaging.buffer.FrameBuffer;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Message made of primitive fields written into and read out of the frame in place. Subclasses declare the fields
+ * as plain Java fields and move them in {@link #write(BinaryWriter)} and {@link #read(BinaryReader)}, in the same
+ * order:
+ * <pre>
+ * public class Tick extends BinaryMessage {
+ *     public long time;
+ *     public double price;
+ *
+ *     protected void write(BinaryWriter writer) {
+ *         writer.writeVarLong(time).writeDouble(price);
+ *     }
+ *
+ *     protected void read(BinaryReader reader) {
+ *         time = reader.readVarLong();
+ *         price = reader.readDouble();
+ *     }
+ * }
+ * </pre>
+ * One instance can be sent over and over and can read any number of received frames. {@link #prepare()} writes the
+ * fields over the previous frame once nothing else holds it, so a message that is sent repeatedly allocates nothing
+ * after the first time; otherwise it takes a new buffer sized like the previous frame, from the buffer pool if there
+ * is one.
+ *
+ * @author ancevt
+ */
+public abstract class BinaryMessage extends Message {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final BinaryWriter writer;
+    private final BinaryReader reader;
+    private int capacityHint;
+
+    protected BinaryMessage() {
+        writer = new BinaryWriter();
+        reader = new BinaryReader();
+        capacityHint = INITIAL_CAPACITY;
+    }
+
+    protected abstract void write(BinaryWriter writer);
+
+    protected abstract void read(BinaryReader reader);
+
+    /**
+     * Reads the fields of a received frame into this message, taking its request id as well. The frame is not
+     * retained, so the message can go on to read the next one.
+     */
+    public final BinaryMessage readFrom(MessageData messageData) {
+        setRequestId(messageData.getRequestId());
+        read(reader.reset(messageData));
+        return this;
+    }
+
+    @Override
+    public final Message prepare() {
+        final MessageData messageData = getMessageData();
+        FrameBuffer frameBuffer = messageData.peekBuffer();
+        final boolean fresh = frameBuffer == null || frameBuffer.refCount() != 1;
+        if (fresh) {
+            final BufferPool bufferPool = getBufferPool();
+            frameBuffer = bufferPool != null
+                ? bufferPool.acquire(capacityHint)
+                : FrameBuffer.wrap(new byte[capacityHint]);
+        }
+
+        writer.begin(getBufferPool(), frameBuffer);
+        try {
+            write(writer);
+        } catch (RuntimeException ex) {
+            writer.abort();
+            if (fresh) {
+                frameBuffer.release();
+            }
+            throw ex;
+        }
+        final int frameLength = writer.finish(getRequestId());
+        final FrameBuffer written = writer.frameBuffer();
+        if (fresh && written != frameBuffer) {
+            frameBuffer.release();
+        }
+        messageData.setBuffer(written, frameLength);
+        capacityHint = Math.max(INITIAL_CAPACITY, frameLength);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("requestId", getRequestId())
+            .append("length", length())
+            .build();
+    }
+}
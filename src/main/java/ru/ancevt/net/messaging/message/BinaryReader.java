@@ -0,0 +1,211 @@
+package ru.ancevt.net.messaging.message;
+
+import java.nio.ByteBuffer;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Cursor reading the fields written by {@link BinaryWriter} straight out of a frame. Nothing is allocated per field
+ * except the strings returned by {@link #readString()}; {@link #readString(StringBuilder)} avoids even those.
+ * <p>
+ * Reading past the end of the frame throws {@link java.nio.BufferUnderflowException}.
+ *
+ * @author ancevt
+ */
+public final class BinaryReader {
+
+    private ByteBuffer source;
+    private ByteBuffer buffer;
+    private char[] chars;
+
+    public BinaryReader() {
+        chars = new char[64];
+    }
+
+    /**
+     * Positions the reader at the first field of the frame. The frame is not retained.
+     */
+    public BinaryReader reset(MessageData messageData) {
+        final ByteBuffer frame = messageData.frameBuffer().nioBuffer();
+        // pooled buffers come back, so the view of the last one is usually still good
+        if (source != frame) {
+            source = frame;
+            buffer = frame.duplicate();
+        }
+        buffer.clear().limit(messageData.length()).position(Message.HEADERS_SIZE);
+        return this;
+    }
+
+    public int position() {
+        return buffer.position();
+    }
+
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    public boolean hasRemaining() {
+        return buffer.hasRemaining();
+    }
+
+    public byte readByte() {
+        return buffer.get();
+    }
+
+    public int readUnsignedByte() {
+        return buffer.get() & 0xFF;
+    }
+
+    public boolean readBoolean() {
+        return buffer.get() != 0;
+    }
+
+    public short readShort() {
+        return buffer.getShort();
+    }
+
+    public char readChar() {
+        return buffer.getChar();
+    }
+
+    public int readInt() {
+        return buffer.getInt();
+    }
+
+    public long readLong() {
+        return buffer.getLong();
+    }
+
+    public float readFloat() {
+        return buffer.getFloat();
+    }
+
+    public double readDouble() {
+        return buffer.getDouble();
+    }
+
+    public int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new MessagingException("Malformed varint at " + (buffer.position() - 5));
+    }
+
+    public long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new MessagingException("Malformed varlong at " + (buffer.position() - 10));
+    }
+
+    public int readSignedVarInt() {
+        final int value = readVarInt();
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    public long readSignedVarLong() {
+        final long value = readVarLong();
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    public byte[] readBytes() {
+        final byte[] bytes = new byte[readLength()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads bytes written with their count into the array, which must be large enough.
+     *
+     * @return number of bytes read
+     */
+    public int readBytes(byte[] target, int offset) {
+        final int count = readLength();
+        buffer.get(target, offset, count);
+        return count;
+    }
+
+    public String readString() {
+        final int count = decodeString();
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * Appends the string to the builder instead of creating a new one.
+     */
+    public StringBuilder readString(StringBuilder target) {
+        final int count = decodeString();
+        return target.append(chars, 0, count);
+    }
+
+    public void skipString() {
+        final int length = readLength();
+        buffer.position(buffer.position() + length);
+    }
+
+    private int readLength() {
+        final int length = readVarInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new MessagingException("Invalid length " + length + " with " + buffer.remaining() + " bytes left");
+        }
+        return length;
+    }
+
+    /**
+     * Decodes the UTF-8 bytes of the next string into the reusable char array.
+     *
+     * @return number of chars decoded
+     */
+    private int decodeString() {
+        final int length = readLength();
+        if (chars.length < length) {
+            // never more chars than bytes
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        final int end = buffer.position() + length;
+        int count = 0;
+        while (buffer.position() < end) {
+            final int b = buffer.get() & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if (b < 0xE0) {
+                chars[count++] = (char) ((b & 0x1F) << 6 | continuation(end));
+            } else if (b < 0xF0) {
+                chars[count++] = (char) ((b & 0x0F) << 12 | continuation(end) << 6 | continuation(end));
+            } else {
+                final int codePoint = (b & 0x07) << 18 | continuation(end) << 12 | continuation(end) << 6 | continuation(end);
+                chars[count++] = Character.highSurrogate(codePoint);
+                chars[count++] = Character.lowSurrogate(codePoint);
+            }
+        }
+        return count;
+    }
+
+    private int continuation(int end) {
+        if (buffer.position() >= end) {
+            throw new MessagingException("Truncated UTF-8 sequence");
+        }
+        final int b = buffer.get() & 0xFF;
+        if ((b & 0xC0) != 0x80) {
+            throw new MessagingException("Malformed UTF-8 sequence");
+        }
+        return b & 0x3F;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("position", buffer != null ? buffer.position() : 0)
+            .append("remaining", buffer != null ? buffer.remaining() : 0)
+            .build();
+    }
+}
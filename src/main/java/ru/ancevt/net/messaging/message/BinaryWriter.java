@@ -0,0 +1,234 @@
+package ru.ancevt.net.messaging.message;
+
+import java.nio.ByteBuffer;
+import ru.ancevt.net.messaging.buffer.BufferPool;
+import ru.ancevt.net.messaging.buffer.FrameBuffer;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Cursor writing fields straight into the frame of a {@link BinaryMessage}, right after its headers. Numbers are big
+ * endian like those of {@link java.io.DataOutputStream}; varints are unsigned LEB128, signed ones zigzag encoded
+ * first; strings are UTF-8 prefixed with their length in bytes as a varint.
+ * <p>
+ * Nothing is allocated per field. The frame grows by doubling when a field does not fit.
+ *
+ * @author ancevt
+ */
+public final class BinaryWriter {
+
+    private BufferPool bufferPool;
+    private FrameBuffer initial;
+    private FrameBuffer frameBuffer;
+    private ByteBuffer source;
+    private ByteBuffer buffer;
+
+    BinaryWriter() {
+    }
+
+    /**
+     * Starts writing fields into the buffer, which is not released by the writer.
+     */
+    void begin(BufferPool bufferPool, FrameBuffer frameBuffer) {
+        this.bufferPool = bufferPool;
+        this.initial = frameBuffer;
+        setFrameBuffer(frameBuffer);
+        buffer.clear().position(Message.HEADERS_SIZE);
+    }
+
+    /**
+     * @return buffer holding the frame, a new one if the initial buffer had to grow
+     */
+    FrameBuffer frameBuffer() {
+        return frameBuffer;
+    }
+
+    /**
+     * Writes the headers in front of the fields.
+     *
+     * @return length of the frame
+     */
+    int finish(int requestId) {
+        final int frameLength = buffer.position();
+        buffer.put(0, (byte) Message.SIGNATURE);
+        buffer.putInt(1, frameLength);
+        buffer.putInt(5, requestId);
+        initial = null;
+        return frameLength;
+    }
+
+    /**
+     * Releases the buffer the frame has grown into, if any.
+     */
+    void abort() {
+        if (frameBuffer != initial) {
+            frameBuffer.release();
+        }
+        frameBuffer = null;
+        initial = null;
+    }
+
+    private void setFrameBuffer(FrameBuffer frameBuffer) {
+        this.frameBuffer = frameBuffer;
+        // pooled buffers come back, so the view of the last one is usually still good
+        if (source != frameBuffer.nioBuffer()) {
+            source = frameBuffer.nioBuffer();
+            buffer = source.duplicate();
+        }
+    }
+
+    private void ensure(int count) {
+        if (buffer.remaining() >= count) {
+            return;
+        }
+        final int position = buffer.position();
+        final long required = (long) position + count;
+        if (required > Integer.MAX_VALUE) {
+            throw new MessagingException("Binary message exceeds " + Integer.MAX_VALUE + " bytes");
+        }
+        final int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(required, 2L * buffer.capacity()));
+
+        final FrameBuffer grown = bufferPool != null
+            ? bufferPool.acquire(capacity)
+            : FrameBuffer.wrap(new byte[capacity]);
+        final ByteBuffer written = buffer;
+        written.flip();
+        final FrameBuffer previous = frameBuffer;
+
+        setFrameBuffer(grown);
+        buffer.clear();
+        buffer.put(written);
+        if (previous != initial) {
+            previous.release();
+        }
+    }
+
+    /**
+     * @return number of bytes of the frame written so far, headers included
+     */
+    public int position() {
+        return buffer.position();
+    }
+
+    public BinaryWriter writeByte(int value) {
+        ensure(1);
+        buffer.put((byte) value);
+        return this;
+    }
+
+    public BinaryWriter writeBoolean(boolean value) {
+        return writeByte(value ? 1 : 0);
+    }
+
+    public BinaryWriter writeShort(int value) {
+        ensure(2);
+        buffer.putShort((short) value);
+        return this;
+    }
+
+    public BinaryWriter writeChar(char value) {
+        ensure(2);
+        buffer.putChar(value);
+        return this;
+    }
+
+    public BinaryWriter writeInt(int value) {
+        ensure(4);
+        buffer.putInt(value);
+        return this;
+    }
+
+    public BinaryWriter writeLong(long value) {
+        ensure(8);
+        buffer.putLong(value);
+        return this;
+    }
+
+    public BinaryWriter writeFloat(float value) {
+        ensure(4);
+        buffer.putFloat(value);
+        return this;
+    }
+
+    public BinaryWriter writeDouble(double value) {
+        ensure(8);
+        buffer.putDouble(value);
+        return this;
+    }
+
+    /**
+     * Writes the value as unsigned in 1 to 5 bytes, fewer for smaller values.
+     */
+    public BinaryWriter writeVarInt(int value) {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+        return this;
+    }
+
+    /**
+     * Writes the value as unsigned in 1 to 10 bytes, fewer for smaller values.
+     */
+    public BinaryWriter writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+        return this;
+    }
+
+    /**
+     * Writes a varint that is short for values of small magnitude, negative ones included.
+     */
+    public BinaryWriter writeSignedVarInt(int value) {
+        return writeVarInt(value << 1 ^ value >> 31);
+    }
+
+    public BinaryWriter writeSignedVarLong(long value) {
+        return writeVarLong(value << 1 ^ value >> 63);
+    }
+
+    public BinaryWriter writeBytes(byte[] bytes) {
+        return writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes the bytes prefixed with their count.
+     */
+    public BinaryWriter writeBytes(byte[] bytes, int offset, int count) {
+        writeVarInt(count);
+        ensure(count);
+        buffer.put(bytes, offset, count);
+        return this;
+    }
+
+    /**
+     * Writes the string encoded to UTF-8 right in the frame. Null is not supported.
+     */
+    public BinaryWriter writeString(CharSequence value) {
+        final int encodedLength = Utf8.encodedLength(value);
+        writeVarInt(encodedLength);
+        ensure(encodedLength);
+        Utf8.encode(value, buffer);
+        return this;
+    }
+
+    /**
+     * Writes the chars encoded to UTF-8 without a length, for payloads that take the rest of the frame.
+     */
+    void writeUtf8(CharSequence value) {
+        ensure(Utf8.encodedLength(value));
+        Utf8.encode(value, buffer);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("position", buffer != null ? buffer.position() : 0)
+            .build();
+    }
+}
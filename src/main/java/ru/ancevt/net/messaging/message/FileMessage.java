@@ -0,0 +1,239 @@
+package ru.ancevt.net.messaging.message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Region of a file sent without loading it into memory: only the headers are encoded, the body is transferred from
+ * the file straight to the socket with {@link FileChannel#transferTo}. Files longer than {@link #MAX_PART_SIZE} are
+ * sent as several parts, see {@link #parts(Path, int)}; each part carries its position so the receiver can write it
+ * in place.
+ * <pre>
+ *  1 b - magic 0xFD
+ *  2 b - file name length
+ *  n b - file name, UTF-8
+ *  8 b - length of the whole file
+ *  8 b - position of this part in the file
+ *  rest - contents of the part
+ * </pre>
+ * On the receiving side large parts are best read through a {@link FrameSpool} so they never reach the heap.
+ *
+ * @author ancevt
+ */
+public class FileMessage extends Message {
+
+    public static final int MAGIC = 0xFD;
+    public static final int MAX_PART_SIZE = Integer.MAX_VALUE - 128 * 1024;
+
+    private static final int FIXED_SIZE = 1 + 2 + 8 + 8;
+
+    private final Path path;
+    private final String fileName;
+    private final long fileLength;
+    private final long position;
+    private final int count;
+    private final MessageData received;
+    private final int bodyOffset;
+
+    /**
+     * Whole file, which must not be longer than {@link #MAX_PART_SIZE}.
+     */
+    public FileMessage(Path path) throws IOException {
+        this(path, 0, checkedLength(path));
+    }
+
+    /**
+     * @param position first byte of the part in the file
+     * @param count    length of the part
+     */
+    public FileMessage(Path path, long position, int count) throws IOException {
+        super();
+        final long length = Files.size(path);
+        if (position < 0 || count < 0 || position + count > length) {
+            throw new MessagingException("Invalid part " + position + "+" + count + " of " + path + " (" + length + " bytes)");
+        }
+        final Path name = path.getFileName();
+        this.path = path;
+        this.fileName = name != null ? name.toString() : "";
+        this.fileLength = length;
+        this.position = position;
+        this.count = count;
+        this.received = null;
+        this.bodyOffset = 0;
+    }
+
+    /**
+     * Parses a received part. The contents are not copied and are only accessible while the frame is.
+     */
+    public FileMessage(MessageData messageData) {
+        super(messageData);
+        if (!isFileMessage(messageData)) {
+            throw new MessagingException("Not a file message " + messageData);
+        }
+        final ByteBuffer frame = messageData.buffer();
+        final int nameLength = frame.getShort(Message.HEADERS_SIZE + 1) & 0xFFFF;
+        final int nameOffset = Message.HEADERS_SIZE + 3;
+        if (nameOffset + nameLength + 16 > frame.limit()) {
+            throw new MessagingException("Invalid file name length " + nameLength);
+        }
+        final byte[] name = new byte[nameLength];
+        frame.position(nameOffset);
+        frame.get(name);
+        this.fileName = new String(name, StandardCharsets.UTF_8);
+        this.fileLength = frame.getLong();
+        this.position = frame.getLong();
+        this.bodyOffset = frame.position();
+        this.count = frame.limit() - bodyOffset;
+        this.path = null;
+        this.received = messageData;
+        if (fileLength < 0 || position < 0 || position + count > fileLength) {
+            throw new MessagingException("Invalid part " + position + "+" + count + " of " + fileLength + " bytes");
+        }
+    }
+
+    /**
+     * Splits the file into consecutive parts of at most the given size.
+     */
+    public static List<FileMessage> parts(Path path, int partSize) throws IOException {
+        if (partSize <= 0 || partSize > MAX_PART_SIZE) {
+            throw new IllegalArgumentException("Invalid part size " + partSize);
+        }
+        final long length = Files.size(path);
+        final List<FileMessage> parts = new ArrayList<>();
+        long position = 0;
+        do {
+            final int count = (int) Math.min(partSize, length - position);
+            parts.add(new FileMessage(path, position, count));
+            position += count;
+        } while (position < length);
+        return parts;
+    }
+
+    public static boolean isFileMessage(MessageData messageData) {
+        return messageData.length() >= Message.HEADERS_SIZE + FIXED_SIZE
+            && (messageData.buffer().get(Message.HEADERS_SIZE) & 0xFF) == MAGIC;
+    }
+
+    private static int checkedLength(Path path) throws IOException {
+        final long length = Files.size(path);
+        if (length > MAX_PART_SIZE) {
+            throw new MessagingException(path + " is too large for a single frame (" + length + " bytes), send its parts()");
+        }
+        return (int) length;
+    }
+
+    /**
+     * @return file to send, null for a received part
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isLastPart() {
+        return position + count == fileLength;
+    }
+
+    /**
+     * @return length of the whole frame on the wire
+     */
+    public int getFrameLength() {
+        return received != null ? received.length() : headersLength() + count;
+    }
+
+    /**
+     * @return read-only view of the contents of a received part
+     */
+    public ByteBuffer getBody() {
+        if (received == null) {
+            throw new IllegalStateException("Only received parts have a body, the contents of " + path + " are sent from the file");
+        }
+        final ByteBuffer frame = received.buffer();
+        frame.position(bodyOffset);
+        return frame.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the contents of a received part at its position in the target file.
+     */
+    public void transferTo(FileChannel target) throws IOException {
+        final ByteBuffer body = getBody();
+        long at = position;
+        while (body.hasRemaining()) {
+            at += target.write(body, at);
+        }
+    }
+
+    /**
+     * Writes the contents of a received part at its position in the file, creating the file if needed.
+     */
+    public void saveTo(Path file) throws IOException {
+        try (FileChannel target = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            transferTo(target);
+        }
+    }
+
+    private int headersLength() {
+        return Message.HEADERS_SIZE + FIXED_SIZE + fileName.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Encodes the headers only; their size field covers the contents, which the connection sends from the file.
+     */
+    @Override
+    public Message prepare() {
+        if (received != null) {
+            return this;
+        }
+        final byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 0xFFFF) {
+            throw new MessagingException("File name is too long: " + name.length + " bytes");
+        }
+        final int headersLength = headersLength();
+        final MessageData messageData = MessageData.allocate(getBufferPool(), headersLength);
+        final ByteBuffer buffer = messageData.buffer();
+        MessageData.writeHeaders(buffer, headersLength + count, getRequestId());
+        buffer.put((byte) MAGIC);
+        buffer.putShort((short) name.length);
+        buffer.put(name);
+        buffer.putLong(fileLength);
+        buffer.putLong(position);
+        release();
+        setMessageData(messageData);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("requestId", getRequestId())
+            .append("fileName", fileName)
+            .append("fileLength", fileLength)
+            .append("position", position)
+            .append("count", count)
+            .build();
+    }
+}
@@ -0,0 +1,173 @@
+package ru.ancevt.net.messaging.message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import ru.ancevt.net.messaging.buffer.BufferPool;
+
+/**
+ * Incremental decoder of length-prefixed frames for non-blocking channels. Keeps the partially received frame
+ * between calls so the input buffer may be reused by the caller.
+ *
+ * @author ancevt
+ */
+public class FrameDecoder {
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    private final BufferPool bufferPool;
+    private final byte[] header;
+    private FrameSpool spool;
+    private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private int headerPosition;
+    private MessageData messageData;
+    private ByteBuffer frame;
+    private FrameSpool.Writer spoolWriter;
+
+    public FrameDecoder() {
+        this(null);
+    }
+
+    /**
+     * @param bufferPool pool for frame buffers, null for plain arrays
+     */
+    public FrameDecoder(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        header = new byte[Message.HEADERS_SIZE];
+    }
+
+    /**
+     * Makes frames above the threshold of the spool be received into files, null keeps all frames in memory.
+     */
+    public void setSpool(FrameSpool spool) {
+        this.spool = spool;
+    }
+
+    public FrameSpool getSpool() {
+        return spool;
+    }
+
+    /**
+     * Largest frame accepted into memory. The size field of a frame is checked before anything is allocated for it.
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Consumes bytes from the buffer until a whole frame is assembled.
+     *
+     * @return decoded frame or null if more input is needed
+     */
+    public MessageData decode(ByteBuffer in) throws IOException {
+        if (frame == null && spoolWriter == null) {
+            final int count = Math.min(in.remaining(), Message.HEADERS_SIZE - headerPosition);
+            in.get(header, headerPosition, count);
+            headerPosition += count;
+
+            if (headerPosition < Message.HEADERS_SIZE) {
+                return null;
+            }
+
+            final int frameSize = readFrameSize(header);
+            checkFrameSize(frameSize, maxFrameSize, spool);
+            if (spool != null && spool.isSpooled(frameSize)) {
+                spoolWriter = spool.open(frameSize);
+                spoolWriter.write(header, 0, header.length);
+            } else {
+                messageData = MessageData.allocate(bufferPool, frameSize);
+                frame = messageData.buffer();
+                frame.put(header);
+            }
+        }
+
+        if (spoolWriter != null) {
+            return decodeSpooled(in);
+        }
+
+        if (in.remaining() <= frame.remaining()) {
+            frame.put(in);
+        } else {
+            final int limit = in.limit();
+            in.limit(in.position() + frame.remaining());
+            frame.put(in);
+            in.limit(limit);
+        }
+
+        if (frame.hasRemaining()) {
+            return null;
+        }
+
+        final MessageData result = messageData;
+
+        messageData = null;
+        frame = null;
+        headerPosition = 0;
+
+        return result;
+    }
+
+    private MessageData decodeSpooled(ByteBuffer in) throws IOException {
+        spoolWriter.write(in);
+        if (spoolWriter.remaining() > 0) {
+            return null;
+        }
+
+        final FrameSpool.Writer writer = spoolWriter;
+        spoolWriter = null;
+        headerPosition = 0;
+        return writer.finish();
+    }
+
+    /**
+     * Releases the partially received frame, if any.
+     */
+    public void reset() {
+        if (messageData != null) {
+            messageData.release();
+            messageData = null;
+        }
+        if (spoolWriter != null) {
+            spoolWriter.close();
+            spoolWriter = null;
+        }
+        frame = null;
+        headerPosition = 0;
+    }
+
+    /**
+     * Validates the headers and returns the size of the whole frame.
+     */
+    public static int readFrameSize(byte[] header) {
+        final int sign = header[0] & 0xFF;
+        if (sign != Message.SIGNATURE
+            && sign != Message.COMPRESSED_SIGNATURE
+            && sign != Message.FRAGMENT_SIGNATURE
+            && sign != Message.HEARTBEAT_SIGNATURE
+            && sign != Message.SESSION_SIGNATURE) {
+            throw new MessagingException("Invalid message signature 0x" + Integer.toString(sign, 16));
+        }
+
+        final int messageSize = MessageData.readInt(header, 1);
+        if (messageSize < Message.HEADERS_SIZE) {
+            throw new MessagingException("Invalid message size " + messageSize);
+        }
+        return messageSize;
+    }
+
+    /**
+     * Rejects a frame that would have to be held in memory although it is larger than the maximum. Frames taken by
+     * the spool go to disk and are not limited.
+     *
+     * @param spool spool of the receiver, may be null
+     */
+    public static void checkFrameSize(int frameSize, int maxFrameSize, FrameSpool spool) {
+        if (frameSize > maxFrameSize && (spool == null || !spool.isSpooled(frameSize))) {
+            throw new MessagingException("Frame of " + frameSize + " bytes exceeds the maximum of " + maxFrameSize);
+        }
+    }
+
+}
@@ -0,0 +1,207 @@
+package ru.ancevt.net.messaging.message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import ru.ancevt.net.messaging.buffer.BufferPool;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Puts frames sent in fragments back together. A fragment is a frame of its own:
+ * <pre>
+ *  1 b - signature 0xFC
+ *  4 b - size of the fragment frame
+ *  4 b - reqId, identifies the fragmented frame among others in flight on the connection
+ *  4 b - length of the whole frame
+ *  4 b - offset of the fragment in the whole frame
+ *  rest - bytes of the whole frame, its own headers included
+ * </pre>
+ * Fragments of different frames may be interleaved, fragments of one frame arrive in order. Frames being reassembled
+ * in memory are limited to a total number of bytes; frames above the threshold of the spool, if there is one, are
+ * reassembled on disk and do not count against it.
+ * <p>
+ * Not thread safe, meant for the thread reading a connection.
+ *
+ * @author ancevt
+ */
+public final class FrameReassembler {
+
+    public static final long DEFAULT_MAX_BUFFERED_BYTES = 64L * 1024 * 1024;
+
+    private final BufferPool bufferPool;
+    private final long maxBufferedBytes;
+    private final Map<Integer, Reassembly> reassemblies;
+    private FrameSpool spool;
+    private int maxFrameSize = FrameDecoder.DEFAULT_MAX_FRAME_SIZE;
+    private long bufferedBytes;
+
+    public FrameReassembler(BufferPool bufferPool) {
+        this(bufferPool, DEFAULT_MAX_BUFFERED_BYTES);
+    }
+
+    /**
+     * @param bufferPool       pool for frames reassembled in memory, null for plain arrays
+     * @param maxBufferedBytes total length of frames reassembled in memory at once
+     */
+    public FrameReassembler(BufferPool bufferPool, long maxBufferedBytes) {
+        this.bufferPool = bufferPool;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.reassemblies = new HashMap<>();
+    }
+
+    public void setSpool(FrameSpool spool) {
+        this.spool = spool;
+    }
+
+    /**
+     * Largest whole frame reassembled in memory, checked on its first fragment.
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public long getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    public long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * @return number of frames whose fragments are still arriving
+     */
+    public int getPendingCount() {
+        return reassemblies.size();
+    }
+
+    /**
+     * Adds the fragment to its frame. The fragment is not released.
+     *
+     * @return the whole frame once its last fragment is added, otherwise null
+     * @throws MessagingException if the fragment does not continue its frame or the memory limit is exceeded
+     */
+    public MessageData add(MessageData fragment) throws IOException {
+        if (fragment.length() < Message.FRAGMENT_HEADERS_SIZE) {
+            throw new MessagingException("Fragment is too short: " + fragment.length());
+        }
+        final ByteBuffer buffer = fragment.buffer();
+        final int id = buffer.getInt(5);
+        final int frameLength = buffer.getInt(Message.HEADERS_SIZE);
+        final int offset = buffer.getInt(Message.HEADERS_SIZE + 4);
+        buffer.position(Message.FRAGMENT_HEADERS_SIZE);
+
+        Reassembly reassembly = reassemblies.get(id);
+        if (reassembly == null) {
+            if (offset != 0 || buffer.remaining() < Message.HEADERS_SIZE) {
+                throw new MessagingException("Fragment of unknown frame " + id + " at offset " + offset);
+            }
+            final byte[] header = new byte[Message.HEADERS_SIZE];
+            buffer.duplicate().get(header);
+            if (FrameDecoder.readFrameSize(header) != frameLength) {
+                throw new MessagingException("Fragmented frame " + id + " announces " + frameLength + " bytes but its headers do not");
+            }
+            reassembly = start(frameLength);
+            reassemblies.put(id, reassembly);
+        } else if (offset != reassembly.received || frameLength != reassembly.frameLength) {
+            throw new MessagingException("Fragment of frame " + id + " at offset " + offset + " while " + reassembly.received + " is expected");
+        }
+
+        if (buffer.remaining() > frameLength - reassembly.received) {
+            throw new MessagingException("Fragments of frame " + id + " exceed its length " + frameLength);
+        }
+        reassembly.write(buffer);
+
+        if (reassembly.received < frameLength) {
+            return null;
+        }
+        reassemblies.remove(id);
+        return finish(reassembly);
+    }
+
+    private Reassembly start(int frameLength) throws IOException {
+        FrameDecoder.checkFrameSize(frameLength, maxFrameSize, spool);
+        if (spool != null && spool.isSpooled(frameLength)) {
+            return new Reassembly(frameLength, spool.open(frameLength));
+        }
+        if (bufferedBytes + frameLength > maxBufferedBytes) {
+            throw new MessagingException("Reassembly buffer limit of " + maxBufferedBytes + " bytes exceeded");
+        }
+        bufferedBytes += frameLength;
+        return new Reassembly(frameLength, MessageData.allocate(bufferPool, frameLength));
+    }
+
+    private MessageData finish(Reassembly reassembly) throws IOException {
+        if (reassembly.spoolWriter != null) {
+            return reassembly.spoolWriter.finish();
+        }
+        bufferedBytes -= reassembly.frameLength;
+        return reassembly.frame;
+    }
+
+    /**
+     * Drops every frame being reassembled.
+     */
+    public void reset() {
+        for (Reassembly reassembly : reassemblies.values()) {
+            reassembly.discard();
+        }
+        reassemblies.clear();
+        bufferedBytes = 0;
+    }
+
+    private static final class Reassembly {
+
+        private final int frameLength;
+        private final MessageData frame;
+        private final ByteBuffer target;
+        private final FrameSpool.Writer spoolWriter;
+        private int received;
+
+        private Reassembly(int frameLength, MessageData frame) {
+            this.frameLength = frameLength;
+            this.frame = frame;
+            this.target = frame.buffer();
+            this.spoolWriter = null;
+        }
+
+        private Reassembly(int frameLength, FrameSpool.Writer spoolWriter) {
+            this.frameLength = frameLength;
+            this.frame = null;
+            this.target = null;
+            this.spoolWriter = spoolWriter;
+        }
+
+        private void write(ByteBuffer source) throws IOException {
+            final int count = source.remaining();
+            if (spoolWriter != null) {
+                spoolWriter.write(source);
+            } else {
+                target.put(source);
+            }
+            received += count;
+        }
+
+        private void discard() {
+            if (spoolWriter != null) {
+                spoolWriter.close();
+            } else {
+                frame.release();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("pendingCount", getPendingCount())
+            .append("bufferedBytes", bufferedBytes)
+            .append("maxBufferedBytes", maxBufferedBytes)
+            .build();
+    }
+}
@@ -0,0 +1,160 @@
+package ru.ancevt.net.messaging.message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import ru.ancevt.net.messaging.Log;
+import ru.ancevt.net.messaging.buffer.FrameBuffer;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Receives frames larger than a threshold into temporary files instead of the heap. A spooled frame is handed to the
+ * listeners as a {@link MessageData} over a read-only mapping of its file, which is deleted once the frame is
+ * released.
+ *
+ * @author ancevt
+ */
+public final class FrameSpool {
+
+    public static final int DEFAULT_THRESHOLD = 8 * 1024 * 1024;
+
+    private final int threshold;
+    private final Path directory;
+
+    public FrameSpool() {
+        this(DEFAULT_THRESHOLD, null);
+    }
+
+    /**
+     * @param threshold frames longer than this many bytes are spooled
+     * @param directory directory for the spool files, null for the default temporary directory
+     */
+    public FrameSpool(int threshold, Path directory) {
+        if (threshold < Message.HEADERS_SIZE) {
+            throw new IllegalArgumentException("threshold is too small: " + threshold);
+        }
+        this.threshold = threshold;
+        this.directory = directory;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public boolean isSpooled(int frameLength) {
+        return frameLength > threshold;
+    }
+
+    /**
+     * Creates the spool file of one frame.
+     */
+    public Writer open(int frameLength) throws IOException {
+        final Path file = directory != null
+            ? Files.createTempFile(directory, "messaging-", ".frame")
+            : Files.createTempFile("messaging-", ".frame");
+        try {
+            return new Writer(file, frameLength);
+        } catch (IOException ex) {
+            delete(file);
+            throw ex;
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            // still mapped on some platforms
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    /**
+     * Appends the bytes of one frame to its spool file. Closing an unfinished writer deletes the file.
+     */
+    public static final class Writer implements Closeable {
+
+        private final Path file;
+        private final FileChannel channel;
+        private final int frameLength;
+        private int written;
+
+        private Writer(Path file, int frameLength) throws IOException {
+            this.file = file;
+            this.frameLength = frameLength;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        /**
+         * Writes as much of the source as still belongs to the frame.
+         */
+        public void write(ByteBuffer source) throws IOException {
+            final int count = Math.min(source.remaining(), remaining());
+            final int limit = source.limit();
+            source.limit(source.position() + count);
+            try {
+                while (source.hasRemaining()) {
+                    written += channel.write(source);
+                }
+            } finally {
+                source.limit(limit);
+            }
+        }
+
+        public void write(byte[] bytes, int offset, int count) throws IOException {
+            write(ByteBuffer.wrap(bytes, offset, count));
+        }
+
+        public int remaining() {
+            return frameLength - written;
+        }
+
+        /**
+         * Maps the complete frame. The writer must not be used afterwards.
+         */
+        public MessageData finish() throws IOException {
+            if (remaining() > 0) {
+                throw new IOException("Spooled frame is incomplete, " + remaining() + " bytes missing");
+            }
+            final MappedByteBuffer mapped;
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, frameLength);
+            } catch (IOException ex) {
+                close();
+                throw ex;
+            }
+            channel.close();
+            return MessageData.wrap(FrameBuffer.wrap(mapped, () -> delete(file)), frameLength);
+        }
+
+        @Override
+        public void close() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                Log.err(ex, ex);
+            }
+            delete(file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("threshold", threshold)
+            .append("directory", directory)
+            .build();
+    }
+}
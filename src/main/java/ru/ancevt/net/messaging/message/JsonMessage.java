@@ -0,0 +1,250 @@
+package ru.ancevt.net.messaging.message;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import ru.ancevt.net.messaging.buffer.BufferPool;
+import ru.ancevt.net.messaging.buffer.FrameBuffer;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Message whose payload is a JSON document in UTF-8, the same bytes a {@link UTF8Message} carrying the JSON text
+ * would have. The document is serialized straight into the frame buffer and parsed straight from the frame, without
+ * an intermediate String.
+ * <p>
+ * A received frame is parsed on the first access to its value. Use {@link #of(MessageData)} in listeners: it keeps
+ * the message on the frame, so every listener of the frame gets the same message and the payload is parsed once.
+ * The frame has to be accessible when the value is first read.
+ *
+ * @author ancevt
+ */
+public class JsonMessage extends Message {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final MessageData received;
+    private Object value;
+    private boolean parsed;
+    private int capacityHint;
+
+    public JsonMessage(JSONObject object) {
+        this((Object) object);
+    }
+
+    public JsonMessage(JSONArray array) {
+        this((Object) array);
+    }
+
+    private JsonMessage(Object value) {
+        super();
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        this.value = value;
+        this.parsed = true;
+        this.received = null;
+        this.capacityHint = INITIAL_CAPACITY;
+    }
+
+    /**
+     * Wraps a received frame without parsing it yet.
+     */
+    public JsonMessage(MessageData messageData) {
+        super(messageData);
+        this.received = messageData;
+        this.capacityHint = Math.max(INITIAL_CAPACITY, messageData.length());
+    }
+
+    /**
+     * Returns the message attached to the frame by an earlier call, or wraps the frame and attaches the new message.
+     */
+    public static JsonMessage of(MessageData messageData) {
+        final Object attachment = messageData.attachment();
+        if (attachment instanceof JsonMessage) {
+            return (JsonMessage) attachment;
+        }
+        final JsonMessage message = new JsonMessage(messageData);
+        messageData.attach(message);
+        return message;
+    }
+
+    /**
+     * @return {@link JSONObject}, {@link JSONArray} or, for a payload that is neither, whatever value it holds
+     * @throws MessagingException if the payload is not valid JSON
+     */
+    public synchronized Object getValue() {
+        if (!parsed) {
+            value = parse(received);
+            parsed = true;
+        }
+        return value;
+    }
+
+    public JSONObject getJsonObject() {
+        final Object result = getValue();
+        if (!(result instanceof JSONObject)) {
+            throw new MessagingException("Payload is not a JSON object: " + this);
+        }
+        return (JSONObject) result;
+    }
+
+    public JSONArray getJsonArray() {
+        final Object result = getValue();
+        if (!(result instanceof JSONArray)) {
+            throw new MessagingException("Payload is not a JSON array: " + this);
+        }
+        return (JSONArray) result;
+    }
+
+    private static Object parse(MessageData messageData) {
+        try (InputStream inputStream = messageData.getInputStream()) {
+            if (inputStream.skip(Message.HEADERS_SIZE) != Message.HEADERS_SIZE) {
+                throw new MessagingException("Frame is too short " + messageData);
+            }
+            final JSONTokener tokener = new JSONTokener(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+            final Object result = tokener.nextValue();
+            if (tokener.nextClean() != 0) {
+                throw new MessagingException("Trailing characters after JSON value in " + messageData);
+            }
+            return result;
+        } catch (JSONException ex) {
+            throw new MessagingException("Invalid JSON in " + messageData + ": " + ex.getMessage());
+        } catch (IOException ex) {
+            throw new MessagingException("Unable to read " + messageData + ": " + ex);
+        }
+    }
+
+    @Override
+    public Message prepare() {
+        final Object document = getValue();
+        final BufferPool bufferPool = getBufferPool();
+        final FrameBuffer initial = bufferPool != null
+            ? bufferPool.acquire(capacityHint)
+            : FrameBuffer.wrap(new byte[capacityHint]);
+
+        final BinaryWriter writer = new BinaryWriter();
+        writer.begin(bufferPool, initial);
+        try {
+            final FrameWriter frameWriter = new FrameWriter(writer);
+            if (document instanceof JSONObject) {
+                ((JSONObject) document).write(frameWriter);
+            } else if (document instanceof JSONArray) {
+                ((JSONArray) document).write(frameWriter);
+            } else {
+                frameWriter.write(JSONObject.valueToString(document));
+            }
+            frameWriter.flush();
+        } catch (JSONException ex) {
+            writer.abort();
+            initial.release();
+            throw new MessagingException("Unable to serialize JSON: " + ex.getMessage());
+        } catch (RuntimeException ex) {
+            writer.abort();
+            initial.release();
+            throw ex;
+        }
+
+        final int frameLength = writer.finish(getRequestId());
+        final FrameBuffer written = writer.frameBuffer();
+        if (written != initial) {
+            initial.release();
+        }
+        final MessageData messageData = new MessageData(bufferPool);
+        messageData.setBuffer(written, frameLength);
+        capacityHint = Math.max(INITIAL_CAPACITY, frameLength);
+
+        if (received == null) {
+            release();
+        }
+        setMessageData(messageData);
+        return this;
+    }
+
+    /**
+     * Collects the small writes of the JSON serializer and encodes them into the frame in chunks. A chunk never ends
+     * between the two chars of a surrogate pair.
+     */
+    private static final class FrameWriter extends Writer {
+
+        private static final int CHUNK_SIZE = 1024;
+
+        private final BinaryWriter writer;
+        private final StringBuilder chunk;
+
+        private FrameWriter(BinaryWriter writer) {
+            this.writer = writer;
+            this.chunk = new StringBuilder(CHUNK_SIZE + 16);
+        }
+
+        @Override
+        public void write(int c) {
+            chunk.append((char) c);
+            flushFullChunk();
+        }
+
+        @Override
+        public void write(String text) {
+            chunk.append(text);
+            flushFullChunk();
+        }
+
+        @Override
+        public void write(String text, int offset, int count) {
+            chunk.append(text, offset, offset + count);
+            flushFullChunk();
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int count) {
+            chunk.append(chars, offset, count);
+            flushFullChunk();
+        }
+
+        @Override
+        public Writer append(CharSequence text) {
+            chunk.append(text);
+            flushFullChunk();
+            return this;
+        }
+
+        private void flushFullChunk() {
+            if (chunk.length() < CHUNK_SIZE) {
+                return;
+            }
+            final int last = chunk.length() - 1;
+            if (Character.isHighSurrogate(chunk.charAt(last))) {
+                writer.writeUtf8(chunk.subSequence(0, last));
+                chunk.delete(0, last);
+            } else {
+                writer.writeUtf8(chunk);
+                chunk.setLength(0);
+            }
+        }
+
+        @Override
+        public void flush() {
+            writer.writeUtf8(chunk);
+            chunk.setLength(0);
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("requestId", getRequestId())
+            .append("length", length())
+            .append("parsed", parsed)
+            .build();
+    }
+}
@@ -1,10 +1,10 @@
 package ru.ancevt.net.messaging.message;
 
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
-import java.io.IOException;
 import java.io.InputStream;
-import ru.ancevt.net.messaging.Log;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import ru.ancevt.net.messaging.buffer.BufferPool;
 import ru.ancevt.util.string.ToStringBuilder;
 
 /**
@@ -14,11 +14,40 @@ import ru.ancevt.util.string.ToStringBuilder;
 public abstract class Message {
 
     public static final int SIGNATURE = 0xFF;
+    /**
+     * Signature of a frame whose payload is deflated.
+     *
+     * @see ru.ancevt.net.messaging.compression.FrameCompressor
+     */
+    public static final int COMPRESSED_SIGNATURE = 0xFE;
+    /**
+     * Signature of a frame carrying a fragment of a larger frame.
+     *
+     * @see FrameReassembler
+     */
+    public static final int FRAGMENT_SIGNATURE = 0xFC;
+    /**
+     * Signature of a header-only frame checking that the peer is alive, request id {@link #PING} or {@link #PONG}.
+     * Such frames never reach the listeners.
+     *
+     * @see ru.ancevt.net.messaging.HeartbeatConfig
+     */
+    public static final int HEARTBEAT_SIGNATURE = 0xFB;
+    public static final int PING = 0;
+    public static final int PONG = 1;
+    /**
+     * Signature of a frame establishing or acknowledging a resumable session. Such frames never reach the listeners.
+     *
+     * @see ru.ancevt.net.messaging.Session
+     */
+    public static final int SESSION_SIGNATURE = 0xFA;
     public static final int HEADERS_SIZE = 9;
+    public static final int FRAGMENT_HEADERS_SIZE = HEADERS_SIZE + 8;
 
-    private static int idCounter;
+    private static final AtomicInteger idCounter = new AtomicInteger();
 
     private MessageData messageData;
+    private BufferPool bufferPool;
 
     private InputStream inputStream;
     private DataInputStream dataInputStream;
@@ -26,27 +55,30 @@ public abstract class Message {
     private int requestId;
 
     public Message() {
-        requestId = ++idCounter;
+        // never negative, those belong to requests
+        requestId = idCounter.incrementAndGet() & Integer.MAX_VALUE;
     }
 
     public Message(MessageData messageData) {
         this();
-        try {
-            this.messageData = messageData;
-
-            final int sign = getDataInputStream().readUnsignedByte();
+        this.messageData = messageData;
 
-            if (sign != SIGNATURE) {
-                throw new MessagingException("Invalid message signature 0x" + Integer.toString(sign, 16));
-            }
+        // absolute reads, the frame position is left alone
+        final ByteBuffer buffer = messageData.buffer();
+        final int sign = buffer.get(0) & 0xFF;
 
-            getDataInputStream().skip(4);
-            this.requestId = getDataInputStream().readInt();
-        } catch (IOException ex) {
-            Log.err(ex, ex);
+        if (sign != SIGNATURE) {
+            throw new MessagingException("Invalid message signature 0x" + Integer.toString(sign, 16));
         }
+
+        this.requestId = buffer.getInt(5);
     }
 
+    /**
+     * Negative ids are reserved for requests and their responses and are set by
+     * {@link ru.ancevt.net.messaging.MessagingConnection#request} and
+     * {@link ru.ancevt.net.messaging.MessagingConnection#reply}; sending a message with one otherwise fails.
+     */
     public void setRequestId(int requestId) {
         this.requestId = requestId;
     }
@@ -55,20 +87,42 @@ public abstract class Message {
         return requestId;
     }
 
+    /**
+     * Makes {@link #prepare()} build frames in buffers taken from the pool. The prepared frame is then owned by this
+     * message and is to be given back with {@link #release()}.
+     */
+    public final void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    public final BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Releases the frame held by this message.
+     */
+    public final void release() {
+        if (messageData != null) {
+            messageData.release();
+            messageData = null;
+        }
+    }
+
     protected final void setMessageData(MessageData messageData) {
         this.messageData = messageData;
     }
 
     public final MessageData getMessageData() {
         if (messageData == null) {
-            messageData = new MessageData();
+            messageData = new MessageData(bufferPool);
         }
 
         return messageData;
     }
 
     public final InputStream getInputStream() {
-        return inputStream == null ? inputStream = new ByteArrayInputStream(getMessageData().getBytes()) : inputStream;
+        return inputStream == null ? inputStream = getMessageData().getInputStream() : inputStream;
     }
 
     public final DataInputStream getDataInputStream() {
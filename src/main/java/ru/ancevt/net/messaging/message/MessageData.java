@@ -1,40 +1,309 @@
 package ru.ancevt.net.messaging.message;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import ru.ancevt.net.messaging.buffer.BufferPool;
+import ru.ancevt.net.messaging.buffer.FrameBuffer;
 import ru.ancevt.util.string.ToStringBuilder;
 
 /**
+ * Whole frame, headers included. May be backed by a plain array or by a pooled {@link FrameBuffer}.
+ * <p>
+ * Frames received by a connection with a buffer pool, and spooled ones, are released right after the listeners
+ * return. A listener that needs such a frame later must call {@link #retain()} and {@link #release()} it when done.
+ * Frames of plain arrays are left to the garbage collector and may be kept as they are.
+ *
  * @author ancevt
  */
 public class MessageData {
 
-    private byte[] data;
+    private final BufferPool bufferPool;
+    private FrameBuffer buffer;
+    private int length;
+    private Object attachment;
 
     public MessageData() {
+        this(null);
+    }
+
+    /**
+     * @param bufferPool pool to take frame buffers from, null for plain arrays
+     */
+    public MessageData(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Allocates an empty frame of the given size. Contents are to be written through {@link #buffer()}.
+     */
+    public static MessageData allocate(BufferPool bufferPool, int frameLength) {
+        final MessageData messageData = new MessageData(bufferPool);
+        messageData.setBuffer(
+            bufferPool != null ? bufferPool.acquire(frameLength) : FrameBuffer.wrap(new byte[frameLength]),
+            frameLength
+        );
+        return messageData;
+    }
 
+    /**
+     * Takes over the reference to a buffer that already holds a whole frame of the given length.
+     */
+    public static MessageData wrap(FrameBuffer frameBuffer, int frameLength) {
+        final MessageData messageData = new MessageData();
+        messageData.setBuffer(frameBuffer, frameLength);
+        return messageData;
+    }
+
+    /**
+     * Allocates a heartbeat frame.
+     *
+     * @param requestId {@link Message#PING} or {@link Message#PONG}
+     */
+    public static MessageData heartbeat(BufferPool bufferPool, int requestId) {
+        final MessageData messageData = allocate(bufferPool, Message.HEADERS_SIZE);
+        final ByteBuffer frame = messageData.buffer();
+        frame.put((byte) Message.HEARTBEAT_SIGNATURE);
+        frame.putInt(Message.HEADERS_SIZE);
+        frame.putInt(requestId);
+        return messageData;
     }
 
     public final void setBytes(int requestId, byte[] data) throws IOException {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            DataOutputStream dos = new DataOutputStream(baos)) {
+        final int frameLength = data.length + Message.HEADERS_SIZE;
 
-            baos.write(Message.SIGNATURE);         // 1
-            dos.writeInt(data.length + 1 + 4 + 4); // 4
-            dos.writeInt(requestId);               // 4
-            dos.write(data);                       // ?
+        if (bufferPool == null) {
+            final byte[] frame = new byte[frameLength];
+            writeHeaders(frame, requestId);
+            System.arraycopy(data, 0, frame, Message.HEADERS_SIZE, data.length);
+            setBuffer(FrameBuffer.wrap(frame), frameLength);
+        } else {
+            final FrameBuffer frameBuffer = bufferPool.acquire(frameLength);
+            final ByteBuffer target = frameBuffer.nioBuffer().duplicate();
+            target.clear();
+            writeHeaders(target, frameLength, requestId);
+            target.put(data);
+            setBuffer(frameBuffer, frameLength);
+        }
+    }
 
-            this.data = baos.toByteArray();
+    /**
+     * Uses the given array as the whole frame, headers included, without copying it.
+     */
+    public final void setFrame(byte[] frame) {
+        if (frame.length < Message.HEADERS_SIZE || (frame[0] & 0xFF) != Message.SIGNATURE) {
+            throw new MessagingException("Invalid frame");
         }
+        setBuffer(FrameBuffer.wrap(frame), frame.length);
+    }
+
+    /**
+     * Replaces the frame, releasing the previous buffer unless it is the same one.
+     */
+    void setBuffer(FrameBuffer buffer, int length) {
+        if (this.buffer != null && this.buffer != buffer) {
+            this.buffer.release();
+        }
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    /**
+     * Writes signature, size of the whole array and request id into the first {@link Message#HEADERS_SIZE} bytes.
+     */
+    public static void writeHeaders(byte[] frame, int requestId) {
+        frame[0] = (byte) Message.SIGNATURE;   // 1
+        writeInt(frame, 1, frame.length);      // 4
+        writeInt(frame, 5, requestId);         // 4
+    }
+
+    /**
+     * Writes the headers at the current position of the buffer.
+     */
+    public static void writeHeaders(ByteBuffer frame, int frameLength, int requestId) {
+        frame.put((byte) Message.SIGNATURE);
+        frame.putInt(frameLength);
+        frame.putInt(requestId);
+    }
+
+    static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24)
+            | ((bytes[offset + 1] & 0xFF) << 16)
+            | ((bytes[offset + 2] & 0xFF) << 8)
+            | (bytes[offset + 3] & 0xFF);
+    }
+
+    public int getRequestId() {
+        return frameBuffer().nioBuffer().getInt(5);
+    }
+
+    /**
+     * @return true if the frame is a fragment of a larger one
+     */
+    public boolean isFragment() {
+        return (frameBuffer().nioBuffer().get(0) & 0xFF) == Message.FRAGMENT_SIGNATURE;
+    }
+
+    /**
+     * @return true if the frame is a ping or a pong
+     */
+    public boolean isHeartbeat() {
+        return (frameBuffer().nioBuffer().get(0) & 0xFF) == Message.HEARTBEAT_SIGNATURE;
     }
 
+    /**
+     * @return true if the frame belongs to the handshake or the acknowledgements of a session
+     */
+    public boolean isSessionFrame() {
+        return (frameBuffer().nioBuffer().get(0) & 0xFF) == Message.SESSION_SIGNATURE;
+    }
+
+    /**
+     * @return true if the payload of the frame is deflated and has to be inflated before use
+     */
+    public boolean isCompressed() {
+        return (frameBuffer().nioBuffer().get(0) & 0xFF) == Message.COMPRESSED_SIGNATURE;
+    }
+
+    /**
+     * Backing buffer or null if there is none yet, without checking whether it has been released.
+     */
+    FrameBuffer peekBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Backing buffer. Holders that outlive the current call must {@link FrameBuffer#retain()} it.
+     */
+    public final FrameBuffer frameBuffer() {
+        if (buffer == null) {
+            throw new IllegalStateException("MessageData is empty");
+        }
+        if (!buffer.isAccessible()) {
+            throw new IllegalStateException("MessageData was released");
+        }
+        return buffer;
+    }
+
+    /**
+     * @return new view of the frame positioned at its first byte and limited by its length
+     */
+    public final ByteBuffer buffer() {
+        final ByteBuffer view = frameBuffer().nioBuffer().duplicate();
+        view.clear().limit(length);
+        return view;
+    }
+
+    /**
+     * Returns the frame as an array of exactly {@link #length()} bytes. No copy is made for frames backed by a
+     * plain array, pooled frames are copied.
+     */
     public byte[] getBytes() {
-        return data;
+        final FrameBuffer frameBuffer = frameBuffer();
+        if (!frameBuffer.isPooled() && frameBuffer.hasArray() && frameBuffer.array().length == length) {
+            return frameBuffer.array();
+        }
+        final byte[] bytes = new byte[length];
+        buffer().get(bytes);
+        return bytes;
+    }
+
+    public InputStream getInputStream() {
+        final FrameBuffer frameBuffer = frameBuffer();
+        if (frameBuffer.hasArray()) {
+            return new ByteArrayInputStream(frameBuffer.array(), 0, length);
+        }
+        return new ByteBufferInputStream(buffer());
     }
 
     public int length() {
-        return data.length;
+        return length;
+    }
+
+    /**
+     * Attaches an object decoded from this frame, so that every listener of the frame can reuse it instead of
+     * decoding the frame again. Listeners of a frame run one after another, so no synchronization is needed.
+     */
+    public final void attach(Object attachment) {
+        this.attachment = attachment;
+    }
+
+    public final Object attachment() {
+        return attachment;
+    }
+
+    public final MessageData retain() {
+        frameBuffer().retain();
+        return this;
+    }
+
+    /**
+     * @return true if the last reference to the frame has been released
+     */
+    public final boolean release() {
+        return buffer != null && buffer.release();
+    }
+
+    /**
+     * @return false for a frame of a plain array, which needs no release
+     * @see FrameBuffer#isReleasable()
+     */
+    public final boolean isReleasable() {
+        return buffer != null && buffer.isReleasable();
+    }
+
+    public final int refCount() {
+        return buffer != null ? buffer.refCount() : 0;
+    }
+
+    /**
+     * Reads a direct or mapped frame in place instead of copying all of it to the heap first.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int count) {
+            if (count == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int read = Math.min(count, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long count) {
+            final int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
     }
 
     @Override
@@ -1,58 +1,124 @@
 package ru.ancevt.net.messaging.message;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import ru.ancevt.net.messaging.Log;
-import ru.ancevt.util.fs.SimpleFileReader;
+import java.nio.ByteBuffer;
+import ru.ancevt.net.messaging.buffer.FrameBuffer;
 import ru.ancevt.util.string.ToStringBuilder;
 
 /**
+ * Message carrying a text encoded in UTF-8.
+ * <p>
+ * A received frame is decoded on the first {@link #getText()}, which has to happen while the frame is accessible,
+ * and only once per frame however many messages wrap it; {@link #of(MessageData)} even returns the same message to
+ * every listener of the frame. An encoded frame is reused when the message is sent again, received messages
+ * included.
  *
  * @author ancevt
  */
 public class UTF8Message extends Message {
 
     private String text;
+    private boolean ownsFrame;
+    private boolean encoded;
+    private int encodedRequestId;
 
     public UTF8Message(String text) throws IOException {
         super();
         this.text = text;
     }
 
+    /**
+     * Wraps a received frame without decoding it yet.
+     */
     public UTF8Message(MessageData messageData) {
         super(messageData);
+        this.encoded = true;
+        this.encodedRequestId = getRequestId();
+    }
 
-        try {
-            this.text = SimpleFileReader.readUtf8(getInputStream());
-        } catch (IOException ex) {
-            Log.err(ex, ex);
-            text = "error";
+    /**
+     * Returns the message attached to the frame by an earlier call, or wraps the frame and attaches the new message.
+     */
+    public static UTF8Message of(MessageData messageData) {
+        final Object attachment = messageData.attachment();
+        if (attachment instanceof UTF8Message) {
+            return (UTF8Message) attachment;
         }
+        final UTF8Message message = new UTF8Message(messageData);
+        messageData.attach(message);
+        return message;
     }
 
     public final String getText() {
+        if (text == null && encoded) {
+            text = decode(getMessageData());
+        }
         return text;
     }
 
+    private String decode(MessageData messageData) {
+        final Object attachment = messageData.attachment();
+        if (attachment instanceof UTF8Message && ((UTF8Message) attachment).text != null) {
+            return ((UTF8Message) attachment).text;
+        }
+
+        final ByteBuffer payload = messageData.buffer();
+        payload.position(Message.HEADERS_SIZE);
+        final String result = Utf8.decode(payload);
+        if (attachment == null) {
+            messageData.attach(this);
+        }
+        return result;
+    }
+
     @Override
     public String toString() {
         return new ToStringBuilder(this)
             .append("requestId", getRequestId())
             .append("length", length())
-            .append("text")
+            .append("text", text)
             .build();
     }
 
     @Override
     public Message prepare() {
-        try {
-            try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-                baos.write(text.getBytes());
-                getMessageData().setBytes(getRequestId(), baos.toByteArray());
-            }
-        } catch (IOException ex) {
-            Log.logger.error(ex);
+        final MessageData current = getMessageData();
+        final FrameBuffer frameBuffer = current.peekBuffer();
+        final boolean reusable = encoded && frameBuffer != null && frameBuffer.isAccessible();
+
+        if (reusable && getRequestId() == encodedRequestId) {
+            return this;
+        }
+        if (reusable && ownsFrame && frameBuffer.refCount() == 1) {
+            // nobody else holds the frame, only the request id changes
+            frameBuffer.nioBuffer().putInt(5, getRequestId());
+            encodedRequestId = getRequestId();
+            return this;
+        }
+
+        final MessageData messageData;
+        if (reusable) {
+            messageData = MessageData.allocate(getBufferPool(), current.length());
+            final ByteBuffer frame = messageData.buffer();
+            frame.put(current.buffer());
+            frame.putInt(5, getRequestId());
+        } else {
+            final String value = getText();
+            final int frameLength = Message.HEADERS_SIZE + Utf8.encodedLength(value);
+            messageData = MessageData.allocate(getBufferPool(), frameLength);
+            final ByteBuffer frame = messageData.buffer();
+            MessageData.writeHeaders(frame, frameLength, getRequestId());
+            Utf8.encode(value, frame);
+        }
+
+        if (ownsFrame) {
+            // a received frame belongs to the connection, only the frames made here are released
+            release();
         }
+        setMessageData(messageData);
+        ownsFrame = true;
+        encoded = true;
+        encodedRequestId = getRequestId();
         return this;
     }
 
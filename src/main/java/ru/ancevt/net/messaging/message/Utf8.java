@@ -0,0 +1,128 @@
+package ru.ancevt.net.messaging.message;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * UTF-8 encoding of chars straight into frame buffers. Lone surrogates are written as '?', the way
+ * {@link String#getBytes(java.nio.charset.Charset)} does it.
+ *
+ * @author ancevt
+ */
+final class Utf8 {
+
+    private Utf8() {
+    }
+
+    static int encodedLength(CharSequence value) {
+        final int length = value.length();
+        int encodedLength = length;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    encodedLength++;
+                } else if (Character.isSurrogate(c)) {
+                    if (isPair(value, i)) {
+                        // four bytes for the pair
+                        encodedLength += 2;
+                        i++;
+                    }
+                } else {
+                    encodedLength += 2;
+                }
+            }
+        }
+        return encodedLength;
+    }
+
+    /**
+     * Encodes at the position of the buffer, which must have {@link #encodedLength(CharSequence)} bytes remaining.
+     */
+    static void encode(CharSequence value, ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            final int offset = buffer.arrayOffset() + buffer.position();
+            final int end = encode(value, buffer.array(), offset);
+            buffer.position(buffer.position() + end - offset);
+            return;
+        }
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (isPair(value, i)) {
+                    final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer.put((byte) (0xF0 | codePoint >> 18));
+                    buffer.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                    buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                    buffer.put((byte) (0x80 | codePoint & 0x3F));
+                } else {
+                    buffer.put((byte) '?');
+                }
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * @return index in the array after the last byte written
+     */
+    private static int encode(CharSequence value, byte[] bytes, int offset) {
+        final int length = value.length();
+        int i = 0;
+        // plain ASCII, the usual case, needs no branching beyond this loop
+        for (char c; i < length && (c = value.charAt(i)) < 0x80; i++) {
+            bytes[offset++] = (byte) c;
+        }
+        for (; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[offset++] = (byte) (0xC0 | c >> 6);
+                bytes[offset++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                if (isPair(value, i)) {
+                    final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    bytes[offset++] = (byte) (0xF0 | codePoint >> 18);
+                    bytes[offset++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    bytes[offset++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    bytes[offset++] = (byte) (0x80 | codePoint & 0x3F);
+                } else {
+                    bytes[offset++] = (byte) '?';
+                }
+            } else {
+                bytes[offset++] = (byte) (0xE0 | c >> 12);
+                bytes[offset++] = (byte) (0x80 | c >> 6 & 0x3F);
+                bytes[offset++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return offset;
+    }
+
+    private static boolean isPair(CharSequence value, int index) {
+        return Character.isHighSurrogate(value.charAt(index))
+            && index + 1 < value.length()
+            && Character.isLowSurrogate(value.charAt(index + 1));
+    }
+
+    /**
+     * Decodes the bytes from the position to the limit of the buffer, which is left unchanged.
+     */
+    static String decode(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+        }
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,87 @@
+package ru.ancevt.net.messaging.metrics;
+
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Immutable state of a {@link Histogram}. Taken without locking, so under concurrent recording the count, the sum and
+ * the maximum may be off by the values recorded while the snapshot was being taken.
+ *
+ * @author ancevt
+ */
+public final class HistogramSnapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    HistogramSnapshot(long[] counts, long sum, long max) {
+        this.counts = counts;
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        this.count = total;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param quantile value from 0 to 1
+     * @return upper bound of the bucket holding the quantile, never above the recorded maximum
+     */
+    public long getValueAtQuantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("quantile must be from 0 to 1: " + quantile);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                final long upper = i == 0 ? 0 : i >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                return Math.min(upper, max);
+            }
+        }
+        return max;
+    }
+
+    public long getMedian() {
+        return getValueAtQuantile(0.5);
+    }
+
+    public long get99thPercentile() {
+        return getValueAtQuantile(0.99);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .appendAll(
+                "count",
+                "mean",
+                "median",
+                "99thPercentile",
+                "max"
+            ).build();
+    }
+}
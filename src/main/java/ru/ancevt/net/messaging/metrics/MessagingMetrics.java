@@ -0,0 +1,246 @@
+package ru.ancevt.net.messaging.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import ru.ancevt.net.messaging.Log;
+
+/**
+ * Counters shared by all connections of a server or a client. Every update is a striped lock-free addition, so
+ * connections running on different threads do not contend; values are summed up only when read.
+ * <p>
+ * Read the values through the getters, {@link #snapshot()} or JMX once {@link #registerMBean(String, String)} is called.
+ *
+ * @author ancevt
+ */
+public class MessagingMetrics implements MessagingMetricsMXBean {
+
+    public static final String JMX_DOMAIN = "ru.ancevt.net.messaging";
+
+    private final LongAdder messagesReceived;
+    private final LongAdder bytesReceived;
+    private final LongAdder messagesSent;
+    private final LongAdder bytesSent;
+    private final LongAdder activeConnections;
+    private final Meter accepts;
+    private final Histogram receivedFrameSize;
+    private final Histogram sentFrameSize;
+    private final Histogram dispatchLatency;
+    private final LongSupplier outboundQueueDepth;
+    private volatile ObjectName objectName;
+
+    public MessagingMetrics() {
+        this(() -> 0);
+    }
+
+    /**
+     * @param outboundQueueDepth gauge returning the number of frames waiting to be written, read on demand only
+     */
+    public MessagingMetrics(LongSupplier outboundQueueDepth) {
+        this.outboundQueueDepth = outboundQueueDepth;
+        messagesReceived = new LongAdder();
+        bytesReceived = new LongAdder();
+        messagesSent = new LongAdder();
+        bytesSent = new LongAdder();
+        activeConnections = new LongAdder();
+        accepts = new Meter();
+        receivedFrameSize = new Histogram();
+        sentFrameSize = new Histogram();
+        dispatchLatency = new Histogram();
+    }
+
+    public void frameReceived(int length) {
+        messagesReceived.increment();
+        bytesReceived.add(length);
+        receivedFrameSize.record(length);
+    }
+
+    public void frameSent(int length) {
+        messagesSent.increment();
+        bytesSent.add(length);
+        sentFrameSize.record(length);
+    }
+
+    public void frameDispatched(long latencyNanos) {
+        dispatchLatency.record(latencyNanos);
+    }
+
+    public void connectionAccepted() {
+        accepts.mark();
+    }
+
+    public void connectionOpened() {
+        activeConnections.increment();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return accepts.getCount();
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    @Override
+    public double getAcceptRate() {
+        return accepts.getOneMinuteRate();
+    }
+
+    @Override
+    public long getOutboundQueueDepth() {
+        return outboundQueueDepth.getAsLong();
+    }
+
+    public Histogram getReceivedFrameSize() {
+        return receivedFrameSize;
+    }
+
+    public Histogram getSentFrameSize() {
+        return sentFrameSize;
+    }
+
+    public Histogram getDispatchLatency() {
+        return dispatchLatency;
+    }
+
+    @Override
+    public double getReceivedFrameSizeMean() {
+        return receivedFrameSize.snapshot().getMean();
+    }
+
+    @Override
+    public long getReceivedFrameSize99thPercentile() {
+        return receivedFrameSize.snapshot().get99thPercentile();
+    }
+
+    @Override
+    public long getReceivedFrameSizeMax() {
+        return receivedFrameSize.snapshot().getMax();
+    }
+
+    @Override
+    public double getSentFrameSizeMean() {
+        return sentFrameSize.snapshot().getMean();
+    }
+
+    @Override
+    public long getSentFrameSize99thPercentile() {
+        return sentFrameSize.snapshot().get99thPercentile();
+    }
+
+    @Override
+    public long getSentFrameSizeMax() {
+        return sentFrameSize.snapshot().getMax();
+    }
+
+    @Override
+    public double getDispatchLatencyMean() {
+        return dispatchLatency.snapshot().getMean();
+    }
+
+    @Override
+    public long getDispatchLatencyMedian() {
+        return dispatchLatency.snapshot().getMedian();
+    }
+
+    @Override
+    public long getDispatchLatency99thPercentile() {
+        return dispatchLatency.snapshot().get99thPercentile();
+    }
+
+    @Override
+    public long getDispatchLatencyMax() {
+        return dispatchLatency.snapshot().getMax();
+    }
+
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(this);
+    }
+
+    /**
+     * Zeroes the message and byte counters and the histograms. Connection counts are left as they are.
+     */
+    @Override
+    public void reset() {
+        messagesReceived.reset();
+        bytesReceived.reset();
+        messagesSent.reset();
+        bytesSent.reset();
+        receivedFrameSize.reset();
+        sentFrameSize.reset();
+        dispatchLatency.reset();
+    }
+
+    /**
+     * Registers these metrics in the platform MBean server as {@code ru.ancevt.net.messaging:type=<type>,name=<name>}.
+     * Failures are logged, not thrown.
+     *
+     * @return true if registered
+     */
+    public synchronized boolean registerMBean(String type, String name) {
+        unregisterMBean();
+        try {
+            final ObjectName on = new ObjectName(JMX_DOMAIN + ":type=" + ObjectName.quote(type) + ",name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+            objectName = on;
+            return true;
+        } catch (JMException ex) {
+            Log.logger.warn("Unable to register metrics MBean " + type + " " + name + ": " + ex);
+            return false;
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        final ObjectName on = objectName;
+        if (on == null) {
+            return;
+        }
+        objectName = null;
+        try {
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (mBeanServer.isRegistered(on)) {
+                mBeanServer.unregisterMBean(on);
+            }
+        } catch (JMException ex) {
+            Log.logger.warn("Unable to unregister metrics MBean " + on + ": " + ex);
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
@@ -0,0 +1,47 @@
+package ru.ancevt.net.messaging.metrics;
+
+/**
+ * JMX view of {@link MessagingMetrics}. Sizes are in bytes, latencies in nanoseconds.
+ *
+ * @author ancevt
+ */
+public interface MessagingMetricsMXBean {
+
+    long getMessagesReceived();
+
+    long getBytesReceived();
+
+    long getMessagesSent();
+
+    long getBytesSent();
+
+    long getAcceptedConnections();
+
+    long getActiveConnections();
+
+    double getAcceptRate();
+
+    long getOutboundQueueDepth();
+
+    double getReceivedFrameSizeMean();
+
+    long getReceivedFrameSize99thPercentile();
+
+    long getReceivedFrameSizeMax();
+
+    double getSentFrameSizeMean();
+
+    long getSentFrameSize99thPercentile();
+
+    long getSentFrameSizeMax();
+
+    double getDispatchLatencyMean();
+
+    long getDispatchLatencyMedian();
+
+    long getDispatchLatency99thPercentile();
+
+    long getDispatchLatencyMax();
+
+    void reset();
+}
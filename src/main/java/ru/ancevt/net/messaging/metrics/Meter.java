@@ -0,0 +1,77 @@
+package ru.ancevt.net.messaging.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events and tracks their one-minute exponentially weighted rate. Marking is a single striped addition; the
+ * average is brought up to date lazily by whichever thread reads it.
+ *
+ * @author ancevt
+ */
+public final class Meter {
+
+    private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private static final double ALPHA = 1 - Math.exp(-5.0 / 60.0);
+    private static final int MAX_DECAY_TICKS = 120;
+
+    private final LongAdder count;
+    private final LongAdder uncounted;
+    private final AtomicLong lastTick;
+    private final long startTime;
+    private volatile double rate;
+    private volatile boolean initialized;
+
+    public Meter() {
+        count = new LongAdder();
+        uncounted = new LongAdder();
+        startTime = System.nanoTime();
+        lastTick = new AtomicLong(startTime);
+    }
+
+    public void mark() {
+        count.increment();
+        uncounted.increment();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return events per second averaged over the last minute
+     */
+    public double getOneMinuteRate() {
+        tickIfNecessary();
+        return rate;
+    }
+
+    /**
+     * @return events per second since the meter was created
+     */
+    public double getMeanRate() {
+        final long elapsed = System.nanoTime() - startTime;
+        return elapsed <= 0 ? 0 : getCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    private void tickIfNecessary() {
+        final long oldTick = lastTick.get();
+        final long ticks = (System.nanoTime() - oldTick) / TICK_INTERVAL;
+        if (ticks <= 0 || !lastTick.compareAndSet(oldTick, oldTick + ticks * TICK_INTERVAL)) {
+            return;
+        }
+        final double perSecond = (double) TimeUnit.SECONDS.toNanos(1) / TICK_INTERVAL;
+        double current = rate;
+        for (long i = 0; i < Math.min(ticks, MAX_DECAY_TICKS); i++) {
+            final double instantRate = (i == 0 ? uncounted.sumThenReset() : 0) * perSecond;
+            if (initialized) {
+                current += ALPHA * (instantRate - current);
+            } else {
+                current = instantRate;
+                initialized = true;
+            }
+        }
+        rate = current;
+    }
+}
@@ -0,0 +1,120 @@
+package ru.ancevt.net.messaging.metrics;
+
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Immutable view of {@link MessagingMetrics} at one moment.
+ *
+ * @author ancevt
+ */
+public final class MetricsSnapshot {
+
+    private final long timestamp;
+    private final long messagesReceived;
+    private final long bytesReceived;
+    private final long messagesSent;
+    private final long bytesSent;
+    private final long acceptedConnections;
+    private final long activeConnections;
+    private final double acceptRate;
+    private final long outboundQueueDepth;
+    private final HistogramSnapshot receivedFrameSize;
+    private final HistogramSnapshot sentFrameSize;
+    private final HistogramSnapshot dispatchLatency;
+
+    MetricsSnapshot(MessagingMetrics metrics) {
+        timestamp = System.currentTimeMillis();
+        messagesReceived = metrics.getMessagesReceived();
+        bytesReceived = metrics.getBytesReceived();
+        messagesSent = metrics.getMessagesSent();
+        bytesSent = metrics.getBytesSent();
+        acceptedConnections = metrics.getAcceptedConnections();
+        activeConnections = metrics.getActiveConnections();
+        acceptRate = metrics.getAcceptRate();
+        outboundQueueDepth = metrics.getOutboundQueueDepth();
+        receivedFrameSize = metrics.getReceivedFrameSize().snapshot();
+        sentFrameSize = metrics.getSentFrameSize().snapshot();
+        dispatchLatency = metrics.getDispatchLatency().snapshot();
+    }
+
+    /**
+     * @return time the snapshot was taken, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getMessagesSent() {
+        return messagesSent;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getAcceptedConnections() {
+        return acceptedConnections;
+    }
+
+    public long getActiveConnections() {
+        return activeConnections;
+    }
+
+    /**
+     * @return connections accepted per second, averaged over the last minute
+     */
+    public double getAcceptRate() {
+        return acceptRate;
+    }
+
+    public long getOutboundQueueDepth() {
+        return outboundQueueDepth;
+    }
+
+    /**
+     * @return sizes of received frames in bytes, headers included
+     */
+    public HistogramSnapshot getReceivedFrameSize() {
+        return receivedFrameSize;
+    }
+
+    /**
+     * @return sizes of sent frames in bytes, headers included
+     */
+    public HistogramSnapshot getSentFrameSize() {
+        return sentFrameSize;
+    }
+
+    /**
+     * @return nanoseconds from a frame being read to its listeners having returned
+     */
+    public HistogramSnapshot getDispatchLatency() {
+        return dispatchLatency;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .appendAll(
+                "messagesReceived",
+                "bytesReceived",
+                "messagesSent",
+                "bytesSent",
+                "acceptedConnections",
+                "activeConnections",
+                "acceptRate",
+                "outboundQueueDepth",
+                "receivedFrameSize",
+                "sentFrameSize",
+                "dispatchLatency"
+            ).build();
+    }
+}
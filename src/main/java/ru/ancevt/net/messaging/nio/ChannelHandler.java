@@ -0,0 +1,18 @@
+package ru.ancevt.net.messaging.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Callback attached to a channel registered in an {@link EventLoop}. All methods are invoked on the event loop thread.
+ *
+ * @author ancevt
+ */
+public interface ChannelHandler {
+
+    void channelRegistered(SelectionKey key);
+
+    void channelReady(SelectionKey key) throws IOException;
+
+    void channelFailed(Throwable ex);
+}
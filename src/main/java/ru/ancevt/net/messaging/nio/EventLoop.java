@@ -0,0 +1,178 @@
+package ru.ancevt.net.messaging.nio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import ru.ancevt.net.messaging.Log;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Single threaded selector loop. Serves any number of non-blocking channels, each one bound to its
+ * {@link ChannelHandler}. Tasks submitted from other threads are executed on the loop thread between selects.
+ *
+ * @author ancevt
+ */
+public class EventLoop implements Runnable, Closeable {
+
+    public static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks;
+    private final ByteBuffer readBuffer;
+    private volatile boolean running;
+    private volatile int channelCount;
+
+    public EventLoop(String name) throws IOException {
+        selector = Selector.open();
+        tasks = new ConcurrentLinkedQueue<>();
+        readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        thread = new Thread(this, name);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public String getName() {
+        return thread.getName();
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * Scratch buffer shared by all channels of this loop. Must be used on the loop thread only and must not be
+     * retained after the current callback returns.
+     */
+    public ByteBuffer getReadBuffer() {
+        return readBuffer;
+    }
+
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    public void register(SelectableChannel channel, int ops, ChannelHandler handler) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                final SelectionKey key = channel.register(selector, ops, handler);
+                handler.channelRegistered(key);
+            } catch (IOException ex) {
+                handler.channelFailed(ex);
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                channelCount = selector.keys().size();
+                processSelectedKeys();
+                runTasks();
+            }
+        } catch (IOException | RuntimeException ex) {
+            Log.err(ex, ex);
+        } finally {
+            closeChannels();
+        }
+    }
+
+    private void processSelectedKeys() {
+        final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            final SelectionKey key = iterator.next();
+            iterator.remove();
+
+            final ChannelHandler handler = (ChannelHandler) key.attachment();
+            try {
+                if (key.isValid()) {
+                    handler.channelReady(key);
+                }
+            } catch (IOException | RuntimeException ex) {
+                cancel(key);
+                handler.channelFailed(ex);
+            }
+            if (!key.isValid()) {
+                cancel(key);
+            }
+        }
+    }
+
+    private void cancel(SelectionKey key) {
+        if (key.attachment() != null) {
+            key.attach(null);
+            key.cancel();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                Log.err(ex, ex);
+            }
+        }
+    }
+
+    private void closeChannels() {
+        for (SelectionKey key : selector.keys()) {
+            final ChannelHandler handler = (ChannelHandler) key.attachment();
+            try {
+                key.channel().close();
+            } catch (IOException ex) {
+                Log.err(ex, ex);
+            }
+            if (handler != null) {
+                cancel(key);
+                handler.channelFailed(new ClosedChannelException());
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ex) {
+            Log.err(ex, ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("name", getName())
+            .append("channelCount")
+            .append("running")
+            .build();
+    }
+
+}
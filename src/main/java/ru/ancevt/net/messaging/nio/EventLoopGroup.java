@@ -0,0 +1,59 @@
+package ru.ancevt.net.messaging.nio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed set of {@link EventLoop}s. Channels are spread across the loops in round-robin order.
+ *
+ * @author ancevt
+ */
+public class EventLoopGroup implements Closeable {
+
+    private final EventLoop[] eventLoops;
+    private final AtomicInteger index;
+
+    public EventLoopGroup(int threads, String namePrefix) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        eventLoops = new EventLoop[threads];
+        index = new AtomicInteger();
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                eventLoops[i] = new EventLoop(namePrefix + "-" + i);
+            }
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.start();
+        }
+    }
+
+    public EventLoop next() {
+        return eventLoops[Math.floorMod(index.getAndIncrement(), eventLoops.length)];
+    }
+
+    public int size() {
+        return eventLoops.length;
+    }
+
+    public EventLoop get(int i) {
+        return eventLoops[i];
+    }
+
+    @Override
+    public void close() {
+        for (EventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.close();
+            }
+        }
+    }
+
+}
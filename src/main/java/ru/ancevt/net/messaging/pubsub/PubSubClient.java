@@ -0,0 +1,90 @@
+package ru.ancevt.net.messaging.pubsub;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import ru.ancevt.net.messaging.Log;
+import ru.ancevt.net.messaging.MessagingClientAdapter;
+import ru.ancevt.net.messaging.MessagingConnection;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.message.MessagingException;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Client side of {@link PubSubServer}: subscribes the connection to topics and passes published messages to
+ * {@link TopicListener}s. Other frames are left to the other listeners of the connection.
+ *
+ * @author ancevt
+ */
+public class PubSubClient {
+
+    private final MessagingConnection connection;
+    private final List<TopicListener> listeners;
+
+    public PubSubClient(MessagingConnection connection) {
+        this.connection = connection;
+        this.listeners = new CopyOnWriteArrayList<>();
+        connection.addMessagingConnectionListener(new MessagingClientAdapter() {
+            @Override
+            public void incomingMessageData(MessagingConnection connection, MessageData messageData) {
+                if (TopicMessage.isTopicMessage(messageData)) {
+                    dispatchTopicMessage(messageData);
+                }
+            }
+        });
+    }
+
+    public MessagingConnection getConnection() {
+        return connection;
+    }
+
+    public void addTopicListener(TopicListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeTopicListener(TopicListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @param pattern topic or prefix wildcard like {@code news.*}
+     */
+    public void subscribe(String pattern) throws IOException {
+        connection.send(TopicMessage.subscribe(pattern));
+    }
+
+    public void unsubscribe(String pattern) throws IOException {
+        connection.send(TopicMessage.unsubscribe(pattern));
+    }
+
+    public void publish(String topic, byte[] body) throws IOException {
+        connection.send(TopicMessage.publish(topic, body));
+    }
+
+    public void publish(String topic, String text) throws IOException {
+        connection.send(TopicMessage.publish(topic, text));
+    }
+
+    private void dispatchTopicMessage(MessageData messageData) {
+        final TopicMessage message;
+        try {
+            message = new TopicMessage(messageData);
+        } catch (MessagingException ex) {
+            Log.logger.warn("Malformed topic message on " + connection + ": " + ex.getMessage());
+            return;
+        }
+        if (message.getKind() != TopicMessage.PUBLISH) {
+            return;
+        }
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).topicMessage(connection, message);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("connection", connection)
+            .build();
+    }
+}
@@ -0,0 +1,147 @@
+package ru.ancevt.net.messaging.pubsub;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import ru.ancevt.net.messaging.Log;
+import ru.ancevt.net.messaging.MessagingClientAdapter;
+import ru.ancevt.net.messaging.MessagingConnection;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.message.MessagingException;
+import ru.ancevt.net.messaging.server.BroadcastResult;
+import ru.ancevt.net.messaging.server.MessagingServer;
+import ru.ancevt.net.messaging.server.MessagingServerAdapter;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Publish/subscribe on top of a {@link MessagingServer}. Connections subscribe by sending
+ * {@link TopicMessage#subscribe} frames; messages they publish are forwarded as received, without being decoded or
+ * encoded again, to every connection subscribed to the topic. Frames other than topic messages are left to the
+ * other listeners of the connection.
+ *
+ * @author ancevt
+ */
+public class PubSubServer {
+
+    private final MessagingServer server;
+    private final SubscriptionIndex index;
+    private final TopicHandler topicHandler;
+
+    public PubSubServer(MessagingServer server) {
+        this.server = server;
+        this.index = new SubscriptionIndex();
+        this.topicHandler = new TopicHandler();
+        server.addMessagingServerListener(new MessagingServerAdapter() {
+            @Override
+            public void acceptMessagingConnection(MessagingConnection connection) {
+                connection.addMessagingConnectionListener(topicHandler);
+            }
+
+            @Override
+            public void closeMessagingConnection(MessagingConnection connection, Throwable exception) {
+                index.unsubscribeAll(connection);
+            }
+        });
+    }
+
+    public MessagingServer getServer() {
+        return server;
+    }
+
+    public SubscriptionIndex getSubscriptionIndex() {
+        return index;
+    }
+
+    /**
+     * Subscribes a connection on behalf of the server.
+     */
+    public boolean subscribe(MessagingConnection connection, String pattern) {
+        final boolean subscribed = index.subscribe(connection, pattern);
+        if (!connection.isOpened()) {
+            // closed meanwhile, possibly after its subscriptions were dropped
+            index.unsubscribeAll(connection);
+            return false;
+        }
+        return subscribed;
+    }
+
+    public boolean unsubscribe(MessagingConnection connection, String pattern) {
+        return index.unsubscribe(connection, pattern);
+    }
+
+    /**
+     * Encodes the message once and sends it to every subscriber of its topic.
+     */
+    public CompletableFuture<BroadcastResult> publish(TopicMessage message) {
+        if (message.getKind() != TopicMessage.PUBLISH) {
+            throw new MessagingException("Not a published message " + message);
+        }
+        message.prepare();
+        return server.multicast(message.getMessageData(), index.resolve(message.getTopic()));
+    }
+
+    public CompletableFuture<BroadcastResult> publish(String topic, byte[] body) {
+        return publish(TopicMessage.publish(topic, body));
+    }
+
+    public CompletableFuture<BroadcastResult> publish(String topic, String text) {
+        return publish(TopicMessage.publish(topic, text));
+    }
+
+    private void forward(MessageData frame, TopicMessage message) {
+        final List<MessagingConnection> subscribers = index.resolve(message.getTopic());
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        if (frame.getRequestId() < 0) {
+            // negative ids belong to the request/response exchange of the publisher, never pass them on
+            final TopicMessage copy = TopicMessage.publish(message.getTopic(), message.getBody());
+            copy.setRequestId(0);
+            publish(copy);
+        } else {
+            server.multicast(frame, subscribers);
+        }
+    }
+
+    private class TopicHandler extends MessagingClientAdapter {
+
+        @Override
+        public void incomingMessageData(MessagingConnection connection, MessageData messageData) {
+            if (!TopicMessage.isTopicMessage(messageData)) {
+                return;
+            }
+            final TopicMessage message;
+            try {
+                message = new TopicMessage(messageData);
+            } catch (MessagingException ex) {
+                Log.logger.warn("Malformed topic message from " + connection + ": " + ex.getMessage());
+                return;
+            }
+            try {
+                switch (message.getKind()) {
+                    case TopicMessage.SUBSCRIBE:
+                        subscribe(connection, message.getTopic());
+                        break;
+                    case TopicMessage.UNSUBSCRIBE:
+                        index.unsubscribe(connection, message.getTopic());
+                        break;
+                    case TopicMessage.PUBLISH:
+                        SubscriptionIndex.checkTopic(message.getTopic());
+                        forward(messageData, message);
+                        break;
+                    default:
+                        Log.logger.warn("Unknown topic message kind " + message.getKind() + " from " + connection);
+                }
+            } catch (MessagingException ex) {
+                Log.logger.warn("Rejected topic message from " + connection + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("server", server)
+            .append("subscriberCount", index.getSubscriberCount())
+            .build();
+    }
+}
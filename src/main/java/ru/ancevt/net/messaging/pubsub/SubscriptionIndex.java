@@ -0,0 +1,284 @@
+package ru.ancevt.net.messaging.pubsub;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import ru.ancevt.net.messaging.MessagingConnection;
+import ru.ancevt.net.messaging.message.MessagingException;
+
+/**
+ * Concurrent map from topics to subscribed connections.
+ * <p>
+ * Topics are dot-separated names like {@code news.sport}. A subscription pattern is either a topic, matched exactly,
+ * or a prefix wildcard: {@code news.*} matches every topic starting with {@code news.} and {@code *} matches all
+ * topics. A topic is resolved by one exact lookup plus one lookup per dot in it. The result is cached per topic
+ * together with the time each of those keys last changed; publishing to a stable set of subscribers only repeats the
+ * lookups to check that, whatever the number of subscribers and however often other topics change.
+ *
+ * @author ancevt
+ */
+public final class SubscriptionIndex {
+
+    public static final String WILDCARD = "*";
+
+    static final int MAX_CACHED_TOPICS = 4096;
+
+    private static final MessagingConnection[] NO_CONNECTIONS = new MessagingConnection[0];
+
+    private final Map<String, Subscribers> exact;
+    private final Map<String, Subscribers> prefixes;
+    private final Map<MessagingConnection, Patterns> patternsByConnection;
+    private final Map<String, Resolved> cache;
+    private final AtomicLong clock;
+
+    public SubscriptionIndex() {
+        exact = new ConcurrentHashMap<>();
+        prefixes = new ConcurrentHashMap<>();
+        patternsByConnection = new ConcurrentHashMap<>();
+        cache = new ConcurrentHashMap<>();
+        clock = new AtomicLong();
+    }
+
+    /**
+     * @return true if the connection was not subscribed to the pattern yet
+     */
+    public boolean subscribe(MessagingConnection connection, String pattern) {
+        checkPattern(pattern);
+        for (;;) {
+            final Patterns patterns = patternsByConnection.computeIfAbsent(connection, c -> new Patterns());
+            synchronized (patterns) {
+                if (patterns.removed) {
+                    // lost the race with unsubscribeAll, which dropped this set from the map
+                    continue;
+                }
+                if (!patterns.patterns.add(pattern)) {
+                    return false;
+                }
+                mapFor(pattern).compute(key(pattern), (k, subscribers) -> {
+                    if (subscribers == null) {
+                        subscribers = new Subscribers();
+                    }
+                    subscribers.connections.add(connection);
+                    subscribers.changed = clock.incrementAndGet();
+                    return subscribers;
+                });
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true if the connection was subscribed to the pattern
+     */
+    public boolean unsubscribe(MessagingConnection connection, String pattern) {
+        final Patterns patterns = patternsByConnection.get(connection);
+        if (patterns == null) {
+            return false;
+        }
+        synchronized (patterns) {
+            if (patterns.removed || !patterns.patterns.remove(pattern)) {
+                return false;
+            }
+            removeFromMap(connection, pattern);
+            return true;
+        }
+    }
+
+    /**
+     * Drops every subscription of the connection, usually because it closed.
+     */
+    public void unsubscribeAll(MessagingConnection connection) {
+        final Patterns patterns = patternsByConnection.remove(connection);
+        if (patterns == null) {
+            return;
+        }
+        synchronized (patterns) {
+            patterns.removed = true;
+            for (String pattern : patterns.patterns) {
+                removeFromMap(connection, pattern);
+            }
+        }
+    }
+
+    /**
+     * @return connections subscribed to the topic, each listed once. The list is shared and must not be modified.
+     */
+    public List<MessagingConnection> resolve(String topic) {
+        final Resolved cached = cache.get(topic);
+        if (cached != null && cached.isCurrent()) {
+            return cached.connections;
+        }
+
+        // changes made from now on are later than the result, which may or may not include them
+        final long resolvedAt = clock.get();
+        final String[] keys = cached != null ? cached.keys : keys(topic);
+        final Set<MessagingConnection> result = new LinkedHashSet<>();
+        int present = 0;
+        for (int i = 0; i < keys.length; i++) {
+            final Subscribers subscribers = (i == 0 ? exact : prefixes).get(keys[i]);
+            if (subscribers != null) {
+                result.addAll(subscribers.connections);
+                present++;
+            }
+        }
+
+        final List<MessagingConnection> connections = result.isEmpty()
+            ? Collections.<MessagingConnection>emptyList()
+            : Collections.unmodifiableList(Arrays.asList(result.toArray(NO_CONNECTIONS)));
+
+        if (cached == null && cache.size() >= MAX_CACHED_TOPICS) {
+            evictOne();
+        }
+        cache.put(topic, new Resolved(resolvedAt, keys, present, connections));
+        return connections;
+    }
+
+    /**
+     * @return patterns the connection is subscribed to
+     */
+    public List<String> getPatterns(MessagingConnection connection) {
+        final Patterns patterns = patternsByConnection.get(connection);
+        if (patterns == null) {
+            return Collections.<String>emptyList();
+        }
+        synchronized (patterns) {
+            return new ArrayList<>(patterns.patterns);
+        }
+    }
+
+    public int getSubscriberCount() {
+        return patternsByConnection.size();
+    }
+
+    public static boolean matches(String pattern, String topic) {
+        if (WILDCARD.equals(pattern)) {
+            return true;
+        }
+        if (pattern.endsWith(".*")) {
+            return topic.startsWith(pattern.substring(0, pattern.length() - 1));
+        }
+        return pattern.equals(topic);
+    }
+
+    static void checkTopic(String topic) {
+        if (topic == null || topic.isEmpty() || topic.indexOf('*') >= 0) {
+            throw new MessagingException("Invalid topic '" + topic + "'");
+        }
+    }
+
+    static void checkPattern(String pattern) {
+        if (pattern == null || pattern.isEmpty()) {
+            throw new MessagingException("Invalid topic pattern '" + pattern + "'");
+        }
+        final int star = pattern.indexOf('*');
+        if (star >= 0 && !(star == pattern.length() - 1 && (star == 0 || pattern.charAt(star - 1) == '.'))) {
+            throw new MessagingException("Invalid topic pattern '" + pattern + "', '*' is only allowed as the last segment");
+        }
+    }
+
+    private Map<String, Subscribers> mapFor(String pattern) {
+        return pattern.endsWith(WILDCARD) ? prefixes : exact;
+    }
+
+    /**
+     * @return exact topic, or prefix of a wildcard pattern without the star, empty for the single star
+     */
+    private static String key(String pattern) {
+        return pattern.endsWith(WILDCARD) ? pattern.substring(0, pattern.length() - 1) : pattern;
+    }
+
+    private void removeFromMap(MessagingConnection connection, String pattern) {
+        mapFor(pattern).computeIfPresent(key(pattern), (k, subscribers) -> {
+            subscribers.connections.remove(connection);
+            subscribers.changed = clock.incrementAndGet();
+            return subscribers.connections.isEmpty() ? null : subscribers;
+        });
+    }
+
+    /**
+     * @return keys the topic is looked up by: the topic itself in the exact map, then the prefixes from the
+     * shortest, the empty one of the single star included
+     */
+    private static String[] keys(String topic) {
+        int dots = 0;
+        for (int i = topic.indexOf('.'); i >= 0; i = topic.indexOf('.', i + 1)) {
+            dots++;
+        }
+        final String[] keys = new String[dots + 2];
+        keys[0] = topic;
+        keys[1] = "";
+        int k = 2;
+        for (int i = topic.indexOf('.'); i >= 0; i = topic.indexOf('.', i + 1)) {
+            keys[k++] = topic.substring(0, i + 1);
+        }
+        return keys;
+    }
+
+    private void evictOne() {
+        final Iterator<String> iterator = cache.keySet().iterator();
+        if (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Connections subscribed by one exact topic or one prefix, and the time they last changed.
+     */
+    private static final class Subscribers {
+
+        private final Set<MessagingConnection> connections = ConcurrentHashMap.newKeySet();
+        private volatile long changed;
+    }
+
+    /**
+     * Patterns of one connection. Changes to them and to the maps they are mirrored in are made under its lock, so
+     * a subscription racing with {@link #unsubscribeAll} is either dropped by it or retried on a new set.
+     */
+    private static final class Patterns {
+
+        private final Set<String> patterns = new HashSet<>();
+        private boolean removed;
+    }
+
+    private final class Resolved {
+
+        private final long resolvedAt;
+        private final String[] keys;
+        private final int present;
+        private final List<MessagingConnection> connections;
+
+        private Resolved(long resolvedAt, String[] keys, int present, List<MessagingConnection> connections) {
+            this.resolvedAt = resolvedAt;
+            this.keys = keys;
+            this.present = present;
+            this.connections = connections;
+        }
+
+        /**
+         * A key has changed if its subscribers changed since, or appeared; those that disappeared are told by the
+         * count of keys present.
+         */
+        private boolean isCurrent() {
+            int count = 0;
+            for (int i = 0; i < keys.length; i++) {
+                final Subscribers subscribers = (i == 0 ? exact : prefixes).get(keys[i]);
+                if (subscribers != null) {
+                    if (subscribers.changed > resolvedAt) {
+                        return false;
+                    }
+                    count++;
+                }
+            }
+            return count == present;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package ru.ancevt.net.messaging.pubsub;
+
+import ru.ancevt.net.messaging.MessagingConnection;
+
+/**
+ *
+ * @author ancevt
+ */
+public interface TopicListener {
+    /**
+     * Called for every message published to a topic the connection is subscribed to. The message is backed by the
+     * received frame and must not be kept past the call unless its frame is retained.
+     */
+    void topicMessage(MessagingConnection connection, TopicMessage message);
+}
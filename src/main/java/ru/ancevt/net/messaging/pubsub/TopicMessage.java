@@ -0,0 +1,170 @@
+package ru.ancevt.net.messaging.pubsub;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import ru.ancevt.net.messaging.message.Message;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.message.MessagingException;
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Frame of the publish/subscribe protocol. The payload starts with the {@link #MAGIC} byte, which never occurs in
+ * UTF-8 text, so topic frames can share a connection with {@link ru.ancevt.net.messaging.message.UTF8Message}s:
+ * <pre>
+ *  1 b - magic 0xFE
+ *  1 b - kind
+ *  2 b - topic length
+ *  n b - topic, UTF-8
+ *  rest - body of a published message
+ * </pre>
+ *
+ * @author ancevt
+ */
+public class TopicMessage extends Message {
+
+    public static final int MAGIC = 0xFE;
+
+    public static final byte PUBLISH = 1;
+    public static final byte SUBSCRIBE = 2;
+    public static final byte UNSUBSCRIBE = 3;
+
+    private static final int PREFIX_SIZE = 4;
+
+    private final byte kind;
+    private final String topic;
+    private final byte[] body;
+    private final MessageData received;
+
+    private TopicMessage(byte kind, String topic, byte[] body) {
+        super();
+        this.kind = kind;
+        this.topic = topic;
+        this.body = body;
+        this.received = null;
+    }
+
+    /**
+     * Parses a received frame. The body is not copied and is only accessible while the frame is.
+     */
+    public TopicMessage(MessageData messageData) {
+        super(messageData);
+        if (!isTopicMessage(messageData)) {
+            throw new MessagingException("Not a topic message " + messageData);
+        }
+        final ByteBuffer frame = messageData.buffer();
+        kind = frame.get(Message.HEADERS_SIZE + 1);
+        final int topicLength = frame.getShort(Message.HEADERS_SIZE + 2) & 0xFFFF;
+        final int topicOffset = Message.HEADERS_SIZE + PREFIX_SIZE;
+        if (topicOffset + topicLength > frame.limit()) {
+            throw new MessagingException("Invalid topic length " + topicLength);
+        }
+        final byte[] topicBytes = new byte[topicLength];
+        frame.position(topicOffset);
+        frame.get(topicBytes);
+        topic = new String(topicBytes, StandardCharsets.UTF_8);
+        body = null;
+        received = messageData;
+    }
+
+    public static TopicMessage publish(String topic, byte[] body) {
+        SubscriptionIndex.checkTopic(topic);
+        return new TopicMessage(PUBLISH, topic, body);
+    }
+
+    public static TopicMessage publish(String topic, String text) {
+        return publish(topic, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static TopicMessage subscribe(String pattern) {
+        SubscriptionIndex.checkPattern(pattern);
+        return new TopicMessage(SUBSCRIBE, pattern, null);
+    }
+
+    public static TopicMessage unsubscribe(String pattern) {
+        SubscriptionIndex.checkPattern(pattern);
+        return new TopicMessage(UNSUBSCRIBE, pattern, null);
+    }
+
+    public static boolean isTopicMessage(MessageData messageData) {
+        return messageData.length() >= Message.HEADERS_SIZE + PREFIX_SIZE
+            && (messageData.buffer().get(Message.HEADERS_SIZE) & 0xFF) == MAGIC;
+    }
+
+    public byte getKind() {
+        return kind;
+    }
+
+    /**
+     * @return topic of a published message or pattern of a subscription
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return read-only view of the body, valid as long as the frame is
+     */
+    public ByteBuffer getBodyBuffer() {
+        if (received == null) {
+            return body != null ? ByteBuffer.wrap(body).asReadOnlyBuffer() : ByteBuffer.allocate(0);
+        }
+        final ByteBuffer frame = received.buffer();
+        frame.position(bodyOffset());
+        return frame.slice().asReadOnlyBuffer();
+    }
+
+    public byte[] getBody() {
+        if (received == null) {
+            return body != null ? body : new byte[0];
+        }
+        final ByteBuffer bodyBuffer = getBodyBuffer();
+        final byte[] bytes = new byte[bodyBuffer.remaining()];
+        bodyBuffer.get(bytes);
+        return bytes;
+    }
+
+    public String getText() {
+        return new String(getBody(), StandardCharsets.UTF_8);
+    }
+
+    private int bodyOffset() {
+        return Message.HEADERS_SIZE + PREFIX_SIZE + (received.buffer().getShort(Message.HEADERS_SIZE + 2) & 0xFFFF);
+    }
+
+    @Override
+    public Message prepare() {
+        if (received != null) {
+            return this;
+        }
+        final byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        if (topicBytes.length > 0xFFFF) {
+            throw new MessagingException("Topic is too long: " + topicBytes.length + " bytes");
+        }
+        final int bodyLength = body != null ? body.length : 0;
+        final int frameLength = Message.HEADERS_SIZE + PREFIX_SIZE + topicBytes.length + bodyLength;
+
+        final MessageData messageData = MessageData.allocate(getBufferPool(), frameLength);
+        final ByteBuffer frame = messageData.buffer();
+        MessageData.writeHeaders(frame, frameLength, getRequestId());
+        frame.put((byte) MAGIC);
+        frame.put(kind);
+        frame.putShort((short) topicBytes.length);
+        frame.put(topicBytes);
+        if (body != null) {
+            frame.put(body);
+        }
+        release();
+        setMessageData(messageData);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("requestId", getRequestId())
+            .append("length", length())
+            .append("kind", kind)
+            .append("topic", topic)
+            .build();
+    }
+}
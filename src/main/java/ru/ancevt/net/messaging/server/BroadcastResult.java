@@ -0,0 +1,50 @@
+package ru.ancevt.net.messaging.server;
+
+import ru.ancevt.util.string.ToStringBuilder;
+
+/**
+ * Outcome of {@link MessagingServer#broadcast}.
+ *
+ * @author ancevt
+ */
+public final class BroadcastResult {
+
+    private final int targetCount;
+    private final int writtenCount;
+
+    BroadcastResult(int targetCount, int writtenCount) {
+        this.targetCount = targetCount;
+        this.writtenCount = writtenCount;
+    }
+
+    /**
+     * @return number of connections the message was queued to
+     */
+    public int getTargetCount() {
+        return targetCount;
+    }
+
+    /**
+     * @return number of connections the whole frame was written to
+     */
+    public int getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * @return number of connections that closed before the frame was written
+     */
+    public int getFailedCount() {
+        return targetCount - writtenCount;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .appendAll(
+                "targetCount",
+                "writtenCount",
+                "failedCount"
+            ).build();
+    }
+}
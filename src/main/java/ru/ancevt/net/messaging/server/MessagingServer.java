@@ -2,17 +2,56 @@ package ru.ancevt.net.messaging.server;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.net.BindException;
+import java.net.ConnectException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import ru.ancevt.net.messaging.FrameWriteListener;
 import ru.ancevt.net.messaging.Log;
+import ru.ancevt.net.messaging.HeartbeatConfig;
 import ru.ancevt.net.messaging.MessagingConnection;
 import ru.ancevt.net.messaging.MessagingConnectionListener;
+import ru.ancevt.net.messaging.Session;
+import ru.ancevt.net.messaging.SessionConfig;
+import ru.ancevt.net.messaging.SessionRegistry;
+import ru.ancevt.net.messaging.buffer.BufferPool;
+import ru.ancevt.net.messaging.buffer.MemoryBudget;
+import ru.ancevt.net.messaging.compression.CompressionConfig;
+import ru.ancevt.net.messaging.compression.FrameCompressor;
+import ru.ancevt.net.messaging.exec.ConnectionExecutor;
+import ru.ancevt.net.messaging.exec.HashedWheelTimer;
+import ru.ancevt.net.messaging.exec.OrderedExecutor;
+import ru.ancevt.net.messaging.message.FileMessage;
+import ru.ancevt.net.messaging.message.FrameDecoder;
+import ru.ancevt.net.messaging.message.FrameReassembler;
+import ru.ancevt.net.messaging.message.FrameSpool;
+import ru.ancevt.net.messaging.message.Message;
 import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.message.MessagingException;
 import ru.ancevt.net.messaging.message.UTF8Message;
+import ru.ancevt.net.messaging.metrics.MessagingMetrics;
+import ru.ancevt.net.messaging.nio.ChannelHandler;
+import ru.ancevt.net.messaging.nio.EventLoop;
+import ru.ancevt.net.messaging.nio.EventLoopGroup;
+import ru.ancevt.net.messaging.transport.Transport;
+import ru.ancevt.net.messaging.transport.Transports;
 import ru.ancevt.util.args.Args;
 import ru.ancevt.util.string.ToStringBuilder;
 import ru.ancevt.util.system.UnixDisplay;
@@ -37,10 +76,10 @@ public class MessagingServer implements Closeable {
 
                     @Override
                     public void incomingMessageData(MessagingConnection connection, MessageData messageData) {
-                        Log.logger.info(UnixDisplay.GREEN + ">> Server: incoming message: " + new UTF8Message(messageData) + UnixDisplay.RESET);
+                        final UTF8Message message = UTF8Message.of(messageData);
+                        Log.logger.info(UnixDisplay.GREEN + ">> Server: incoming message: " + message + UnixDisplay.RESET);
                         try {
-                            Log.logger.info(">> Server: incoming message: " + new UTF8Message(messageData));
-                            final Args a = new Args(new UTF8Message(messageData).getText());
+                            final Args a = new Args(message.getText());
 
                             final String commandWord = a.getString(0).trim();
 
@@ -99,27 +138,330 @@ public class MessagingServer implements Closeable {
 
     }
 
+    public static final int DEFAULT_IO_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final ConcurrentMap<String, MessagingServer> localServers = new ConcurrentHashMap<>();
+
+    private static final long MIN_ACCEPT_BACKOFF_MILLIS = 10;
+    private static final long MAX_ACCEPT_BACKOFF_MILLIS = 1000;
+
+    /**
+     * Sets up connections accepted for a {@link ConnectionExecutor}, whose accept listeners would otherwise run on
+     * and stall the accept loop.
+     */
+    private static final ExecutorService SETUP_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "MessagingServer-setup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final List<MessagingServerListener> listeners;
-    private final List<MessagingConnection> connections;
+    private final Shard[] shards;
+    private final int ioThreads;
+    private final ConnectionExecutor connectionExecutor;
+    private final MessagingMetrics metrics;
 
     private String host;
     private int port;
-    private ServerSocket serverSocket;
-    private boolean started;
-    private boolean shutdownSignal;
-    private Thread acceptThread;
+    private Transport transport;
+    private SocketAddress address;
+    private String localName;
+    private ServerSocketChannel serverChannel;
+    private EventLoop acceptLoop;
+    private BufferPool bufferPool;
+    private OrderedExecutor dispatchExecutor;
+    private FrameCompressor compressor;
+    private FrameSpool frameSpool;
+    private int fragmentSize;
+    private long maxReassemblyBytes = FrameReassembler.DEFAULT_MAX_BUFFERED_BYTES;
+    private int maxFrameSize = FrameDecoder.DEFAULT_MAX_FRAME_SIZE;
+    private long maxInboundBytes;
+    private MemoryBudget inboundBudget;
+    private HeartbeatConfig heartbeat;
+    private SessionRegistry sessionRegistry;
+    private volatile boolean started;
+    private volatile boolean shutdownSignal;
 
     public MessagingServer() {
+        this(DEFAULT_IO_THREADS);
+    }
+
+    /**
+     * @param ioThreads number of event loop threads serving all accepted connections
+     */
+    public MessagingServer(int ioThreads) {
+        this(1, ioThreads);
+    }
+
+    /**
+     * Creates a server split into independent shards, each with event loop threads and a set of connections of its
+     * own. One accept loop takes every connection waiting and hands them to the shards in turn, which set them up on
+     * their own threads, so that a burst of connections is set up by all shards in parallel. Connection counts,
+     * broadcasts and listeners cover all shards.
+     *
+     * @param shards            number of shards
+     * @param ioThreadsPerShard number of event loop threads serving the connections of each shard
+     */
+    public MessagingServer(int shards, int ioThreadsPerShard) {
+        this(shards, ioThreadsPerShard, null);
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be positive: " + shards);
+        }
+        if (ioThreadsPerShard < 1) {
+            throw new IllegalArgumentException("ioThreadsPerShard must be positive: " + ioThreadsPerShard);
+        }
+    }
+
+    /**
+     * Creates a server whose connections are blocking and have their read loops run by the given executor, which
+     * lets listeners block without stalling other connections. The executor is not closed by the server.
+     *
+     * @see ru.ancevt.net.messaging.exec.ConnectionExecutors
+     */
+    public MessagingServer(ConnectionExecutor connectionExecutor) {
+        this(1, 0, connectionExecutor);
+        if (connectionExecutor == null) {
+            throw new NullPointerException("connectionExecutor");
+        }
+    }
+
+    private MessagingServer(int shards, int ioThreads, ConnectionExecutor connectionExecutor) {
         listeners = new CopyOnWriteArrayList<>();
-        connections = new CopyOnWriteArrayList<>();
+        this.shards = new Shard[Math.max(shards, 1)];
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i] = new Shard(i);
+        }
+        this.ioThreads = ioThreads;
+        this.connectionExecutor = connectionExecutor;
+        this.metrics = new MessagingMetrics(this::getOutboundQueueDepth);
+    }
+
+    /**
+     * @return number of event loop threads of all shards, 0 if connections are run by a {@link ConnectionExecutor}
+     */
+    public int getIoThreads() {
+        return ioThreads * shards.length;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public ConnectionExecutor getConnectionExecutor() {
+        return connectionExecutor;
+    }
+
+    /**
+     * Pool for frames received by connections accepted from now on, null for plain arrays.
+     *
+     * @see MessagingConnection#setBufferPool(BufferPool)
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Executor for listener callbacks of connections accepted from now on, null to dispatch on their reading
+     * threads. Not closed by the server.
+     *
+     * @see MessagingConnection#setDispatchExecutor(OrderedExecutor)
+     */
+    public void setDispatchExecutor(OrderedExecutor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+    }
+
+    public OrderedExecutor getDispatchExecutor() {
+        return dispatchExecutor;
+    }
+
+    /**
+     * Compression of frames sent by connections accepted from now on and by broadcasts, null for none. Broadcast
+     * frames are compressed once for all target connections.
+     *
+     * @see MessagingConnection#setCompression(CompressionConfig)
+     */
+    public void setCompression(CompressionConfig compression) {
+        final FrameCompressor previous = compressor;
+        this.compressor = compression != null ? new FrameCompressor(compression) : null;
+        if (previous != null) {
+            // a broadcast still holding it sends its frame raw
+            previous.close();
+        }
+    }
+
+    public CompressionConfig getCompression() {
+        return compressor != null ? compressor.getConfig() : null;
+    }
+
+    /**
+     * Spool for large frames received by connections accepted from now on, null to keep them in memory.
+     *
+     * @see MessagingConnection#setFrameSpool(FrameSpool)
+     */
+    public void setFrameSpool(FrameSpool frameSpool) {
+        this.frameSpool = frameSpool;
+    }
+
+    public FrameSpool getFrameSpool() {
+        return frameSpool;
+    }
+
+    /**
+     * Fragment size for connections accepted from now on, 0 to never fragment.
+     *
+     * @see MessagingConnection#setFragmentSize(int)
+     */
+    public void setFragmentSize(int fragmentSize) {
+        this.fragmentSize = fragmentSize;
+    }
+
+    public int getFragmentSize() {
+        return fragmentSize;
+    }
+
+    /**
+     * @see MessagingConnection#setMaxReassemblyBytes(long)
+     */
+    public void setMaxReassemblyBytes(long maxReassemblyBytes) {
+        this.maxReassemblyBytes = maxReassemblyBytes;
+    }
+
+    public long getMaxReassemblyBytes() {
+        return maxReassemblyBytes;
+    }
+
+    /**
+     * @see MessagingConnection#setMaxFrameSize(int)
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Inbound limit of each connection accepted from now on, 0 for none.
+     *
+     * @see MessagingConnection#setMaxInboundBytes(long)
+     */
+    public void setMaxInboundBytes(long maxInboundBytes) {
+        this.maxInboundBytes = maxInboundBytes;
+    }
+
+    public long getMaxInboundBytes() {
+        return maxInboundBytes;
+    }
+
+    /**
+     * Inbound budget shared by all connections accepted from now on, null for none.
+     *
+     * @see MessagingConnection#setInboundBudget(MemoryBudget)
+     */
+    public void setInboundBudget(MemoryBudget inboundBudget) {
+        this.inboundBudget = inboundBudget;
+    }
+
+    public MemoryBudget getInboundBudget() {
+        return inboundBudget;
+    }
+
+    /**
+     * Heartbeat and idle timeouts of connections accepted from now on, null for none.
+     *
+     * @see MessagingConnection#setHeartbeat(HeartbeatConfig)
+     */
+    public void setHeartbeat(HeartbeatConfig heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
+    public HeartbeatConfig getHeartbeat() {
+        return heartbeat;
+    }
+
+    /**
+     * Lets clients connecting from now on start and resume sessions, null for connections without sessions. Clients
+     * that do not start a session are then closed after the handshake timeout. The sessions are dropped when the
+     * server shuts down.
+     *
+     * @see Session
+     */
+    public void setSessions(SessionConfig sessions) {
+        this.sessionRegistry = sessions != null ? new SessionRegistry(sessions) : null;
+    }
+
+    public SessionRegistry getSessionRegistry() {
+        return sessionRegistry;
+    }
+
+    /**
+     * Traffic of all connections of this server. Registered in JMX while the server is started.
+     */
+    public MessagingMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Number of frames queued for sending by all connections and not completely written yet.
+     */
+    public long getOutboundQueueDepth() {
+        long depth = 0;
+        for (Shard shard : shards) {
+            for (MessagingConnection connection : shard.connections) {
+                depth += connection.getOutboundQueueSize();
+            }
+        }
+        return depth;
     }
 
     public final int getConnectionCount() {
-        return connections.size();
+        int count = 0;
+        for (Shard shard : shards) {
+            count += shard.connections.size();
+        }
+        return count;
     }
 
+    /**
+     * @return number of connections of the shard
+     */
+    public final int getConnectionCount(int shard) {
+        return shards[shard].connections.size();
+    }
+
+    /**
+     * Connections are kept in no particular order, so indexes are only stable while none is accepted or closed. Walks
+     * the connections up to the index.
+     *
+     * @deprecated walks the connections on every call, use {@link #getConnections()}
+     */
+    @Deprecated
     public final MessagingConnection getConnection(int index) {
-        return connections.get(index);
+        int remaining = index;
+        for (Shard shard : shards) {
+            for (MessagingConnection connection : shard.connections) {
+                if (remaining-- == 0) {
+                    return connection;
+                }
+            }
+        }
+        throw new IndexOutOfBoundsException("Index: " + index + ", connections: " + getConnectionCount());
+    }
+
+    /**
+     * @return snapshot of the connections of all shards
+     */
+    public final List<MessagingConnection> getConnections() {
+        final List<MessagingConnection> snapshot = new ArrayList<>();
+        for (Shard shard : shards) {
+            snapshot.addAll(shard.connections);
+        }
+        return snapshot;
     }
 
     public final void addMessagingServerListener(MessagingServerListener listener) {
@@ -130,8 +472,22 @@ public class MessagingServer implements Closeable {
         listeners.remove(listener);
     }
 
+    /**
+     * Adds the connection to the shard with the fewest connections and tells the listeners.
+     */
     public void dispatchAcceptMessagingConnection(MessagingConnection connection) {
-        connections.add(connection);
+        Shard target = shards[0];
+        for (Shard shard : shards) {
+            if (shard.connections.size() < target.connections.size()) {
+                target = shard;
+            }
+        }
+        dispatchAccept(target, connection);
+    }
+
+    private void dispatchAccept(Shard shard, MessagingConnection connection) {
+        shard.connections.add(connection);
+        metrics.connectionAccepted();
         listeners.stream().forEach((MessagingServerListener l) -> l.acceptMessagingConnection(connection));
     }
 
@@ -140,7 +496,12 @@ public class MessagingServer implements Closeable {
     }
 
     public void dispatchCloseMessagingConnection(MessagingConnection connection, Throwable exception) {
-        connections.remove(connection);
+        for (Shard shard : shards) {
+            if (shard.connections.remove(connection)) {
+                shard.releaseIoLoopsIfIdle();
+                break;
+            }
+        }
         Log.logger.info("Server: close connection " + connection.toString() + ", " + exception);
         listeners.stream().forEach((MessagingServerListener l) -> l.closeMessagingConnection(connection, exception));
         if (isNoConnections() && shutdownSignal) {
@@ -162,42 +523,126 @@ public class MessagingServer implements Closeable {
     }
     
     public final void start(String host, int port) throws IOException {
-        if (started) {
+        if (serverChannel != null && serverChannel.isOpen()) {
             throw new IOException("Server is already started " + this.toString());
         }
-        this.host = host;
-        this.port = port;
-        serverSocket = new ServerSocket(port, 0, InetAddress.getByName(host));
+        start(Transports.tcp(), new InetSocketAddress(InetAddress.getByName(host), port));
+    }
 
-        acceptThread = new Thread(() -> {
-            while (!shutdownSignal) {
-                try {
-                    final Socket socket = serverSocket.accept();
+    public final void start(int port) throws IOException {
+        start("0.0.0.0", port);
+    }
 
-                    final MessagingConnection connection = new MessagingConnection(socket, this);
-                    dispatchAcceptMessagingConnection(connection);
-                    connection.start();
+    /**
+     * Starts accepting connections at the address of the transport, for example a Unix domain socket file.
+     *
+     * @see Transports
+     */
+    public final void start(Transport transport, SocketAddress address) throws IOException {
+        if (serverChannel != null && serverChannel.isOpen()) {
+            throw new IOException("Server is already started " + this.toString());
+        }
+        serverChannel = transport.bind(address);
+        this.transport = transport;
+        this.address = address;
+        if (address instanceof InetSocketAddress) {
+            this.host = ((InetSocketAddress) address).getHostString();
+            this.port = ((InetSocketAddress) address).getPort();
+        }
+        try {
+            for (Shard shard : shards) {
+                shard.open();
+            }
+            acceptLoop = new EventLoop("MessagingServer-accept-loop");
+        } catch (IOException ex) {
+            serverChannel.close();
+            throw ex;
+        }
 
-                    Log.logger.info("Server: accept connection " + connection.toString());
+        acceptLoop.start();
+        acceptLoop.register(serverChannel, SelectionKey.OP_ACCEPT, new Acceptor());
 
-                } catch (IOException ex) {
-                    if (ex instanceof SocketException && ex.getMessage().equals("Socket closed")) {
-                        Log.logger.info("Server socket closed " + this);
-                    } else {
-                        Log.err(ex, ex);
-                    }
-                }
-            }
-        }, "MessagingServer-accept-loop");
-        acceptThread.start();
+        if (!started) {
+            started = true;
+            final SocketAddress localAddress = serverChannel.getLocalAddress();
+            metrics.registerMBean(getClass().getSimpleName(), localAddress instanceof InetSocketAddress
+                ? host + ":" + ((InetSocketAddress) localAddress).getPort()
+                : transport + ":" + localAddress);
+            dispatchMessagingServerStarted();
+        }
+    }
 
-        started = true;
+    /**
+     * Starts accepting connections from this JVM under the given name, instead of or along with a port.
+     *
+     * @see MessagingConnection#connectLocal(String)
+     * @throws BindException if another server is started under the name
+     */
+    public final void startLocal(String name) throws IOException {
+        if (localName != null) {
+            throw new IOException("Server is already started locally as " + localName + " " + this.toString());
+        }
+        if (localServers.putIfAbsent(name, this) != null) {
+            throw new BindException("Local messaging server name is in use: " + name);
+        }
+        localName = name;
+        if (!started) {
+            started = true;
+            metrics.registerMBean(getClass().getSimpleName(), "local:" + name);
+            dispatchMessagingServerStarted();
+        }
+    }
 
-        dispatchMessagingServerStarted();
+    /**
+     * @return the server started locally under the name, null for none
+     */
+    public static MessagingServer getLocalServer(String name) {
+        return localServers.get(name);
     }
 
-    public final void start(int port) throws IOException {
-        start("0.0.0.0", port);
+    public String getLocalName() {
+        return localName;
+    }
+
+    /**
+     * Accepts the server side of a connection opened by {@link MessagingConnection#connectLocal(String)}, which
+     * calls it.
+     *
+     * @throws ConnectException if the server is no longer started locally
+     */
+    public void acceptLocal(MessagingConnection connection) throws IOException {
+        if (!connection.isLocal() || connection.isOpened()) {
+            throw new IllegalArgumentException("Not a new local connection " + connection);
+        }
+        if (localName == null || shutdownSignal) {
+            throw new ConnectException("Local messaging server is closed " + this.toString());
+        }
+        if (connectionExecutor != null) {
+            connection.setConnectionExecutor(connectionExecutor);
+        }
+        configure(connection);
+        dispatchAcceptMessagingConnection(connection);
+        connection.start();
+
+        Log.logger.info("Server: accept local connection " + connection.toString());
+    }
+
+    /**
+     * Applies the settings of this server to an accepted connection about to be started.
+     */
+    private void configure(MessagingConnection connection) {
+        connection.setBufferPool(bufferPool);
+        connection.setDispatchExecutor(dispatchExecutor);
+        connection.setMetrics(metrics);
+        connection.setCompression(getCompression());
+        connection.setFrameSpool(frameSpool);
+        connection.setFragmentSize(fragmentSize);
+        connection.setMaxReassemblyBytes(maxReassemblyBytes);
+        connection.setMaxFrameSize(maxFrameSize);
+        connection.setMaxInboundBytes(maxInboundBytes);
+        connection.setInboundBudget(inboundBudget);
+        connection.setHeartbeat(heartbeat);
+        connection.setSessionRegistry(sessionRegistry);
     }
 
     public int getPort() {
@@ -208,6 +653,17 @@ public class MessagingServer implements Closeable {
         return host;
     }
 
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * @return address the server was last started at through its transport, null if never
+     */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
     public void shutdown() throws IOException {
         if (shutdownSignal) {
             throw new IOException("Server is already shut down " + this.toString());
@@ -215,13 +671,11 @@ public class MessagingServer implements Closeable {
 
         this.shutdownSignal = true;
 
-        for (int i = 0; i < connections.size(); i++) {
-            final MessagingConnection connection = connections.get(i);
-            connection.shutdown();
+        shutdownAllConnections();
+        if (sessionRegistry != null) {
+            sessionRegistry.close();
         }
 
-        acceptThread.interrupt();
-
         if (isNoConnections()) {
             try {
                 if (started) {
@@ -236,7 +690,12 @@ public class MessagingServer implements Closeable {
     }
 
     public boolean isNoConnections() {
-        return connections.isEmpty();
+        for (Shard shard : shards) {
+            if (!shard.connections.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
@@ -245,14 +704,146 @@ public class MessagingServer implements Closeable {
             throw new IOException("Server is already closed" + this.toString());
         }
         started = false;
-        serverSocket.close();
+        metrics.unregisterMBean();
+        if (localName != null) {
+            localServers.remove(localName, this);
+            localName = null;
+        }
+        if (acceptLoop != null) {
+            acceptLoop.close();
+            acceptLoop = null;
+            serverChannel.close();
+            transport.unbind(address);
+        }
+        for (Shard shard : shards) {
+            shard.releaseIoLoopsIfIdle();
+        }
     }
 
     public void shutdownAllConnections() {
-        
-        for (int i = 0; i < connections.size(); i++) {
-            final MessagingConnection connection = connections.get(i);
-            connection.shutdown();
+        for (Shard shard : shards) {
+            for (MessagingConnection connection : shard.connections) {
+                connection.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Sends the message to every open connection.
+     *
+     * @see #broadcast(Message, Predicate)
+     */
+    public CompletableFuture<BroadcastResult> broadcast(Message message) {
+        return broadcast(message, null);
+    }
+
+    /**
+     * Sends the message to every open connection accepted by the filter. The message is prepared and encoded once
+     * and all connections write the same frame, which stays retained until the last of them is done with it.
+     *
+     * @param filter selects target connections, null for all
+     * @return completed when every target connection has written the frame or closed
+     */
+    public CompletableFuture<BroadcastResult> broadcast(Message message, Predicate<MessagingConnection> filter) {
+        if (message instanceof FileMessage) {
+            throw new MessagingException("File messages are streamed per connection and cannot be broadcast " + message);
+        }
+        checkRequestId(message.getRequestId(), message);
+        message.prepare();
+        Log.logger.info("Broadcast message: " + message);
+
+        final MessageData compressed = compress(message.getMessageData());
+        final MessageData frame = compressed != null ? compressed : message.getMessageData();
+        try {
+            final Broadcast broadcast = new Broadcast();
+            for (Shard shard : shards) {
+                for (MessagingConnection connection : shard.connections) {
+                    if (filter == null || filter.test(connection)) {
+                        broadcast.sendTo(connection, frame);
+                    }
+                }
+            }
+            broadcast.release();
+            return broadcast.future;
+        } finally {
+            if (compressed != null) {
+                compressed.release();
+            }
+        }
+    }
+
+    /**
+     * Sends an already encoded frame to the given connections, closed ones are skipped. The frame is retained by
+     * each connection while queued, the caller keeps its own reference.
+     *
+     * @return completed when every target connection has written the frame or closed
+     */
+    public CompletableFuture<BroadcastResult> multicast(MessageData frame, Iterable<MessagingConnection> targets) {
+        checkRequestId(frame.getRequestId(), frame);
+        final MessageData compressed = compress(frame);
+        try {
+            final Broadcast broadcast = new Broadcast();
+            for (MessagingConnection connection : targets) {
+                broadcast.sendTo(connection, compressed != null ? compressed : frame);
+            }
+            broadcast.release();
+            return broadcast.future;
+        } finally {
+            if (compressed != null) {
+                compressed.release();
+            }
+        }
+    }
+
+    /**
+     * Negative request ids belong to requests and responses of single connections.
+     */
+    private static void checkRequestId(int requestId, Object message) {
+        if (requestId < 0) {
+            throw new IllegalArgumentException("Negative request ids are reserved for requests and responses: " + message);
+        }
+    }
+
+    private MessageData compress(MessageData frame) {
+        final FrameCompressor compressor = this.compressor;
+        return compressor != null ? compressor.compress(frame, bufferPool) : null;
+    }
+
+    /**
+     * Counts write completions of one broadcast. Starts with one extra pending completion of its own, released once
+     * all targets are queued, so that the future cannot complete while frames are still being queued.
+     */
+    private static final class Broadcast implements FrameWriteListener {
+
+        private final CompletableFuture<BroadcastResult> future = new CompletableFuture<>();
+        private final AtomicInteger targets = new AtomicInteger();
+        private final AtomicInteger written = new AtomicInteger();
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        private Broadcast() {
+        }
+
+        private void sendTo(MessagingConnection connection, MessageData frame) {
+            pending.incrementAndGet();
+            if (connection.send(frame, this)) {
+                targets.incrementAndGet();
+            } else {
+                pending.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void frameWritten(MessagingConnection connection, boolean written) {
+            if (written) {
+                this.written.incrementAndGet();
+            }
+            release();
+        }
+
+        private void release() {
+            if (pending.decrementAndGet() == 0) {
+                future.complete(new BroadcastResult(targets.get(), written.get()));
+            }
         }
     }
 
@@ -264,6 +855,153 @@ public class MessagingServer implements Closeable {
         return sb.toString();
     }
 
+    /**
+     * Event loop threads and connections of one shard. The connections are kept in a concurrent set, so that
+     * accepting and closing one does not copy the others.
+     */
+    private final class Shard {
+
+        private final int index;
+        private final Set<MessagingConnection> connections;
+        private EventLoopGroup ioLoops;
+
+        private Shard(int index) {
+            this.index = index;
+            this.connections = ConcurrentHashMap.newKeySet();
+        }
+
+        private String threadName(String name) {
+            return shards.length == 1 ? "MessagingServer-" + name : "MessagingServer-" + index + "-" + name;
+        }
+
+        private synchronized void open() throws IOException {
+            if (ioLoops == null && connectionExecutor == null) {
+                ioLoops = new EventLoopGroup(ioThreads, threadName("io"));
+            }
+        }
+
+        /**
+         * Makes a connection of the accepted channel, running on the given event loop of this shard, or on a
+         * {@link ConnectionExecutor} if the loop is null.
+         */
+        private void setUp(SocketChannel channel, EventLoop loop) {
+            if (shutdownSignal) {
+                closeQuietly(channel);
+                return;
+            }
+            MessagingConnection connection = null;
+            try {
+                connection = new MessagingConnection(channel, MessagingServer.this, loop);
+                if (loop == null) {
+                    connection.setConnectionExecutor(connectionExecutor);
+                }
+                configure(connection);
+                dispatchAccept(this, connection);
+                connection.start();
+                Log.logger.info("Server: accept connection " + connection.toString());
+            } catch (RuntimeException ex) {
+                // leaves the other connections and the accept loop running
+                Log.err("Server: failed to set up connection " + channel, ex);
+                if (connection != null) {
+                    connections.remove(connection);
+                }
+                closeQuietly(channel);
+            }
+        }
+
+        private synchronized void releaseIoLoopsIfIdle() {
+            if (!started && ioLoops != null && connections.isEmpty()) {
+                ioLoops.close();
+                ioLoops = null;
+            }
+        }
+    }
+
+    /**
+     * Takes every connection waiting and hands them to the shards in turn. Setting a connection up, listeners
+     * included, runs on an event loop of its shard, or on {@link #SETUP_EXECUTOR} for connections run by a
+     * {@link ConnectionExecutor}, so the accept loop only accepts.
+     */
+    private class Acceptor implements ChannelHandler {
+
+        private long backoffMillis;
+        private int nextShard;
+
+        @Override
+        public void channelRegistered(SelectionKey key) {
+        }
+
+        @Override
+        public void channelReady(SelectionKey key) throws IOException {
+            SocketChannel channel;
+            while ((channel = accept(key)) != null) {
+                backoffMillis = 0;
+                if (shutdownSignal) {
+                    closeQuietly(channel);
+                    continue;
+                }
+
+                final Shard shard = shards[nextShard];
+                nextShard = (nextShard + 1) % shards.length;
+                final SocketChannel accepted = channel;
+                if (connectionExecutor != null) {
+                    SETUP_EXECUTOR.execute(() -> shard.setUp(accepted, null));
+                } else {
+                    final EventLoop loop = shard.ioLoops.next();
+                    loop.execute(() -> shard.setUp(accepted, loop));
+                }
+            }
+        }
+
+        /**
+         * A failed accept, such as one out of file descriptors, leaves the channel ready, so accepting is paused for a
+         * while instead of retrying at once; the pause doubles up to {@link #MAX_ACCEPT_BACKOFF_MILLIS} while the
+         * failures last.
+         */
+        private SocketChannel accept(SelectionKey key) throws IOException {
+            try {
+                return serverChannel.accept();
+            } catch (ClosedChannelException ex) {
+                throw ex;
+            } catch (IOException ex) {
+                backoffMillis = Math.min(Math.max(backoffMillis * 2, MIN_ACCEPT_BACKOFF_MILLIS), MAX_ACCEPT_BACKOFF_MILLIS);
+                Log.err("Accept failed, pausing for " + backoffMillis + " ms " + MessagingServer.this, ex);
+                pause(key, backoffMillis);
+                return null;
+            }
+        }
+
+        private void pause(SelectionKey key, long millis) {
+            final EventLoop loop = acceptLoop;
+            if (loop == null) {
+                return;
+            }
+            key.interestOps(0);
+            HashedWheelTimer.shared().schedule(() -> loop.execute(() -> {
+                if (key.isValid()) {
+                    key.interestOps(SelectionKey.OP_ACCEPT);
+                }
+            }), millis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void channelFailed(Throwable ex) {
+            if (ex instanceof ClosedChannelException) {
+                Log.logger.info("Server socket closed " + MessagingServer.this);
+            } else {
+                Log.err(ex, ex);
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            Log.err(ex, ex);
+        }
+    }
+
     @Override
     public String toString() {
         return new ToStringBuilder(this)
@@ -0,0 +1,68 @@
+package ru.ancevt.net.messaging.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TCP over {@link InetSocketAddress}es.
+ *
+ * @author ancevt
+ */
+final class TcpTransport implements Transport {
+
+    static final TcpTransport INSTANCE = new TcpTransport();
+
+    private TcpTransport() {
+    }
+
+    /**
+     * An unresolved address is resolved on every call, so that reconnecting follows the host to a new address.
+     */
+    @Override
+    public SocketChannel connect(SocketAddress address, int timeoutMillis) throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(resolve(address), timeoutMillis);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        return channel;
+    }
+
+    @Override
+    public ServerSocketChannel bind(SocketAddress address) throws IOException {
+        final ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.bind(resolve(address));
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        return channel;
+    }
+
+    private static InetSocketAddress resolve(SocketAddress address) throws UnknownHostException {
+        if (!(address instanceof InetSocketAddress)) {
+            throw new IllegalArgumentException("Not a TCP address " + address);
+        }
+        final InetSocketAddress inetAddress = (InetSocketAddress) address;
+        if (!inetAddress.isUnresolved()) {
+            return inetAddress;
+        }
+        final InetSocketAddress resolved = new InetSocketAddress(inetAddress.getHostString(), inetAddress.getPort());
+        if (resolved.isUnresolved()) {
+            throw new UnknownHostException(inetAddress.getHostString());
+        }
+        return resolved;
+    }
+
+    @Override
+    public String toString() {
+        return "tcp";
+    }
+}
@@ -0,0 +1,34 @@
+package ru.ancevt.net.messaging.transport;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Kind of byte channel connections run over. A transport only opens channels; framing, queueing, the event loops and
+ * everything above them work the same on every channel it returns.
+ *
+ * @author ancevt
+ * @see Transports
+ */
+public interface Transport {
+
+    /**
+     * Opens a channel in blocking mode connected to the address.
+     *
+     * @param timeoutMillis time to wait for the connection, 0 to wait as long as the operating system does
+     */
+    SocketChannel connect(SocketAddress address, int timeoutMillis) throws IOException;
+
+    /**
+     * Opens a server channel in blocking mode bound to the address.
+     */
+    ServerSocketChannel bind(SocketAddress address) throws IOException;
+
+    /**
+     * Cleans up after the server channel bound to the address has been closed.
+     */
+    default void unbind(SocketAddress address) {
+    }
+}
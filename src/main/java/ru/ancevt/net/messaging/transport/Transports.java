@@ -0,0 +1,51 @@
+package ru.ancevt.net.messaging.transport;
+
+import java.net.SocketAddress;
+import java.nio.file.Path;
+
+/**
+ * Transports shipped with the library.
+ *
+ * @author ancevt
+ */
+public final class Transports {
+
+    private Transports() {
+    }
+
+    /**
+     * TCP, addressed by {@link java.net.InetSocketAddress}es. Unresolved addresses are resolved on every connect.
+     */
+    public static Transport tcp() {
+        return TcpTransport.INSTANCE;
+    }
+
+    /**
+     * Unix domain sockets, for processes on the same host; they skip the TCP/IP stack. Addressed by
+     * {@link #unixDomainAddress(Path)}. The socket file of a server is deleted when the server closes.
+     *
+     * @throws UnsupportedOperationException if the JVM is older than Java 16
+     */
+    public static Transport unixDomain() {
+        return unixDomainTransport();
+    }
+
+    public static boolean isUnixDomainSupported() {
+        return UnixDomainTransport.INSTANCE != null;
+    }
+
+    /**
+     * @return the address of the socket file, a {@code java.net.UnixDomainSocketAddress}
+     * @throws UnsupportedOperationException if the JVM is older than Java 16
+     */
+    public static SocketAddress unixDomainAddress(Path path) {
+        return unixDomainTransport().address(path);
+    }
+
+    private static UnixDomainTransport unixDomainTransport() {
+        if (UnixDomainTransport.INSTANCE == null) {
+            throw new UnsupportedOperationException("Unix domain sockets need Java 16 or later");
+        }
+        return UnixDomainTransport.INSTANCE;
+    }
+}
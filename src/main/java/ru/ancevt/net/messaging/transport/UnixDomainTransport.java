@@ -0,0 +1,138 @@
+package ru.ancevt.net.messaging.transport;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import ru.ancevt.net.messaging.Log;
+
+/**
+ * Unix domain sockets, addressed by socket files. The classes involved appeared in Java 16 and are looked up by
+ * reflection, so the library still runs on older versions, just without this transport.
+ *
+ * @author ancevt
+ */
+final class UnixDomainTransport implements Transport {
+
+    static final UnixDomainTransport INSTANCE;
+
+    private static final String ADDRESS_CLASS = "java.net.UnixDomainSocketAddress";
+
+    static {
+        UnixDomainTransport instance = null;
+        try {
+            final Class<?> addressClass = Class.forName(ADDRESS_CLASS);
+            instance = new UnixDomainTransport(
+                StandardProtocolFamily.valueOf("UNIX"),
+                addressClass,
+                addressClass.getMethod("of", Path.class),
+                addressClass.getMethod("getPath"),
+                SocketChannel.class.getMethod("open", ProtocolFamily.class),
+                ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+            );
+        } catch (ReflectiveOperationException | IllegalArgumentException ex) {
+            Log.logger.info("Unix domain sockets are not supported by this JVM: " + ex);
+        }
+        INSTANCE = instance;
+    }
+
+    private final ProtocolFamily family;
+    private final Class<?> addressClass;
+    private final Method addressOf;
+    private final Method getPath;
+    private final Method openChannel;
+    private final Method openServerChannel;
+
+    private UnixDomainTransport(ProtocolFamily family, Class<?> addressClass, Method addressOf, Method getPath,
+        Method openChannel, Method openServerChannel) {
+        this.family = family;
+        this.addressClass = addressClass;
+        this.addressOf = addressOf;
+        this.getPath = getPath;
+        this.openChannel = openChannel;
+        this.openServerChannel = openServerChannel;
+    }
+
+    SocketAddress address(Path path) {
+        return (SocketAddress) invoke(addressOf, null, path);
+    }
+
+    /**
+     * Connecting to a socket file never waits for the network, the timeout is not needed.
+     */
+    @Override
+    public SocketChannel connect(SocketAddress address, int timeoutMillis) throws IOException {
+        checkAddress(address);
+        final SocketChannel channel = (SocketChannel) invoke(openChannel, null, family);
+        try {
+            channel.connect(address);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        return channel;
+    }
+
+    /**
+     * Fails if the socket file exists, whether a server still listens on it or not.
+     */
+    @Override
+    public ServerSocketChannel bind(SocketAddress address) throws IOException {
+        checkAddress(address);
+        final ServerSocketChannel channel = (ServerSocketChannel) invoke(openServerChannel, null, family);
+        try {
+            channel.bind(address);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        return channel;
+    }
+
+    /**
+     * Deletes the socket file, which closing the server channel leaves behind.
+     */
+    @Override
+    public void unbind(SocketAddress address) {
+        final Path path = (Path) invoke(getPath, address);
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            Log.err(ex, ex);
+        }
+    }
+
+    private void checkAddress(SocketAddress address) {
+        if (!addressClass.isInstance(address)) {
+            throw new IllegalArgumentException("Not a Unix domain socket address " + address);
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        } catch (InvocationTargetException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "unix";
+    }
+}
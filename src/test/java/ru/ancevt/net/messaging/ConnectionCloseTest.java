@@ -0,0 +1,162 @@
+package ru.ancevt.net.messaging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import ru.ancevt.net.messaging.exec.ConnectionExecutor;
+import ru.ancevt.net.messaging.exec.ConnectionExecutors;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.message.UTF8Message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author ancevt
+ */
+public class ConnectionCloseTest {
+
+    private ServerSocket serverSocket;
+    private Socket accepted;
+    private MessagingConnection connection;
+
+    @After
+    public void tearDown() throws IOException {
+        if (connection != null && connection.isOpened()) {
+            connection.close();
+        }
+        if (accepted != null) {
+            accepted.close();
+        }
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void idleTimeoutClosesBlockingConnectionOffTheTimerThread() throws Exception {
+        final BlockingQueue<String> closedOn = new LinkedBlockingQueue<>();
+        final BlockingQueue<Throwable> causes = new LinkedBlockingQueue<>();
+        connect(new MessagingClientAdapter() {
+            @Override
+            public void connectionClosed(MessagingConnection connection, Throwable exception) {
+                closedOn.add(Thread.currentThread().getName());
+                causes.add(exception);
+            }
+        });
+        // the peer neither writes nor reads
+        connection.setHeartbeat(new HeartbeatConfig(0, 200, 0));
+        connection.start();
+
+        final String thread = closedOn.poll(5, TimeUnit.SECONDS);
+        assertNotEquals("MessagingConnection-timer", thread);
+        assertTrue(causes.take() instanceof SocketTimeoutException);
+        assertFalse(connection.isOpened());
+        Thread.sleep(300);
+        assertTrue("closed once", closedOn.isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentClosesCloseOnce() throws Exception {
+        final AtomicInteger closed = new AtomicInteger();
+        connect(new MessagingClientAdapter() {
+            @Override
+            public void connectionClosed(MessagingConnection connection, Throwable exception) {
+                closed.incrementAndGet();
+            }
+        });
+        connection.start();
+        TestConnections.awaitOpened(connection);
+
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger succeeded = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    connection.close();
+                    succeeded.incrementAndGet();
+                } catch (IOException | InterruptedException ex) {
+                    // closed by another thread
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, succeeded.get());
+        TestConnections.await("connection closed", () -> closed.get() > 0);
+        Thread.sleep(100);
+        assertEquals(1, closed.get());
+    }
+
+    @Test(timeout = 10000)
+    public void failingListenerClosesBlockingConnectionAndFreesItsThread() throws Exception {
+        final BlockingQueue<Throwable> causes = new LinkedBlockingQueue<>();
+        try (ConnectionExecutor executor = ConnectionExecutors.boundedPool(1)) {
+            connect(new MessagingClientAdapter() {
+                @Override
+                public void incomingMessageData(MessagingConnection connection, MessageData messageData) {
+                    throw new IllegalStateException("test");
+                }
+
+                @Override
+                public void connectionClosed(MessagingConnection connection, Throwable exception) {
+                    causes.add(exception);
+                }
+            });
+            connection.setConnectionExecutor(executor);
+            connection.start();
+            TestConnections.awaitOpened(connection);
+            write(accepted, "boom");
+
+            assertTrue(causes.poll(5, TimeUnit.SECONDS) instanceof IllegalStateException);
+            assertFalse(connection.isOpened());
+            assertEquals("socket closed", -1, accepted.getInputStream().read());
+
+            // the only thread of the pool runs the next connection
+            final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+            accepted.close();
+            serverSocket.close();
+            connect(new MessagingClientAdapter() {
+                @Override
+                public void incomingMessageData(MessagingConnection connection, MessageData messageData) {
+                    received.add(UTF8Message.of(messageData).getText());
+                }
+            });
+            connection.setConnectionExecutor(executor);
+            connection.start();
+            write(accepted, "next");
+            assertEquals("next", received.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private static void write(Socket socket, String text) throws IOException {
+        final MessageData frame = new UTF8Message(text).prepare().getMessageData();
+        final OutputStream output = socket.getOutputStream();
+        output.write(frame.buffer().array(), frame.buffer().arrayOffset(), frame.length());
+        output.flush();
+    }
+
+    private void connect(MessagingConnectionListener listener) throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        connection = new MessagingConnection("127.0.0.1", serverSocket.getLocalPort());
+        accepted = serverSocket.accept();
+        connection.addMessagingConnectionListener(listener);
+    }
+}
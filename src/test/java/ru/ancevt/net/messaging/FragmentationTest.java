@@ -0,0 +1,70 @@
+package ru.ancevt.net.messaging;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.message.UTF8Message;
+import ru.ancevt.net.messaging.server.MessagingServer;
+import ru.ancevt.net.messaging.server.MessagingServerAdapter;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author ancevt
+ */
+public class FragmentationTest {
+
+    private MessagingServer server;
+    private MessagingConnection client;
+
+    @After
+    public void tearDown() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void fragmentedMessageIsReassembledAndCountedOnce() throws Exception {
+        final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        final BlockingQueue<MessagingConnection> accepted = new LinkedBlockingQueue<>();
+        server = new MessagingServer(1);
+        server.addMessagingServerListener(new MessagingServerAdapter() {
+            @Override
+            public void acceptMessagingConnection(MessagingConnection connection) {
+                connection.addMessagingConnectionListener(new MessagingClientAdapter() {
+                    @Override
+                    public void incomingMessageData(MessagingConnection connection, MessageData messageData) {
+                        received.add(UTF8Message.of(messageData).getText());
+                    }
+                });
+                accepted.add(connection);
+            }
+        });
+        server.start("127.0.0.1", TestConnections.freePort());
+        client = new MessagingConnection("127.0.0.1", server.getPort());
+        client.setFragmentSize(OutboundQueue.MIN_FRAGMENT_SIZE);
+        client.start();
+        TestConnections.awaitOpened(client);
+
+        final char[] chars = new char[OutboundQueue.MIN_FRAGMENT_SIZE * 10];
+        Arrays.fill(chars, 'x');
+        final String large = new String(chars);
+        client.send(new UTF8Message(large));
+        client.send(new UTF8Message("small"));
+
+        final String first = received.poll(5, TimeUnit.SECONDS);
+        final String second = received.poll(5, TimeUnit.SECONDS);
+        assertEquals(large.length() + "small".length(), first.length() + second.length());
+        final MessagingConnection connection = accepted.take();
+        assertEquals(2, connection.getMessagesReceived());
+    }
+}
@@ -0,0 +1,150 @@
+package ru.ancevt.net.messaging;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+import ru.ancevt.net.messaging.buffer.BufferPool;
+import ru.ancevt.net.messaging.message.Message;
+import ru.ancevt.net.messaging.message.MessageData;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author ancevt
+ */
+public class LocalChannelTest {
+
+    @After
+    public void tearDown() {
+        BufferPool.setLeakDetection(false);
+    }
+
+    @Test(timeout = 5000)
+    public void framesPassByReferenceInBothDirections() throws Exception {
+        final LocalChannel[] ends = LocalChannel.pair("test", 4);
+        final MessageData request = frame(null);
+        final MessageData response = frame(null);
+
+        assertTrue(ends[0].send(request));
+        assertEquals(1, ends[0].getPendingCount());
+        assertSame(request, ends[1].receive());
+        assertEquals(0, ends[0].getPendingCount());
+
+        assertTrue(ends[1].send(response));
+        assertSame(response, ends[0].receive());
+    }
+
+    @Test(timeout = 5000)
+    public void fullQueueBlocksTheWriterUntilTheReaderCatchesUp() throws Exception {
+        final LocalChannel[] ends = LocalChannel.pair("test", 2);
+        assertTrue(ends[0].send(frame(null)));
+        assertTrue(ends[0].send(frame(null)));
+
+        final CountDownLatch sent = new CountDownLatch(1);
+        final MessageData third = frame(null);
+        final Thread writer = new Thread(() -> {
+            try {
+                ends[0].send(third);
+                sent.countDown();
+            } catch (InterruptedIOException ex) {
+                // not expected
+            }
+        });
+        writer.start();
+        assertFalse(sent.await(100, TimeUnit.MILLISECONDS));
+
+        ends[1].receive();
+        assertTrue(sent.await(2, TimeUnit.SECONDS));
+        ends[1].receive();
+        assertSame(third, ends[1].receive());
+    }
+
+    @Test(timeout = 5000)
+    public void blockedWriterCanBeInterrupted() throws Exception {
+        final LocalChannel[] ends = LocalChannel.pair("test", 1);
+        assertTrue(ends[0].send(frame(null)));
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread writer = new Thread(() -> {
+            try {
+                ends[0].send(frame(null));
+            } catch (InterruptedIOException ex) {
+                failure.set(ex);
+            }
+        });
+        writer.start();
+        Thread.sleep(50);
+        writer.interrupt();
+        writer.join(2000);
+        assertTrue(failure.get() instanceof InterruptedIOException);
+    }
+
+    @Test(timeout = 5000)
+    public void closedChannelDeliversWhatWasSentAndThenTheEnd() throws Exception {
+        final LocalChannel[] ends = LocalChannel.pair("test", 4);
+        final MessageData first = frame(null);
+        final MessageData second = frame(null);
+        assertTrue(ends[0].send(first));
+        assertTrue(ends[0].send(second));
+        ends[0].close();
+
+        assertFalse(ends[0].send(frame(null)));
+        assertFalse(ends[1].send(frame(null)));
+        assertSame(first, ends[1].receive());
+        assertSame(second, ends[1].receive());
+        assertNull(ends[1].receive());
+        assertNull(ends[0].receive());
+    }
+
+    @Test(timeout = 5000)
+    public void closedChannelWakesUpTheReader() throws Exception {
+        final LocalChannel[] ends = LocalChannel.pair("test", 4);
+        final CountDownLatch ended = new CountDownLatch(1);
+        final Thread reader = new Thread(() -> {
+            try {
+                if (ends[1].receive() == null) {
+                    ended.countDown();
+                }
+            } catch (InterruptedIOException ex) {
+                // not expected
+            }
+        });
+        reader.start();
+        Thread.sleep(50);
+        ends[0].close();
+        assertTrue(ended.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 5000)
+    public void abandonedEndReleasesFramesLeftAndArriving() throws Exception {
+        BufferPool.setLeakDetection(true);
+        final BufferPool pool = new BufferPool(true);
+        final LocalChannel[] ends = LocalChannel.pair("test", 4);
+        assertTrue(ends[0].send(frame(pool)));
+        assertTrue(ends[0].send(frame(pool)));
+        assertEquals(2, pool.getTrackedCount());
+
+        ends[1].abandon();
+        assertEquals(0, pool.getTrackedCount());
+
+        final MessageData late = frame(pool);
+        if (!ends[0].send(late)) {
+            // closed already, the frame stays with the caller
+            late.release();
+        }
+        assertEquals(0, pool.getTrackedCount());
+    }
+
+    private static MessageData frame(BufferPool pool) {
+        final MessageData frame = MessageData.allocate(pool, Message.HEADERS_SIZE);
+        MessageData.writeHeaders(frame.buffer(), Message.HEADERS_SIZE, 0);
+        return frame;
+    }
+}
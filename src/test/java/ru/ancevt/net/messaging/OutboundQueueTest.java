@@ -0,0 +1,244 @@
+package ru.ancevt.net.messaging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ru.ancevt.net.messaging.buffer.BufferPool;
+import ru.ancevt.net.messaging.message.Message;
+import ru.ancevt.net.messaging.message.MessageData;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author ancevt
+ */
+public class OutboundQueueTest {
+
+    private static final int FRAME_LENGTH = Message.HEADERS_SIZE + 4;
+
+    private BufferPool pool;
+
+    @Before
+    public void setUp() {
+        BufferPool.setLeakDetection(true);
+        pool = new BufferPool(true);
+    }
+
+    @After
+    public void tearDown() {
+        BufferPool.setLeakDetection(false);
+    }
+
+    @Test(timeout = 20000)
+    public void concurrentEnqueuesKeepPerThreadOrder() throws Exception {
+        final TestChannel channel = new TestChannel();
+        final OutboundQueue queue = new OutboundQueue(channel, false, null);
+        final int threads = 8;
+        final int frames = 5000;
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < frames; i++) {
+                        enqueue(queue, thread << 16 | i, null);
+                    }
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        final ByteBuffer written = ByteBuffer.wrap(channel.toByteArray());
+        assertEquals(threads * frames * FRAME_LENGTH, written.remaining());
+        final int[] next = new int[threads];
+        while (written.hasRemaining()) {
+            written.position(written.position() + Message.HEADERS_SIZE);
+            final int value = written.getInt();
+            assertEquals(next[value >>> 16]++, value & 0xFFFF);
+        }
+        assertEquals(0, queue.size());
+        assertEquals(0, pool.getTrackedCount());
+    }
+
+    @Test(timeout = 10000)
+    public void clearDuringWriteLeavesTheBatchToTheWriter() throws Exception {
+        final TestChannel channel = new TestChannel();
+        channel.pause = new CountDownLatch(1);
+        final OutboundQueue queue = new OutboundQueue(channel, false, null);
+        final Completions completions = new Completions();
+
+        final Thread writer = new Thread(() -> {
+            try {
+                enqueue(queue, 1, completions);
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        writer.start();
+        assertTrue(channel.writing.await(5, TimeUnit.SECONDS));
+        // queued behind the frame being written, left to the writer
+        enqueue(queue, 2, completions);
+
+        queue.clear();
+        assertEquals("frames of a running write must not be dropped", 0, completions.count());
+        assertEquals(2, pool.getTrackedCount());
+
+        channel.pause.countDown();
+        writer.join(5000);
+
+        assertEquals(1, completions.written.get());
+        assertEquals(1, completions.dropped.get());
+        assertEquals(0, queue.size());
+        assertEquals(0, pool.getTrackedCount());
+
+        // the queue stays closed
+        enqueue(queue, 3, completions);
+        assertEquals(2, completions.dropped.get());
+        assertEquals(0, pool.getTrackedCount());
+    }
+
+    @Test(timeout = 10000)
+    public void clearTakesOverBlockedWriter() throws Exception {
+        final TestChannel channel = new TestChannel();
+        channel.capacity = 5;
+        final AtomicInteger blockedCalls = new AtomicInteger();
+        final OutboundQueue queue = new OutboundQueue(channel, true, blockedCalls::incrementAndGet);
+        final Completions completions = new Completions();
+
+        enqueue(queue, 1, completions);
+        enqueue(queue, 2, completions);
+        assertTrue(queue.isBlocked());
+        assertEquals(1, blockedCalls.get());
+        assertEquals(2, pool.getTrackedCount());
+
+        queue.clear();
+        assertFalse(queue.isBlocked());
+        assertEquals(2, completions.dropped.get());
+        assertEquals(0, pool.getTrackedCount());
+        assertTrue(queue.resume());
+    }
+
+    @Test(timeout = 10000)
+    public void resumeWritesTheRestOnceWritable() throws Exception {
+        final TestChannel channel = new TestChannel();
+        channel.capacity = 5;
+        final OutboundQueue queue = new OutboundQueue(channel, true, null);
+        final Completions completions = new Completions();
+
+        for (int i = 0; i < 3; i++) {
+            enqueue(queue, i, completions);
+        }
+        assertTrue(queue.isBlocked());
+
+        channel.capacity = Integer.MAX_VALUE;
+        assertTrue(queue.resume());
+        assertFalse(queue.isBlocked());
+        assertEquals(3, completions.written.get());
+        assertEquals(3 * FRAME_LENGTH, channel.toByteArray().length);
+        assertEquals(0, pool.getTrackedCount());
+    }
+
+    private void enqueue(OutboundQueue queue, int value, FrameWriteListener listener) throws IOException {
+        final MessageData frame = MessageData.allocate(pool, FRAME_LENGTH);
+        final ByteBuffer buffer = frame.buffer();
+        MessageData.writeHeaders(buffer, FRAME_LENGTH, 0);
+        buffer.putInt(value);
+        try {
+            queue.enqueue(frame, listener);
+        } finally {
+            frame.release();
+        }
+    }
+
+    private static final class Completions implements FrameWriteListener {
+
+        private final AtomicInteger written = new AtomicInteger();
+        private final AtomicInteger dropped = new AtomicInteger();
+
+        @Override
+        public void frameWritten(MessagingConnection connection, boolean written) {
+            (written ? this.written : dropped).incrementAndGet();
+        }
+
+        private int count() {
+            return written.get() + dropped.get();
+        }
+    }
+
+    /**
+     * Takes {@link #capacity} more bytes at most, like a socket buffer of a peer not reading, and blocks the first
+     * write until {@link #pause} opens.
+     */
+    private static final class TestChannel implements GatheringByteChannel {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private volatile CountDownLatch pause;
+        private volatile int capacity = Integer.MAX_VALUE;
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) throws IOException {
+            writing.countDown();
+            final CountDownLatch latch = pause;
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+            }
+            long total = 0;
+            for (int i = offset; i < offset + length && capacity > 0; i++) {
+                final int count = write(sources[i], capacity);
+                capacity -= count;
+                total += count;
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources) throws IOException {
+            return write(sources, 0, sources.length);
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            return (int) write(new ByteBuffer[]{source}, 0, 1);
+        }
+
+        private synchronized int write(ByteBuffer source, int limit) {
+            final int count = Math.min(source.remaining(), limit);
+            for (int i = 0; i < count; i++) {
+                bytes.write(source.get());
+            }
+            return count;
+        }
+
+        private synchronized byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
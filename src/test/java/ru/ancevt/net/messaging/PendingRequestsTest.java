@@ -0,0 +1,189 @@
+package ru.ancevt.net.messaging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Test;
+import ru.ancevt.net.messaging.message.Message;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.message.UTF8Message;
+import ru.ancevt.net.messaging.server.MessagingServer;
+import ru.ancevt.net.messaging.server.MessagingServerAdapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author ancevt
+ */
+public class PendingRequestsTest {
+
+    private MessagingServer server;
+    private MessagingConnection client;
+
+    @After
+    public void tearDown() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void idsOfBothSidesAreNegativeAndNeverClash() {
+        final PendingRequests serverSide = new PendingRequests(true);
+        final PendingRequests clientSide = new PendingRequests(false);
+        for (int i = 0; i < 1000; i++) {
+            final int serverId = serverSide.nextRequestId();
+            final int clientId = clientSide.nextRequestId();
+            assertTrue(serverId < 0 && clientId < 0);
+            assertTrue(serverSide.isOwnRequestId(serverId));
+            assertFalse(serverSide.isOwnRequestId(clientId));
+            assertTrue(clientSide.isOwnRequestId(clientId));
+            assertFalse(clientSide.isOwnRequestId(serverId));
+        }
+        assertFalse(clientSide.isOwnRequestId(1));
+    }
+
+    @Test
+    public void completesOnlyResponsesToOwnRequests() throws Exception {
+        final PendingRequests requests = new PendingRequests(false);
+        final int requestId = requests.nextRequestId();
+        final CompletableFuture<MessageData> future = requests.register(requestId, 0);
+
+        assertFalse(requests.complete(frame(7)));
+        assertFalse("a request of the peer", requests.complete(frame(new PendingRequests(true).nextRequestId())));
+        assertFalse(future.isDone());
+
+        final MessageData response = frame(requestId);
+        assertTrue(requests.complete(response));
+        assertSame(response, future.get());
+        assertEquals(0, requests.size());
+
+        assertTrue("a late response is consumed", requests.complete(frame(requestId)));
+    }
+
+    @Test(timeout = 5000)
+    public void requestTimesOut() throws Exception {
+        final PendingRequests requests = new PendingRequests(true);
+        final CompletableFuture<MessageData> future = requests.register(requests.nextRequestId(), 50);
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, requests.size());
+    }
+
+    @Test(timeout = 5000)
+    public void timeoutsFailRequestsOnTheGivenExecutor() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "timeouts"));
+        try {
+            final PendingRequests requests = new PendingRequests(true, executor);
+            final CompletableFuture<String> failedOn = requests.register(requests.nextRequestId(), 50)
+                .handle((messageData, ex) -> Thread.currentThread().getName());
+            assertEquals("timeouts", failedOn.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void ordinaryMessagesCannotUseNegativeIds() throws Exception {
+        final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        server = new MessagingServer(1);
+        server.addMessagingServerListener(new MessagingServerAdapter() {
+            @Override
+            public void acceptMessagingConnection(MessagingConnection connection) {
+                connection.addMessagingConnectionListener(new MessagingClientAdapter() {
+                    @Override
+                    public void incomingMessageData(MessagingConnection connection, MessageData messageData) {
+                        final String text = UTF8Message.of(messageData).getText();
+                        received.add(text);
+                        try {
+                            connection.reply(messageData, new UTF8Message("re:" + text));
+                        } catch (IOException ex) {
+                            throw new IllegalStateException(ex);
+                        }
+                    }
+                });
+            }
+        });
+        server.startLocal(getClass().getName());
+        client = MessagingConnection.connectLocal(getClass().getName());
+        client.start();
+        TestConnections.awaitOpened(client);
+
+        final MessageData response = client.request(new UTF8Message("ping"), 5000).get();
+        assertEquals("re:ping", UTF8Message.of(response).getText());
+        assertEquals("ping", received.take());
+
+        final UTF8Message message = new UTF8Message("forged");
+        message.setRequestId(-2);
+        try {
+            client.send(message);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // reserved
+        }
+        try {
+            client.send(frame(-3), null);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // reserved
+        }
+
+        client.send(new UTF8Message("plain"));
+        assertEquals("plain", received.poll(5, TimeUnit.SECONDS));
+        assertTrue(received.isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void repliesLeaveASharedFrameAsItIs() throws Exception {
+        final MessageData shared = new UTF8Message("shared").prepare().getMessageData();
+        final int sharedId = shared.getRequestId();
+        server = new MessagingServer(1);
+        server.addMessagingServerListener(new MessagingServerAdapter() {
+            @Override
+            public void acceptMessagingConnection(MessagingConnection connection) {
+                connection.addMessagingConnectionListener(new MessagingClientAdapter() {
+                    @Override
+                    public void incomingMessageData(MessagingConnection connection, MessageData messageData) {
+                        assertTrue(connection.reply(messageData, shared));
+                    }
+                });
+            }
+        });
+        server.start("127.0.0.1", TestConnections.freePort());
+        client = new MessagingConnection("127.0.0.1", server.getPort());
+        client.start();
+        TestConnections.awaitOpened(client);
+
+        final CompletableFuture<MessageData> first = client.request(new UTF8Message("a"), 5000);
+        final CompletableFuture<MessageData> second = client.request(new UTF8Message("b"), 5000);
+        assertEquals("shared", UTF8Message.of(first.get()).getText());
+        assertEquals("shared", UTF8Message.of(second.get()).getText());
+        assertEquals(sharedId, shared.getRequestId());
+    }
+
+    private static MessageData frame(int requestId) {
+        final MessageData frame = MessageData.allocate(null, Message.HEADERS_SIZE);
+        final ByteBuffer buffer = frame.buffer();
+        MessageData.writeHeaders(buffer, Message.HEADERS_SIZE, requestId);
+        return frame;
+    }
+}
@@ -0,0 +1,136 @@
+package ru.ancevt.net.messaging;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import ru.ancevt.net.messaging.buffer.BufferPool;
+import ru.ancevt.net.messaging.client.MessagingClient;
+import ru.ancevt.net.messaging.client.MessagingClientListener;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.message.UTF8Message;
+import ru.ancevt.net.messaging.server.MessagingServer;
+import ru.ancevt.net.messaging.server.MessagingServerAdapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Frames kept by listeners past the callback that received them.
+ *
+ * @author ancevt
+ */
+public class ReceivedFrameTest {
+
+    private MessagingServer server;
+    private MessagingClient client;
+
+    @After
+    public void tearDown() throws IOException {
+        BufferPool.setLeakDetection(false);
+        if (client != null && client.getConnection() != null) {
+            client.getConnection().close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void unpooledFrameIsKeptAndSentBackWithoutRetaining() throws Exception {
+        final BlockingQueue<MessageData> kept = new LinkedBlockingQueue<>();
+        final BlockingQueue<MessagingConnection> accepted = new LinkedBlockingQueue<>();
+        startServer(null, kept, accepted);
+        final BlockingQueue<String> replies = connectClient(null);
+
+        client.getConnection().send(new UTF8Message("first"));
+        client.getConnection().send(new UTF8Message("second"));
+        final MessageData first = kept.poll(5, TimeUnit.SECONDS);
+        // the callback of the first frame has returned once the second one arrives
+        assertNotNull(kept.poll(5, TimeUnit.SECONDS));
+
+        assertEquals("first", UTF8Message.of(first).getText());
+        first.retain();
+        first.release();
+        accepted.take().send(new UTF8Message(first));
+        assertEquals("first", replies.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void pooledFrameIsReleasedUnlessRetained() throws Exception {
+        BufferPool.setLeakDetection(true);
+        final BufferPool pool = new BufferPool(true);
+        final BlockingQueue<MessageData> kept = new LinkedBlockingQueue<>();
+        final BlockingQueue<MessagingConnection> accepted = new LinkedBlockingQueue<>();
+        startServer(pool, kept, accepted);
+        final BlockingQueue<String> replies = connectClient(null);
+
+        client.getConnection().send(new UTF8Message("pooled"));
+        final MessageData frame = kept.poll(5, TimeUnit.SECONDS);
+        accepted.take().send(new UTF8Message(frame));
+        assertEquals("pooled", replies.poll(5, TimeUnit.SECONDS));
+
+        assertTrue(frame.release());
+        client.getConnection().close();
+        client = null;
+        server.shutdown();
+        server = null;
+        assertEquals(0, pool.getTrackedCount());
+    }
+
+    private void startServer(BufferPool pool, BlockingQueue<MessageData> kept,
+        BlockingQueue<MessagingConnection> accepted) throws IOException {
+        server = new MessagingServer(1);
+        server.setBufferPool(pool);
+        server.addMessagingServerListener(new MessagingServerAdapter() {
+            @Override
+            public void acceptMessagingConnection(MessagingConnection connection) {
+                connection.addMessagingConnectionListener(new MessagingClientAdapter() {
+                    @Override
+                    public void incomingMessageData(MessagingConnection connection, MessageData messageData) {
+                        if (pool != null) {
+                            messageData.retain();
+                        }
+                        kept.add(messageData);
+                    }
+                });
+                accepted.add(connection);
+            }
+        });
+        server.start("127.0.0.1", TestConnections.freePort());
+    }
+
+    private BlockingQueue<String> connectClient(BufferPool pool) throws IOException, InterruptedException {
+        final BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+        final CountDownLatch opened = new CountDownLatch(1);
+        client = new MessagingClient();
+        client.setBufferPool(pool);
+        client.addMessagingClientListener(new MessagingClientListener() {
+            @Override
+            public void clientMessagingConnectionOpened(MessagingConnection connection) {
+                opened.countDown();
+            }
+
+            @Override
+            public void clientMessagingConnectionClosed(MessagingConnection connection, Throwable exception) {
+            }
+
+            @Override
+            public void clientMessagingConnectionError(Throwable exception) {
+            }
+        });
+        client.connect("127.0.0.1", server.getPort());
+        client.getConnection().addMessagingConnectionListener(new MessagingClientAdapter() {
+            @Override
+            public void incomingMessageData(MessagingConnection connection, MessageData messageData) {
+                replies.add(UTF8Message.of(messageData).getText());
+            }
+        });
+        assertTrue(opened.await(5, TimeUnit.SECONDS));
+        return replies;
+    }
+}
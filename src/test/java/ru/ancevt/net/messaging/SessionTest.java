@@ -0,0 +1,183 @@
+package ru.ancevt.net.messaging;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.junit.After;
+import org.junit.Test;
+import ru.ancevt.net.messaging.buffer.BufferPool;
+import ru.ancevt.net.messaging.client.MessagingClient;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.message.UTF8Message;
+import ru.ancevt.net.messaging.server.MessagingServer;
+import ru.ancevt.net.messaging.server.MessagingServerAdapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author ancevt
+ */
+public class SessionTest {
+
+    private final List<String> serverReceived = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> clientReceived = Collections.synchronizedList(new ArrayList<>());
+    private volatile Session serverSession;
+    private volatile boolean clientOpened;
+    private MessagingServer server;
+    private MessagingClient client;
+    private BufferPool pool;
+
+    @After
+    public void tearDown() throws IOException {
+        if (client != null) {
+            final MessagingConnection connection = client.getConnection();
+            if (connection != null && connection.isOpened()) {
+                connection.close();
+            }
+            if (client.getSession() != null) {
+                client.getSession().close();
+            }
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+        BufferPool.setLeakDetection(false);
+    }
+
+    @Test(timeout = 20000)
+    public void resumedSessionReplaysWhatEachSideMissed() throws Exception {
+        BufferPool.setLeakDetection(true);
+        pool = new BufferPool(true);
+        startServer(new SessionConfig(64, 1 << 20, 10_000));
+        connect(new SessionConfig(64, 1 << 20, 10_000));
+
+        // held until the handshake completes
+        send(client.getSession(), "c", 0, 50);
+        TestConnections.await("handshake", () -> serverSession != null && client.getSession().getToken() != null);
+        assertEquals(client.getSession().getToken(), serverSession.getToken());
+        send(serverSession, "s", 0, 50);
+        awaitReceived(serverReceived, "c", 50);
+        awaitReceived(clientReceived, "s", 50);
+
+        client.getConnection().close();
+        // both sides keep sending while disconnected
+        send(client.getSession(), "c", 50, 80);
+        send(serverSession, "s", 50, 80);
+
+        final Session before = serverSession;
+        serverSession = null;
+        reconnect();
+        TestConnections.await("resume", () -> serverSession != null && clientOpened);
+        assertTrue(client.getSession().isResumed());
+        assertSame(before, serverSession);
+
+        awaitReceived(serverReceived, "c", 80);
+        awaitReceived(clientReceived, "s", 80);
+
+        // frames kept for replay go back to the pool with their sessions
+        client.getConnection().close();
+        client.getSession().close();
+        client = null;
+        server.shutdown();
+        server = null;
+        TestConnections.await("frames released", () -> pool.getTrackedCount() == 0);
+    }
+
+    @Test(timeout = 20000)
+    public void expiredSessionStartsOver() throws Exception {
+        startServer(new SessionConfig(64, 1 << 20, 200));
+        connect(new SessionConfig());
+        TestConnections.await("handshake", () -> client.getSession().getToken() != null);
+        final UUID token = client.getSession().getToken();
+
+        client.getConnection().close();
+        TestConnections.await("expiry", () -> server.getSessionRegistry().size() == 0);
+
+        serverSession = null;
+        reconnect();
+        TestConnections.await("new session", () -> serverSession != null && clientOpened);
+        assertFalse(client.getSession().isResumed());
+        assertNotEquals(token, client.getSession().getToken());
+    }
+
+    @Test(timeout = 20000)
+    public void clientWithoutSessionIsClosedByTheHandshakeTimeout() throws Exception {
+        startServer(new SessionConfig(64, 1 << 20, 1000, 200));
+        connect(null);
+        TestConnections.await("handshake timeout", () -> !client.getConnection().isOpened());
+    }
+
+    private void startServer(SessionConfig sessions) throws IOException {
+        server = new MessagingServer(1);
+        server.setSessions(sessions);
+        server.setBufferPool(pool);
+        server.addMessagingServerListener(new MessagingServerAdapter() {
+            @Override
+            public void acceptMessagingConnection(MessagingConnection connection) {
+                connection.addMessagingConnectionListener(new MessagingClientAdapter() {
+                    @Override
+                    public void connectionOpened(MessagingConnection connection) {
+                        serverSession = connection.getSession();
+                    }
+
+                    @Override
+                    public void incomingMessageData(MessagingConnection connection, MessageData messageData) {
+                        serverReceived.add(UTF8Message.of(messageData).getText());
+                    }
+                });
+            }
+        });
+        server.start("127.0.0.1", TestConnections.freePort());
+    }
+
+    /**
+     * The client listens to each of its connections from before it starts, so that no replayed frame is missed.
+     * Listeners learn about a connection carrying a session once its handshake completes.
+     */
+    private void connect(SessionConfig sessions) throws IOException {
+        client = new MessagingClient() {
+            @Override
+            public void connectionOpened(MessagingConnection connection) {
+                super.connectionOpened(connection);
+                clientOpened = true;
+            }
+
+            @Override
+            public void incomingMessageData(MessagingConnection connection, MessageData messageData) {
+                clientReceived.add(UTF8Message.of(messageData).getText());
+            }
+        };
+        client.setSessions(sessions);
+        client.connect("127.0.0.1", server.getPort());
+    }
+
+    private void reconnect() throws IOException {
+        clientOpened = false;
+        client.connect("127.0.0.1", server.getPort());
+    }
+
+    private static void send(Session session, String prefix, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            session.send(new UTF8Message(prefix + i));
+        }
+    }
+
+    /**
+     * Waits for the texts prefix0 to prefix(count - 1), in order and each once.
+     */
+    private static void awaitReceived(List<String> received, String prefix, int count) throws InterruptedException {
+        TestConnections.await(count + " frames", () -> received.size() >= count);
+        synchronized (received) {
+            assertEquals(count, received.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(prefix + i, received.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package ru.ancevt.net.messaging;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Helpers shared by tests running real connections.
+ *
+ * @author ancevt
+ */
+public final class TestConnections {
+
+    public static final long TIMEOUT_MILLIS = 5000;
+
+    private TestConnections() {
+    }
+
+    public static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Waits up to {@link #TIMEOUT_MILLIS} for the condition and fails the test if it does not hold by then.
+     */
+    public static void await(String description, BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out waiting for " + description, System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    public static void awaitOpened(MessagingConnection connection) throws InterruptedException {
+        await("connection to open", connection::isOpened);
+    }
+}
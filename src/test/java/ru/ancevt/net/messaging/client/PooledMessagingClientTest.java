@@ -0,0 +1,89 @@
+package ru.ancevt.net.messaging.client;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import ru.ancevt.net.messaging.SessionConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author ancevt
+ */
+public class PooledMessagingClientTest {
+
+    private ServerSocket serverSocket;
+    private PooledMessagingClient client;
+
+    @After
+    public void tearDown() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void connectionsLostBeforeOpeningKeepBackingOff() throws Exception {
+        // accepts and hangs up at once, so no session handshake ever completes
+        final AtomicInteger accepted = new AtomicInteger();
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    final Socket socket = serverSocket.accept();
+                    accepted.incrementAndGet();
+                    socket.close();
+                }
+            } catch (IOException ex) {
+                // closed by the test
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        client = new PooledMessagingClient(1);
+        client.setBackoff(new Backoff(40, 10_000));
+        client.setSessions(new SessionConfig());
+        client.connect("127.0.0.1", serverSocket.getLocalPort());
+
+        Thread.sleep(1500);
+        // with the backoff reset on every connect, that would be a retry every 40 ms at most
+        final int attempts = accepted.get();
+        assertTrue("attempts: " + attempts, attempts >= 2 && attempts <= 10);
+    }
+
+    @Test(timeout = 20000)
+    public void closingBeforeConnectionsOpenClosesTheirSockets() throws Exception {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final List<Socket> accepted = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            client = new PooledMessagingClient(2);
+            client.connect("127.0.0.1", serverSocket.getLocalPort());
+            // the read loops have most likely not opened the connections yet
+            client.close();
+            accepted.add(serverSocket.accept());
+            accepted.add(serverSocket.accept());
+        }
+        for (Socket socket : accepted) {
+            try {
+                socket.setSoTimeout(5000);
+                assertEquals("connection closed", -1, socket.getInputStream().read());
+            } catch (SocketTimeoutException ex) {
+                throw new AssertionError("connection left open", ex);
+            } finally {
+                socket.close();
+            }
+        }
+    }
+}
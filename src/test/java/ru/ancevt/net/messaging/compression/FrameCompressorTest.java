@@ -0,0 +1,70 @@
+package ru.ancevt.net.messaging.compression;
+
+import org.junit.Test;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.message.MessagingException;
+import ru.ancevt.net.messaging.message.UTF8Message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author ancevt
+ */
+public class FrameCompressorTest {
+
+    private static final String TEXT = repeat("compressible payload ", 200);
+
+    @Test
+    public void decompressorInflatesWhatTheCompressorDeflated() throws Exception {
+        final CompressionConfig config = new CompressionConfig();
+        final MessageData frame = new UTF8Message(TEXT).prepare().getMessageData();
+        try (FrameCompressor compressor = new FrameCompressor(config);
+             FrameDecompressor decompressor = new FrameDecompressor(config)) {
+            final MessageData compressed = compressor.compress(frame, null);
+            assertNotNull(compressed);
+            assertTrue(compressed.isCompressed());
+            assertTrue(compressed.length() < frame.length());
+
+            final MessageData inflated = decompressor.decompress(compressed, null);
+            assertEquals(frame.length(), inflated.length());
+            assertEquals(TEXT, new UTF8Message(inflated).getText());
+        }
+    }
+
+    @Test
+    public void frameInflatingPastTheMaximumFrameSizeIsRejected() throws Exception {
+        final CompressionConfig config = new CompressionConfig();
+        final MessageData frame = new UTF8Message(TEXT).prepare().getMessageData();
+        try (FrameCompressor compressor = new FrameCompressor(config);
+             FrameDecompressor decompressor = new FrameDecompressor(config, frame.length() - 1)) {
+            final MessageData compressed = compressor.compress(frame, null);
+            try {
+                decompressor.decompress(compressed, null);
+                fail();
+            } catch (MessagingException ex) {
+                // the compressed frame itself is far below the limit
+                assertTrue(compressed.length() < frame.length() - 1);
+            }
+        }
+    }
+
+    @Test
+    public void closedCompressorSendsFramesRaw() throws Exception {
+        final FrameCompressor compressor = new FrameCompressor(new CompressionConfig());
+        compressor.close();
+        compressor.close();
+        assertNull(compressor.compress(new UTF8Message(TEXT).prepare().getMessageData(), null));
+    }
+
+    private static String repeat(String text, int count) {
+        final StringBuilder result = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            result.append(text);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,102 @@
+package ru.ancevt.net.messaging.exec;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author ancevt
+ */
+public class HashedWheelTimerTest {
+
+    private HashedWheelTimer timer;
+
+    @After
+    public void tearDown() {
+        if (timer != null) {
+            timer.close();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void runsTaskNoEarlierThanItsDelay() throws Exception {
+        timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8, "test-timer");
+        final CountDownLatch ran = new CountDownLatch(2);
+        final long[] elapsed = new long[2];
+        final long start = System.nanoTime();
+        timer.schedule(() -> {
+            elapsed[0] = System.nanoTime() - start;
+            ran.countDown();
+        }, 30, TimeUnit.MILLISECONDS);
+        // several revolutions of the wheel
+        final HashedWheelTimer.Timeout far = timer.schedule(() -> {
+            elapsed[1] = System.nanoTime() - start;
+            ran.countDown();
+        }, 250, TimeUnit.MILLISECONDS);
+
+        assertTrue(ran.await(3, TimeUnit.SECONDS));
+        assertTrue(elapsed[0] >= TimeUnit.MILLISECONDS.toNanos(30));
+        assertTrue(elapsed[1] >= TimeUnit.MILLISECONDS.toNanos(250));
+        assertTrue(far.isExpired());
+        assertFalse(far.cancel());
+        assertEquals(0, timer.getPendingCount());
+    }
+
+    @Test(timeout = 5000)
+    public void cancelledTasksNeverRun() throws Exception {
+        timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 16, "test-timer");
+        final AtomicInteger runs = new AtomicInteger();
+        final HashedWheelTimer.Timeout[] timeouts = new HashedWheelTimer.Timeout[100];
+        for (int i = 0; i < timeouts.length; i++) {
+            timeouts[i] = timer.schedule(runs::incrementAndGet, 50 + i, TimeUnit.MILLISECONDS);
+        }
+        for (int i = 0; i < timeouts.length; i += 2) {
+            assertTrue(timeouts[i].cancel());
+            assertTrue(timeouts[i].isCancelled());
+        }
+        assertEquals(timeouts.length / 2, timer.getPendingCount());
+
+        final CountDownLatch last = new CountDownLatch(1);
+        timer.schedule(last::countDown, 300, TimeUnit.MILLISECONDS);
+        assertTrue(last.await(3, TimeUnit.SECONDS));
+        assertEquals(timeouts.length / 2, runs.get());
+        assertEquals(0, timer.getPendingCount());
+    }
+
+    @Test(timeout = 5000)
+    public void failingTaskDoesNotStopTheTimer() throws Exception {
+        timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8, "test-timer");
+        final CountDownLatch ran = new CountDownLatch(1);
+        timer.schedule(() -> {
+            throw new IllegalStateException("expected by the test");
+        }, 10, TimeUnit.MILLISECONDS);
+        timer.schedule(ran::countDown, 40, TimeUnit.MILLISECONDS);
+        assertTrue(ran.await(3, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void closedTimerRejectsTasks() {
+        timer = new HashedWheelTimer("test-timer");
+        timer.close();
+        try {
+            timer.schedule(() -> {
+            }, 10, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (RejectedExecutionException ex) {
+            // closed
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void sharedTimerCannotBeClosed() {
+        HashedWheelTimer.shared().close();
+    }
+}
@@ -0,0 +1,203 @@
+package ru.ancevt.net.messaging.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author ancevt
+ */
+public class OrderedExecutorTest {
+
+    private OrderedExecutor executor;
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void tasksOfOneKeyRunInOrderAndOneAtATime() throws Exception {
+        executor = new OrderedExecutor(4);
+        final int keys = 32;
+        final int tasks = 2000;
+        final int[] last = new int[keys];
+        final AtomicInteger[] running = new AtomicInteger[keys];
+        final AtomicBoolean violated = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(keys * tasks);
+        for (int k = 0; k < keys; k++) {
+            last[k] = -1;
+            running[k] = new AtomicInteger();
+        }
+
+        final List<Thread> submitters = new ArrayList<>();
+        for (int k = 0; k < keys; k++) {
+            final Integer key = k;
+            final Thread submitter = new Thread(() -> {
+                for (int i = 0; i < tasks; i++) {
+                    final int index = i;
+                    executor.execute(key, () -> {
+                        if (running[key].incrementAndGet() != 1 || last[key] != index - 1) {
+                            violated.set(true);
+                        }
+                        last[key] = index;
+                        running[key].decrementAndGet();
+                        done.countDown();
+                    });
+                }
+            });
+            submitters.add(submitter);
+            submitter.start();
+        }
+        assertTrue(done.await(15, TimeUnit.SECONDS));
+        assertFalse(violated.get());
+    }
+
+    @Test(timeout = 5000)
+    public void dropNewestDiscardsTheNewTask() throws Exception {
+        executor = new OrderedExecutor(1, 2, OverflowPolicy.DROP_NEWEST);
+        final CountDownLatch gate = block();
+        final List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger discarded = new AtomicInteger();
+
+        assertTrue(executor.execute("k", () -> ran.add(1)));
+        assertTrue(executor.execute("k", () -> ran.add(2)));
+        assertFalse(executor.execute("k", discardable(() -> ran.add(3), discarded)));
+        assertEquals(1, discarded.get());
+        assertEquals(1, executor.getDiscardedCount());
+
+        gate.countDown();
+        awaitIdle(ran, 2);
+        assertEquals(Arrays.asList(1, 2), ran);
+    }
+
+    @Test(timeout = 5000)
+    public void dropOldestMakesRoomForTheNewTask() throws Exception {
+        executor = new OrderedExecutor(1, 2, OverflowPolicy.DROP_OLDEST);
+        final CountDownLatch gate = block();
+        final List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger discarded = new AtomicInteger();
+
+        executor.execute("k", discardable(() -> ran.add(1), discarded));
+        executor.execute("k", () -> ran.add(2));
+        assertTrue(executor.execute("k", () -> ran.add(3)));
+        assertEquals(1, discarded.get());
+
+        gate.countDown();
+        awaitIdle(ran, 2);
+        assertEquals(Arrays.asList(2, 3), ran);
+    }
+
+    @Test(timeout = 5000)
+    public void failRejectsAndMandatoryIgnoresTheBound() throws Exception {
+        executor = new OrderedExecutor(1, 1, OverflowPolicy.FAIL);
+        final CountDownLatch gate = block();
+        final List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+
+        executor.execute("k", () -> ran.add(1));
+        try {
+            executor.execute("k", () -> ran.add(2));
+            fail();
+        } catch (RejectedExecutionException ex) {
+            // full
+        }
+        executor.executeMandatory("k", () -> ran.add(3));
+        executor.executeMandatory("k", () -> ran.add(4));
+
+        gate.countDown();
+        awaitIdle(ran, 3);
+        assertEquals(Arrays.asList(1, 3, 4), ran);
+    }
+
+    @Test(timeout = 5000)
+    public void blockWaitsForAFreeSlot() throws Exception {
+        executor = new OrderedExecutor(1, 1, OverflowPolicy.BLOCK);
+        final CountDownLatch gate = block();
+        final List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+        executor.execute("k", () -> ran.add(1));
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        new Thread(() -> {
+            executor.execute("k", () -> ran.add(2));
+            submitted.countDown();
+        }).start();
+        assertFalse(submitted.await(100, TimeUnit.MILLISECONDS));
+
+        gate.countDown();
+        assertTrue(submitted.await(1, TimeUnit.SECONDS));
+        awaitIdle(ran, 2);
+        assertEquals(Arrays.asList(1, 2), ran);
+    }
+
+    @Test(timeout = 5000)
+    public void closeRunsQueuedTasksAndRejectsNewOnes() throws Exception {
+        executor = new OrderedExecutor(1);
+        final CountDownLatch gate = block();
+        final List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+        executor.execute("k", () -> ran.add(1));
+
+        executor.close();
+        try {
+            executor.execute("k", () -> ran.add(2));
+            fail();
+        } catch (RejectedExecutionException ex) {
+            // closed
+        }
+        gate.countDown();
+        awaitIdle(ran, 1);
+        assertEquals(Arrays.asList(1), ran);
+    }
+
+    /**
+     * Occupies the only worker until the returned gate opens.
+     */
+    private CountDownLatch block() throws InterruptedException {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.executeMandatory("k", () -> {
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        return gate;
+    }
+
+    private void awaitIdle(List<Integer> ran, int count) throws InterruptedException {
+        while (ran.size() < count || executor.getQueuedCount() > 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static DiscardableTask discardable(Runnable task, AtomicInteger discarded) {
+        return new DiscardableTask() {
+            @Override
+            public void run() {
+                task.run();
+            }
+
+            @Override
+            public void discard() {
+                discarded.incrementAndGet();
+            }
+        };
+    }
+}
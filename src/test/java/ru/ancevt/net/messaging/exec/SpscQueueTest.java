@@ -0,0 +1,73 @@
+package ru.ancevt.net.messaging.exec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author ancevt
+ */
+public class SpscQueueTest {
+
+    @Test
+    public void keepsOrderAndRefusesWhenFull() {
+        final SpscQueue<Integer> queue = new SpscQueue<>(3);
+        assertEquals(4, queue.capacity());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+
+        // several times round the ring
+        int next = 0;
+        int expected = 0;
+        for (int round = 0; round < 10; round++) {
+            while (queue.offer(next)) {
+                next++;
+            }
+            assertEquals(4, queue.size());
+            assertEquals(expected++, (int) queue.poll());
+            assertEquals(expected++, (int) queue.poll());
+        }
+        while (!queue.isEmpty()) {
+            assertEquals(expected++, (int) queue.poll());
+        }
+        assertEquals(next, expected);
+        assertEquals(0, queue.size());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void refusesNull() {
+        new SpscQueue<>(4).offer(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesInvalidCapacity() {
+        new SpscQueue<>(0);
+    }
+
+    @Test(timeout = 20000)
+    public void producerAndConsumerThreadsKeepOrder() throws Exception {
+        final SpscQueue<Integer> queue = new SpscQueue<>(64);
+        final int count = 1_000_000;
+        final Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                while (!queue.offer(i)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+
+        for (int i = 0; i < count; i++) {
+            Integer element;
+            while ((element = queue.poll()) == null) {
+                Thread.yield();
+            }
+            assertEquals(i, (int) element);
+        }
+        producer.join();
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,148 @@
+package ru.ancevt.net.messaging.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ru.ancevt.net.messaging.message.Message;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.message.UTF8Message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author ancevt
+ */
+public class JournalTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    private Path directory;
+    private Journal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+        delete(directory);
+    }
+
+    @Test
+    public void reopenedJournalRecoversFramesAndAcknowledgedPosition() throws IOException {
+        journal = new Journal(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, journal.append(frame("frame" + i)));
+        }
+        assertTrue(journal.getSegmentCount() > 1);
+        journal.acknowledge(60);
+        journal.close();
+
+        journal = new Journal(directory, SEGMENT_SIZE);
+        assertEquals(60, journal.getAcknowledged());
+        assertEquals(100, journal.getNextSequence());
+        assertEquals(40, journal.getPendingCount());
+        for (int i = 60; i < 100; i++) {
+            assertEquals("frame" + i, text(journal.read(i)));
+        }
+        assertNull(journal.read(100));
+
+        assertEquals(100, journal.append(frame("after reopen")));
+        assertEquals("after reopen", text(journal.read(100)));
+    }
+
+    @Test
+    public void tornFrameIsDroppedOnRecovery() throws IOException {
+        journal = new Journal(directory, SEGMENT_SIZE);
+        int end = 0;
+        for (int i = 0; i < 3; i++) {
+            final MessageData frame = frame("frame" + i);
+            end += frame.length();
+            journal.append(frame);
+        }
+        journal.close();
+        journal = null;
+
+        // headers of a frame whose payload never made it to the file
+        final ByteBuffer torn = ByteBuffer.allocate(Message.HEADERS_SIZE);
+        MessageData.writeHeaders(torn, SEGMENT_SIZE * 2, 0);
+        torn.flip();
+        try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+            channel.write(torn, end);
+        }
+
+        journal = new Journal(directory, SEGMENT_SIZE);
+        assertEquals(3, journal.getNextSequence());
+        assertEquals("frame2", text(journal.read(2)));
+        assertEquals(3, journal.append(frame("frame3")));
+        journal.close();
+
+        journal = new Journal(directory, SEGMENT_SIZE);
+        assertEquals(4, journal.getNextSequence());
+        assertEquals("frame3", text(journal.read(3)));
+    }
+
+    @Test
+    public void acknowledgedSegmentsAreDeletedOnceReleased() throws IOException {
+        journal = new Journal(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 100; i++) {
+            journal.append(frame("frame" + i));
+        }
+        final Path first = segments().get(0);
+        final MessageData held = journal.read(0);
+        assertTrue("frames are read only", held.buffer().isReadOnly());
+
+        journal.acknowledge(100);
+        assertEquals(1, journal.getSegmentCount());
+        assertTrue("a segment with a frame held stays", Files.exists(first));
+        assertEquals("frame0", new UTF8Message(held).getText());
+        held.release();
+        assertFalse(Files.exists(first));
+        assertEquals(1, segments().size());
+    }
+
+    private List<Path> segments() throws IOException {
+        final List<Path> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.toString().endsWith(Segment.SUFFIX)).forEach(result::add);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static MessageData frame(String text) throws IOException {
+        return new UTF8Message(text).prepare().getMessageData();
+    }
+
+    private static String text(MessageData frame) {
+        try {
+            return new UTF8Message(frame).getText();
+        } finally {
+            frame.release();
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package ru.ancevt.net.messaging.journal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ru.ancevt.net.messaging.MessagingClientAdapter;
+import ru.ancevt.net.messaging.MessagingConnection;
+import ru.ancevt.net.messaging.TestConnections;
+import ru.ancevt.net.messaging.message.MessageData;
+import ru.ancevt.net.messaging.message.UTF8Message;
+import ru.ancevt.net.messaging.server.MessagingServer;
+import ru.ancevt.net.messaging.server.MessagingServerAdapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author ancevt
+ */
+public class OutboxTest {
+
+    private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+    private final List<MessageData> unconfirmed = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean confirming;
+    private volatile MessagingConnection serverSide;
+    private Path directory;
+    private MessagingServer server;
+    private MessagingConnection client;
+    private Outbox outbox;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("outbox-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (outbox != null) {
+            outbox.close();
+        }
+        if (client != null && client.isOpened()) {
+            client.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void deliversInOrderWithoutTouchingTheJournal() throws Exception {
+        startServer();
+        outbox = new Outbox(new Journal(directory, 4096));
+        final int[] ids = new int[100];
+        for (int i = 0; i < ids.length; i++) {
+            final UTF8Message message = new UTF8Message("m" + i);
+            outbox.send(message);
+            ids[i] = message.getRequestId();
+        }
+
+        connect();
+        outbox.attach(client);
+        TestConnections.await("window delivered", () -> received.size() == Outbox.DEFAULT_MAX_IN_FLIGHT);
+        for (int i = 0; i < ids.length; i++) {
+            final MessageData frame = outbox.getJournal().read(i);
+            try {
+                assertEquals("request ids go into copies only", ids[i], frame.getRequestId());
+            } finally {
+                frame.release();
+            }
+        }
+
+        confirming = true;
+        synchronized (unconfirmed) {
+            for (MessageData request : unconfirmed) {
+                assertTrue(Outbox.confirm(serverSide, request));
+            }
+            unconfirmed.clear();
+        }
+        TestConnections.await("all confirmed", () -> outbox.getPendingCount() == 0);
+        synchronized (received) {
+            assertEquals(ids.length, received.size());
+            for (int i = 0; i < ids.length; i++) {
+                assertEquals("m" + i, received.get(i));
+            }
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void unconfirmedMessagesAreDeliveredAgainThroughTheNextConnection() throws Exception {
+        startServer();
+        outbox = new Outbox(new Journal(directory, 4096));
+        connect();
+        outbox.attach(client);
+        for (int i = 0; i < 10; i++) {
+            outbox.send(new UTF8Message("m" + i));
+        }
+        TestConnections.await("delivered", () -> received.size() == 10);
+
+        final CountDownLatch closed = new CountDownLatch(1);
+        client.addMessagingConnectionListener(new MessagingClientAdapter() {
+            @Override
+            public void connectionClosed(MessagingConnection connection, Throwable exception) {
+                closed.countDown();
+            }
+        });
+        client.close();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(10, outbox.getPendingCount());
+
+        received.clear();
+        unconfirmed.clear();
+        confirming = true;
+        connect();
+        outbox.attach(client);
+        TestConnections.await("redelivered", () -> outbox.getPendingCount() == 0);
+        assertEquals(10, received.size());
+    }
+
+    private void startServer() throws IOException {
+        server = new MessagingServer(1);
+        server.addMessagingServerListener(new MessagingServerAdapter() {
+            @Override
+            public void acceptMessagingConnection(MessagingConnection connection) {
+                serverSide = connection;
+                connection.addMessagingConnectionListener(new MessagingClientAdapter() {
+                    @Override
+                    public void incomingMessageData(MessagingConnection connection, MessageData messageData) {
+                        received.add(UTF8Message.of(messageData).getText());
+                        if (confirming) {
+                            Outbox.confirm(connection, messageData);
+                        } else {
+                            unconfirmed.add(messageData);
+                        }
+                    }
+                });
+            }
+        });
+        server.start("127.0.0.1", TestConnections.freePort());
+    }
+
+    private void connect() throws Exception {
+        client = new MessagingConnection("127.0.0.1", server.getPort());
+        client.start();
+        TestConnections.awaitOpened(client);
+    }
+}
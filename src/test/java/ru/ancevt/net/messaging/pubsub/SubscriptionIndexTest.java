@@ -0,0 +1,134 @@
+package ru.ancevt.net.messaging.pubsub;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.After;
+import org.junit.Test;
+import ru.ancevt.net.messaging.MessagingConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author ancevt
+ */
+public class SubscriptionIndexTest {
+
+    private final List<SocketChannel> channels = new ArrayList<>();
+
+    @After
+    public void tearDown() throws IOException {
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void resolvesExactPrefixAndWildcardPatternsOnce() throws IOException {
+        final SubscriptionIndex index = new SubscriptionIndex();
+        final MessagingConnection a = connection();
+        final MessagingConnection b = connection();
+        final MessagingConnection c = connection();
+
+        index.subscribe(a, "news.sport");
+        index.subscribe(a, "news.*");
+        index.subscribe(b, "news.sport.*");
+        index.subscribe(c, SubscriptionIndex.WILDCARD);
+
+        assertEquals(new HashSet<>(Arrays.asList(a, c)), new HashSet<>(index.resolve("news.sport")));
+        assertEquals(2, index.resolve("news.sport").size());
+        assertEquals(new HashSet<>(Arrays.asList(a, b, c)), new HashSet<>(index.resolve("news.sport.football")));
+        assertEquals(Arrays.asList(c), index.resolve("weather"));
+
+        index.unsubscribe(c, SubscriptionIndex.WILDCARD);
+        assertTrue(index.resolve("weather").isEmpty());
+    }
+
+    @Test
+    public void unrelatedChangesKeepTheCachedResult() throws IOException {
+        final SubscriptionIndex index = new SubscriptionIndex();
+        final MessagingConnection a = connection();
+        final MessagingConnection b = connection();
+        index.subscribe(a, "news.*");
+
+        final List<MessagingConnection> resolved = index.resolve("news.sport");
+        assertSame(resolved, index.resolve("news.sport"));
+
+        index.subscribe(b, "weather");
+        index.subscribe(b, "news.sport.*");
+        index.unsubscribe(b, "weather");
+        assertSame(resolved, index.resolve("news.sport"));
+
+        index.subscribe(b, "news.sport");
+        final List<MessagingConnection> changed = index.resolve("news.sport");
+        assertNotSame(resolved, changed);
+        assertEquals(2, changed.size());
+
+        index.unsubscribe(a, "news.*");
+        assertEquals(Arrays.asList(b), index.resolve("news.sport"));
+
+        // a key that disappears and comes back with the same subscribers is still a change
+        final List<MessagingConnection> before = index.resolve("news.sport");
+        index.unsubscribe(b, "news.sport");
+        index.subscribe(b, "news.sport");
+        assertNotSame(before, index.resolve("news.sport"));
+    }
+
+    @Test
+    public void cacheStaysBounded() throws IOException {
+        final SubscriptionIndex index = new SubscriptionIndex();
+        final MessagingConnection a = connection();
+        index.subscribe(a, SubscriptionIndex.WILDCARD);
+        for (int i = 0; i < SubscriptionIndex.MAX_CACHED_TOPICS * 2; i++) {
+            assertEquals(1, index.resolve("topic" + i).size());
+        }
+        // a hot topic keeps its entry unless it happens to be the one evicted
+        final List<MessagingConnection> hot = index.resolve("hot");
+        assertSame(hot, index.resolve("hot"));
+    }
+
+    @Test(timeout = 20000)
+    public void subscribeRacingUnsubscribeAllLeavesNoHalfSubscriptions() throws Exception {
+        final SubscriptionIndex index = new SubscriptionIndex();
+        for (int i = 0; i < 2000; i++) {
+            final MessagingConnection connection = connection();
+            final String topic = "topic" + i;
+            final CountDownLatch start = new CountDownLatch(1);
+            final Thread subscriber = new Thread(() -> {
+                await(start);
+                index.subscribe(connection, topic);
+            });
+            subscriber.start();
+            start.countDown();
+            index.unsubscribeAll(connection);
+            subscriber.join();
+
+            final boolean listed = index.getPatterns(connection).contains(topic);
+            assertEquals(listed, index.resolve(topic).contains(connection));
+            index.unsubscribeAll(connection);
+            assertTrue(index.resolve(topic).isEmpty());
+        }
+        assertEquals(0, index.getSubscriberCount());
+    }
+
+    private MessagingConnection connection() throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+        channels.add(channel);
+        return new MessagingConnection(channel);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package ru.ancevt.net.messaging.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import ru.ancevt.net.messaging.MessagingConnection;
+import ru.ancevt.net.messaging.TestConnections;
+import ru.ancevt.net.messaging.exec.ConnectionExecutor;
+import ru.ancevt.net.messaging.exec.ConnectionExecutors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author ancevt
+ */
+public class MessagingServerTest {
+
+    private final List<SocketChannel> clients = new ArrayList<>();
+    private MessagingServer server;
+
+    @After
+    public void tearDown() throws IOException {
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void burstOfConnectionsIsSpreadOverTheShards() throws Exception {
+        final int shards = 4;
+        final int count = 200;
+        final Set<String> acceptedOn = ConcurrentHashMap.newKeySet();
+        server = new MessagingServer(shards, 1);
+        server.addMessagingServerListener(new MessagingServerAdapter() {
+            @Override
+            public void acceptMessagingConnection(MessagingConnection connection) {
+                acceptedOn.add(Thread.currentThread().getName());
+            }
+        });
+        start();
+
+        connect(count);
+        TestConnections.await(count + " connections", () -> server.getConnectionCount() == count);
+        for (int i = 0; i < shards; i++) {
+            assertEquals("shard " + i, count / shards, server.getConnectionCount(i));
+        }
+        for (MessagingConnection connection : server.getConnections()) {
+            assertTrue(connection.isOpened());
+        }
+        assertEquals("set up on the threads of the shards", shards, acceptedOn.size());
+
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        clients.clear();
+        TestConnections.await("connections closed", () -> server.getConnectionCount() == 0);
+    }
+
+    @Test(timeout = 20000)
+    public void failingAcceptListenerDoesNotStopAccepting() throws Exception {
+        final AtomicInteger accepts = new AtomicInteger();
+        server = new MessagingServer(2, 1);
+        server.addMessagingServerListener(new MessagingServerAdapter() {
+            @Override
+            public void acceptMessagingConnection(MessagingConnection connection) {
+                if (accepts.incrementAndGet() == 1) {
+                    throw new IllegalStateException("test");
+                }
+            }
+        });
+        start();
+
+        connect(1);
+        TestConnections.await("first accept", () -> accepts.get() == 1);
+        connect(10);
+        TestConnections.await("later accepts", () -> accepts.get() == 11);
+        TestConnections.await("connections", () -> server.getConnectionCount() == 10);
+    }
+
+    @Test(timeout = 20000)
+    public void blockingAcceptListenerDoesNotStallAccepting() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger accepts = new AtomicInteger();
+        try (ConnectionExecutor executor = ConnectionExecutors.platformThreads()) {
+            server = new MessagingServer(executor);
+            server.addMessagingServerListener(new MessagingServerAdapter() {
+                @Override
+                public void acceptMessagingConnection(MessagingConnection connection) {
+                    if (accepts.incrementAndGet() == 1) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            });
+            start();
+
+            try {
+                connect(1);
+                TestConnections.await("first accept", () -> accepts.get() == 1);
+                connect(5);
+                TestConnections.await("accepts while the first blocks", () -> accepts.get() == 6);
+            } finally {
+                release.countDown();
+            }
+            TestConnections.await("connections", () -> server.getConnectionCount() == 6);
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void shutdownClosesTheServerSocket() throws Exception {
+        server = new MessagingServer(4, 1);
+        start();
+        connect(8);
+        TestConnections.await("connections", () -> server.getConnectionCount() == 8);
+
+        final int port = server.getPort();
+        server.shutdown();
+        server = null;
+        TestConnections.await("server socket closed", () -> !isListening(port));
+    }
+
+    private static boolean isListening(int port) {
+        try {
+            SocketChannel.open(new InetSocketAddress("127.0.0.1", port)).close();
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private void start() throws IOException {
+        server.start("127.0.0.1", TestConnections.freePort());
+    }
+
+    private void connect(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            clients.add(SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort())));
+        }
+    }
+}